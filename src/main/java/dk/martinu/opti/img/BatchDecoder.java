@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img;
+
+import dk.martinu.opti.img.spi.DecoderRegistry;
+import dk.martinu.opti.img.spi.ImageDecoder;
+import dk.martinu.opti.img.spi.ImageHeader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Decodes many image files concurrently on an executor, e.g. a thread pool
+ * or an executor that starts a virtual thread for each task. Each file is
+ * opened once by a task, which selects a decoder from the
+ * {@linkplain DecoderRegistry#getDefault() default registry} and reads the
+ * header of the image to estimate its size. The image is then decoded from
+ * the same channel by a second task, once its size has been reserved.
+ * <p>
+ * The number of images in flight, i.e. images whose files are open or that
+ * have been decoded but not yet passed to the caller, is bounded by a
+ * maximum number of images and a maximum number of bytes. Bytes are reserved
+ * for images in the order of the files. An image that is larger than the
+ * maximum number of bytes is decoded when no other images are being decoded.
+ * <p>
+ * Tasks are submitted, and results are passed to the caller, on the thread
+ * that calls the decode methods, which blocks until all files have been
+ * decoded. Batch decoders are stateless and can be shared between threads.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
+public class BatchDecoder {
+    /**
+     * Default maximum number of bytes of images in flight, which is 256 MiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    /**
+     * The executor that decode tasks are submitted to.
+     */
+    protected final Executor executor;
+    /**
+     * Maximum number of images in flight.
+     */
+    protected final int maxImages;
+    /**
+     * Maximum number of bytes of images in flight.
+     */
+    protected final long maxBytes;
+
+    /**
+     * Constructs a new batch decoder that decodes as many images
+     * concurrently as there are available processors, and at most
+     * {@link #DEFAULT_MAX_BYTES} bytes of images.
+     *
+     * @param executor the executor that decode tasks are submitted to
+     */
+    public BatchDecoder(Executor executor) {
+        this(executor, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructs a new batch decoder.
+     *
+     * @param executor  the executor that decode tasks are submitted to
+     * @param maxImages the maximum number of images in flight
+     * @param maxBytes  the maximum number of bytes of images in flight
+     * @throws NullPointerException     if {@code executor} is {@code null}
+     * @throws IllegalArgumentException if {@code maxImages} or
+     *                                  {@code maxBytes} is less than 1
+     */
+    public BatchDecoder(Executor executor, int maxImages, long maxBytes) {
+        this.executor = Objects.requireNonNull(executor, "executor is null");
+        if (maxImages < 1) {
+            throw new IllegalArgumentException("maxImages is less than 1");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes is less than 1");
+        }
+        this.maxImages = maxImages;
+        this.maxBytes  = maxBytes;
+    }
+
+    /**
+     * Decodes the specified image files and returns the images in the same
+     * order as {@code paths}. Elements are {@code null} for files that no
+     * decoder can decode.
+     *
+     * @param paths the paths of the image files
+     * @return a list of the decoded images
+     * @throws IOException if any of the images could not be decoded; the
+     *                     exceptions of other images are suppressed
+     */
+    public List<OptiImage> decodeAll(Collection<Path> paths) throws IOException {
+        final List<OptiImage> images = new ArrayList<>(paths.size());
+        final IOException[] exception = new IOException[1];
+        decodeOrdered(paths, result -> {
+            if (result.exception == null) {
+                images.add(result.image);
+            }
+            else if (exception[0] == null) {
+                exception[0] = result.exception;
+            }
+            else {
+                exception[0].addSuppressed(result.exception);
+            }
+        });
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        return images;
+    }
+
+    /**
+     * Decodes the specified image files and passes the result of each file
+     * to {@code consumer} as soon as it has been decoded, in no particular
+     * order. {@code consumer} is called on the calling thread.
+     *
+     * @param paths    the paths of the image files
+     * @param consumer the consumer of results
+     * @throws IOException if the calling thread is interrupted
+     */
+    public void decodeAsCompleted(Collection<Path> paths, Consumer<Result> consumer) throws IOException {
+        decode(paths, false, consumer);
+    }
+
+    /**
+     * Decodes the specified image files and passes the result of each file
+     * to {@code consumer} in the same order as {@code paths}.
+     * {@code consumer} is called on the calling thread. Images that have been
+     * decoded before the images that precede them count towards the images
+     * in flight until they are passed to {@code consumer}.
+     *
+     * @param paths    the paths of the image files
+     * @param consumer the consumer of results
+     * @throws IOException if the calling thread is interrupted
+     */
+    public void decodeOrdered(Collection<Path> paths, Consumer<Result> consumer) throws IOException {
+        decode(paths, true, consumer);
+    }
+
+    /**
+     * Returns the estimated number of bytes of the decoded image described
+     * by the specified header. This method is called by decode tasks.
+     *
+     * @param header the header of the image
+     * @return the estimated size of the decoded image
+     */
+    protected long getDecodedSize(ImageHeader header) {
+        return header.getDecodedSize();
+    }
+
+    private void decode(Collection<Path> paths, boolean ordered, Consumer<Result> consumer) throws IOException {
+        Objects.requireNonNull(consumer, "consumer is null");
+        final List<Path> list = List.copyOf(paths);
+        final Window window = new Window(list.size(), ordered, consumer);
+        try {
+            int index = 0;
+            while (index < list.size() || window.inFlight > 0) {
+                if (index < list.size() && window.inFlight < maxImages) {
+                    window.inFlight++;
+                    executor.execute(new Task(index, list.get(index), window.completed));
+                    index++;
+                }
+                else {
+                    window.update(window.completed.take());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding images");
+        }
+        finally {
+            window.close();
+        }
+    }
+
+    /**
+     * The result of decoding an image file.
+     *
+     * @param index     the index of the file in the collection of paths
+     * @param path      the path of the image file
+     * @param image     the decoded image, or {@code null} if no decoder can
+     *                  decode the image, or if it could not be decoded
+     * @param exception the exception that was thrown when decoding the image,
+     *                  or {@code null}
+     */
+    public record Result(int index, Path path, OptiImage image, IOException exception) {
+
+        /**
+         * Returns the decoded image, or {@code null} if no decoder can decode
+         * the image.
+         *
+         * @throws IOException if the image could not be decoded
+         */
+        public OptiImage get() throws IOException {
+            if (exception != null) {
+                throw exception;
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Task that decodes a single image file in two steps, and adds itself to
+     * a queue after each step. The first step opens the file, selects a
+     * decoder and estimates the size of the image; the second step decodes
+     * the image from the same channel and closes it. The result is set when
+     * the image has been decoded, or if the first step fails or no decoder
+     * can decode the image. Tasks are passed between threads through the
+     * queue, which makes their fields visible to the next thread.
+     */
+    private class Task implements Runnable {
+
+        final int index;
+        final Path path;
+        final BlockingQueue<Task> completed;
+        FileChannel input = null;
+        ImageDecoder decoder = null;
+        /**
+         * Estimated size of the decoded image.
+         */
+        long size = 0L;
+        Result result = null;
+
+        Task(int index, Path path, BlockingQueue<Task> completed) {
+            this.index     = index;
+            this.path      = path;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (input == null) {
+                    probe();
+                }
+                else {
+                    finish(decoder.decode(input), null);
+                }
+            }
+            catch (IOException e) {
+                finish(null, e);
+            }
+            // the caller waits for the task, which must be added regardless
+            catch (RuntimeException | Error e) {
+                finish(null, new IOException("could not decode image file " + path, e));
+            }
+            completed.add(this);
+        }
+
+        /**
+         * Closes the file, if it is open, and sets the result of this task.
+         */
+        void finish(OptiImage image, IOException exception) {
+            if (input != null) {
+                try {
+                    input.close();
+                }
+                catch (IOException ignored) { }
+            }
+            result = new Result(index, path, image, exception);
+        }
+
+        private void probe() throws IOException {
+            input   = FileChannel.open(path, StandardOpenOption.READ);
+            decoder = DecoderRegistry.getDefault().find(path, DecoderRegistry.readHeader(input));
+            if (decoder != null) {
+                size = getDecodedSize(decoder.probe(input));
+                input.position(0L);
+            }
+            else {
+                finish(null, null);
+            }
+        }
+    }
+
+    /**
+     * The images in flight of a single call to a decode method. Only
+     * {@link #completed} is accessed by other threads.
+     */
+    private class Window {
+
+        /**
+         * Tasks that have completed a step, added by the tasks themselves.
+         */
+        final BlockingQueue<Task> completed = new LinkedBlockingQueue<>();
+        /**
+         * Tasks that wait for bytes to be reserved, by index.
+         */
+        final Task[] waiting;
+        /**
+         * Decoded images that wait for preceding images, or {@code null} if
+         * results are passed to the consumer as they complete.
+         */
+        final Result[] pending;
+        final Consumer<Result> consumer;
+        /**
+         * Estimated size of each image that bytes have been reserved for, or
+         * {@code -1} if bytes have not been reserved for the image.
+         */
+        final long[] sizes;
+        /**
+         * Index of the next image to reserve bytes for.
+         */
+        int nextReserve = 0;
+        /**
+         * Index of the next result to pass to the consumer if ordered.
+         */
+        int next = 0;
+        /**
+         * Number of images in flight, and the number and estimated size of
+         * images that bytes have been reserved for.
+         */
+        int inFlight = 0;
+        int reserved = 0;
+        long bytes = 0L;
+
+        Window(int count, boolean ordered, Consumer<Result> consumer) {
+            waiting       = new Task[count];
+            pending       = ordered ? new Result[count] : null;
+            sizes         = new long[count];
+            this.consumer = consumer;
+            Arrays.fill(sizes, -1L);
+        }
+
+        /**
+         * Closes the files of tasks that still wait for bytes to be reserved,
+         * e.g. if the caller was interrupted.
+         */
+        void close() {
+            for (Task task : waiting) {
+                if (task != null && task.result == null) {
+                    task.finish(null, null);
+                }
+            }
+        }
+
+        /**
+         * Updates this window with a task that has completed a step. Results
+         * are delivered, and the next images are decoded while there are
+         * bytes to reserve for them.
+         */
+        void update(Task task) {
+            // the task can be submitted again by reserve(), so the result is read first
+            final Result result = task.result;
+            // tasks that bytes have not been reserved for completed the first step
+            if (sizes[task.index] == -1L) {
+                waiting[task.index] = task;
+                reserve();
+            }
+            if (result != null) {
+                deliver(result);
+                reserve();
+            }
+        }
+
+        private void deliver(Result result) {
+            if (pending == null) {
+                release(result);
+            }
+            else {
+                pending[result.index] = result;
+                while (next < pending.length && pending[next] != null) {
+                    final Result r = pending[next];
+                    pending[next++] = null;
+                    release(r);
+                }
+            }
+        }
+
+        private void release(Result result) {
+            inFlight--;
+            if (sizes[result.index] != -1L) {
+                reserved--;
+                bytes -= sizes[result.index];
+            }
+            consumer.accept(result);
+        }
+
+        /**
+         * Reserves bytes for the images that wait, in the order of the files,
+         * and submits their tasks to decode them.
+         */
+        private void reserve() {
+            while (nextReserve < waiting.length && waiting[nextReserve] != null) {
+                final Task task = waiting[nextReserve];
+                if (task.result == null) {
+                    if (reserved > 0 && bytes + task.size > maxBytes) {
+                        return;
+                    }
+                    reserved++;
+                    bytes += task.size;
+                    sizes[task.index] = task.size;
+                    executor.execute(task);
+                }
+                waiting[nextReserve++] = null;
+            }
+        }
+    }
+}
@@ -16,30 +16,218 @@
  */
 package dk.martinu.opti.img;
 
+import dk.martinu.opti.img.spi.DecodeOptions;
+import dk.martinu.opti.img.spi.DecoderRegistry;
 import dk.martinu.opti.img.spi.ImageDecoder;
+import dk.martinu.opti.img.spi.ImageHeader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public abstract class OptiImage {
 
     public static final String IMAGE_FORMAT = "imageFormat";
     public static final String BIT_DEPTH = "bitDepth";
     public static final String COMPOSITING_BACKGROUND = "compositingBackground";
-    private static final ServiceLoader<ImageDecoder> readers = ServiceLoader.load(ImageDecoder.class);
-
+    /**
+     * Decodes the specified image file. The file is opened once, and the
+     * decoder is selected by the signature at the beginning of the file.
+     *
+     * @param path the path of the image file
+     * @return the decoded image, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if the file could not be read or the image could
+     *                     not be decoded
+     * @see DecoderRegistry#find(Path, ByteBuffer)
+     */
     public static OptiImage from(Path path) throws IOException {
         Objects.requireNonNull(path, "path is null");
-        // locate image reader provider
-        final ServiceLoader.Provider<ImageDecoder> provider = readers
-                .stream()
-                .filter(p -> p.get().canDecode(path))
-                .findFirst()
-                .orElse(null);
-        // read image file
-        if (provider != null) {
-            return provider.get().decode(path);
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ImageDecoder decoder = DecoderRegistry.getDefault().find(path, DecoderRegistry.readHeader(input));
+            if (decoder != null) {
+                return decoder.decode(input);
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes the specified image file with the specified options, e.g. to
+     * decode a thumbnail of the image.
+     *
+     * @param path    the path of the image file
+     * @param options the decode options
+     * @return the decoded image, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if the image could not be decoded
+     * @see ImageDecoder#decode(Path, DecodeOptions)
+     */
+    public static OptiImage from(Path path, DecodeOptions options) throws IOException {
+        Objects.requireNonNull(path, "path is null");
+        Objects.requireNonNull(options, "options is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ImageDecoder decoder = DecoderRegistry.getDefault().find(path, DecoderRegistry.readHeader(input));
+            if (decoder != null) {
+                return decoder.decode(input, options);
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes the specified image file asynchronously and returns a future
+     * that completes with the decoded image. The header of the file is read
+     * with an {@link AsynchronousFileChannel} to select the decoder, which
+     * then decodes the file with
+     * {@link ImageDecoder#decodeAsync(Path, Executor)}, so the calling thread
+     * is not blocked.
+     *
+     * @param path     the path of the image file
+     * @param executor the executor that decodes the image
+     * @return a future that completes with the decoded image, or with
+     * {@code null} if no decoder can decode the image
+     * @see ImageDecoder#decodeAsync(Path, Executor)
+     */
+    public static CompletableFuture<OptiImage> fromAsync(Path path, Executor executor) {
+        Objects.requireNonNull(path, "path is null");
+        Objects.requireNonNull(executor, "executor is null");
+        final AsynchronousFileChannel input;
+        try {
+            input = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return DecoderRegistry.readHeader(input)
+                .whenComplete((header, e) -> {
+                    try {
+                        input.close();
+                    }
+                    catch (IOException ignored) { }
+                })
+                .thenComposeAsync(header -> {
+                    final ImageDecoder decoder = DecoderRegistry.getDefault().find(path, header);
+                    return decoder != null ?
+                            decoder.decodeAsync(path, executor) :
+                            CompletableFuture.completedFuture(null);
+                }, executor);
+    }
+
+    /**
+     * Decodes the specified image files concurrently on the common fork-join
+     * pool and returns the images in the same order as {@code paths}.
+     * Elements are {@code null} for files that no decoder can decode. Use a
+     * {@link BatchDecoder} to decode on a different executor or to receive
+     * images as they complete.
+     *
+     * @param paths the paths of the image files
+     * @return a list of the decoded images
+     * @throws IOException if any of the images could not be decoded
+     * @see BatchDecoder#decodeAll(Collection)
+     */
+    public static List<OptiImage> fromAll(Collection<Path> paths) throws IOException {
+        Objects.requireNonNull(paths, "paths is null");
+        return new BatchDecoder(ForkJoinPool.commonPool()).decodeAll(paths);
+    }
+
+    /**
+     * Reads the header of the specified image file and returns it, without
+     * decoding the image.
+     *
+     * @param path the path of the image file
+     * @return the image header, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if the header could not be read
+     * @see ImageDecoder#probe(Path)
+     */
+    public static ImageHeader probe(Path path) throws IOException {
+        Objects.requireNonNull(path, "path is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ImageDecoder decoder = DecoderRegistry.getDefault().find(path, DecoderRegistry.readHeader(input));
+            if (decoder != null) {
+                return decoder.probe(input);
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes an image from the remaining bytes of the specified buffer. The
+     * position of {@code buffer} is not changed.
+     *
+     * @param buffer the buffer containing the encoded image
+     * @return the decoded image, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if the image could not be decoded
+     */
+    public static OptiImage from(ByteBuffer buffer) throws IOException {
+        Objects.requireNonNull(buffer, "buffer is null");
+        final ImageDecoder decoder = DecoderRegistry.getDefault().find(buffer);
+        if (decoder != null) {
+            return decoder.decode(buffer);
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes an image from the specified stream. The stream is not closed.
+     *
+     * @param input the stream to read the encoded image from
+     * @return the decoded image, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if an I/O error occurs or the image could not be
+     *                     decoded
+     * @see #from(ReadableByteChannel)
+     */
+    public static OptiImage from(InputStream input) throws IOException {
+        Objects.requireNonNull(input, "input is null");
+        return from(Channels.newChannel(input));
+    }
+
+    /**
+     * Decodes an image from the specified channel, which must be in blocking
+     * mode. The first bytes of the channel are read to determine which
+     * decoder to use, and are then replayed to the decoder, so the channel
+     * does not have to support repositioning. The channel is not closed.
+     *
+     * @param input the channel to read the encoded image from
+     * @return the decoded image, or {@code null} if no decoder can decode the
+     * image
+     * @throws IOException if an I/O error occurs or the image could not be
+     *                     decoded
+     */
+    public static OptiImage from(ReadableByteChannel input) throws IOException {
+        Objects.requireNonNull(input, "input is null");
+        // read header, which can be shorter if the channel has fewer bytes
+        final ByteBuffer header = ByteBuffer.allocate(DecoderRegistry.HEADER_LENGTH);
+        while (header.hasRemaining()) {
+            if (input.read(header) == -1) {
+                break;
+            }
+        }
+        header.flip();
+        final ImageDecoder decoder = DecoderRegistry.getDefault().find(header);
+        if (decoder != null) {
+            return decoder.decode(new HeaderChannel(header, input));
         }
         else {
             return null;
@@ -71,6 +259,8 @@ public abstract class OptiImage {
      * <pre>
      *     width * height * channels * depth / 8
      * </pre>
+     * Images with 16-bit samples, i.e. {@link ShortImage}, store each
+     * sample as two big-endian bytes.
      */
     public final byte[] data;
     public final Map<String, Object> metadata;
@@ -128,8 +318,8 @@ public abstract class OptiImage {
         if (depth < 1) {
             throw new IllegalArgumentException("depth is less than 1");
         }
-        if (depth > 8) {
-            throw new IllegalArgumentException("depth is greater than 8");
+        if (depth > 16) {
+            throw new IllegalArgumentException("depth is greater than 16");
         }
         this.width    = width;
         this.height   = height;
@@ -172,4 +362,41 @@ public abstract class OptiImage {
     }
 
     public abstract void setSample(int x, int y, int channel, byte s);
+
+    /**
+     * Channel that reads the bytes of a header that has already been read
+     * from a channel, followed by the remaining bytes of the channel.
+     */
+    private static final class HeaderChannel implements ReadableByteChannel {
+
+        private final ByteBuffer header;
+        private final ReadableByteChannel input;
+
+        HeaderChannel(ByteBuffer header, ReadableByteChannel input) {
+            this.header = header;
+            this.input  = input;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return input.isOpen();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (header.hasRemaining()) {
+                final int n = Math.min(header.remaining(), dst.remaining());
+                dst.put(dst.position(), header, header.position(), n);
+                dst.position(dst.position() + n);
+                header.position(header.position() + n);
+                return n;
+            }
+            return input.read(dst);
+        }
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Image with 16-bit samples, which are stored in {@link #data} as unsigned
+ * big-endian values, i.e. two bytes per sample with the most significant
+ * byte first. The 8-bit samples returned by {@link #getSample(int, int, int)}
+ * are the most significant byte of each 16-bit sample, such that the image
+ * can be read like an image with 8-bit samples.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
+public class ShortImage extends OptiImage {
+
+    public ShortImage(int width, int height, int channels) {
+        this(width, height, channels, new byte[width * height * channels * 2], null);
+    }
+
+    /**
+     * Constructs a new image with the specified samples.
+     *
+     * @param data     the big-endian 16-bit samples of the image, of length
+     *                 {@code width * height * channels * 2}
+     * @param metadata the metadata of the image, or {@code null}
+     * @throws IllegalArgumentException if the length of {@code data} does not
+     *                                  match the size of the image
+     */
+    public ShortImage(int width, int height, int channels, byte[] data, Map<String, Object> metadata) {
+        super(width, height, channels, 16, Objects.requireNonNull(data, "data is null"), metadata);
+        if (data.length != (long) width * height * channels * 2) {
+            throw new IllegalArgumentException("data length does not match image {" + data.length + "}");
+        }
+    }
+
+    @Override
+    public OptiImage allocate() {
+        return new ShortImage(width, height, channels);
+    }
+
+    @Override
+    public OptiImage allocate(int width, int height) {
+        return new ShortImage(width, height, channels);
+    }
+
+    @Override
+    public byte getSample(int x, int y, int channel) {
+        return data[((x + y * width) * channels + channel) * 2];
+    }
+
+    /**
+     * Returns the unsigned 16-bit sample of the specified channel of the
+     * pixel at the specified position.
+     */
+    public int getShortSample(int x, int y, int channel) {
+        final int i = ((x + y * width) * channels + channel) * 2;
+        return (data[i] & 0xFF) << 8 | data[i + 1] & 0xFF;
+    }
+
+    /**
+     * Sets the specified channel of the pixel at the specified position to
+     * the 16-bit value of {@code s}, i.e. {@code s * 257}.
+     */
+    @Override
+    public void setSample(int x, int y, int channel, byte s) {
+        final int i = ((x + y * width) * channels + channel) * 2;
+        data[i]     = s;
+        data[i + 1] = s;
+    }
+
+    /**
+     * Sets the specified channel of the pixel at the specified position to
+     * the unsigned 16-bit sample {@code s}.
+     */
+    public void setShortSample(int x, int y, int channel, int s) {
+        final int i = ((x + y * width) * channels + channel) * 2;
+        data[i]     = (byte) (s >>> 8);
+        data[i + 1] = (byte) s;
+    }
+}
@@ -7,12 +7,21 @@ abstract class AbstractPixelSetter implements PixelSetter {
     final int width;
     final int height;
     final byte[] samples;
-    int i = 0;
+    /**
+     * Index in {@link #samples} of the first sample byte of the image.
+     */
+    final int offset;
+    /**
+     * Number of sample bytes in each scanline of the image.
+     */
+    final int stride;
 
     AbstractPixelSetter(ReducedImage image) {
         Objects.requireNonNull(image, "image is null");
-        this.width = image.width();
-        this.height = image.height();
-        this.samples = image.samples();
+        this.width = image.width;
+        this.height = image.height;
+        this.samples = image.samples;
+        this.offset = image.offset;
+        this.stride = image.stride;
     }
 }
@@ -18,66 +18,158 @@ package dk.martinu.opti.img.png;
 
 import dk.martinu.opti.img.spi.ImageDataException;
 
-import java.util.function.IntUnaryOperator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 // DOC Adam7
 final class Adam7 implements InterlaceMethod {
 
     static final Adam7 INSTANCE = new Adam7();
 
+    /**
+     * Column of the first pixel in each pass.
+     */
+    private static final int[] START_X = {0, 4, 0, 2, 0, 1, 0};
+    /**
+     * Scanline of the first pixel in each pass.
+     */
+    private static final int[] START_Y = {0, 0, 4, 0, 2, 0, 1};
+    /**
+     * Distance between columns in each pass.
+     */
+    private static final int[] DELTA_X = {8, 8, 4, 4, 2, 2, 1};
+    /**
+     * Distance between scanlines in each pass.
+     */
+    private static final int[] DELTA_Y = {8, 8, 8, 4, 4, 2, 2};
+    /**
+     * Minimum number of filtered bytes in the reconstructed passes of an
+     * image before the passes are reconstructed concurrently.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    /**
+     * Returns the width of the reduced image of the specified pass, or
+     * {@code 0} if the pass is empty.
+     *
+     * @param pass  the pass index, from {@code 0} to {@code 6}
+     * @param width the interlaced image width
+     */
+    static int getPassWidth(int pass, int width) {
+        return width > START_X[pass] ? (width - START_X[pass] - 1) / DELTA_X[pass] + 1 : 0;
+    }
+
+    /**
+     * Returns the height of the reduced image of the specified pass, or
+     * {@code 0} if the pass is empty.
+     *
+     * @param pass   the pass index, from {@code 0} to {@code 6}
+     * @param height the interlaced image height
+     */
+    static int getPassHeight(int pass, int height) {
+        return height > START_Y[pass] ? (height - START_Y[pass] - 1) / DELTA_Y[pass] + 1 : 0;
+    }
+
+    /**
+     * Returns the number of passes that contain all pixels of an image
+     * reduced by the specified scale, i.e. the pixels whose column and row
+     * are multiples of {@code scale}.
+     *
+     * @param scale the scale, either {@code 1}, {@code 2}, {@code 4} or
+     *              {@code 8}
+     */
+    static int getPassCount(int scale) {
+        return switch (scale) {
+            case 8 -> 1;
+            case 4 -> 3;
+            case 2 -> 5;
+            default -> 7;
+        };
+    }
+
+    /**
+     * Returns the number of filtered bytes, including filter type bytes, in
+     * the first {@code passCount} passes of the decompressed image data of an
+     * image with the specified parameters.
+     *
+     * @param passCount the number of passes, from {@code 1} to {@code 7}
+     * @see #getFilteredSize(int, int, int, ColorType)
+     */
+    static long getFilteredSize(int passCount, int width, int height, int bitDepth, ColorType colorType) {
+        long size = 0;
+        for (int pass = 0; pass < passCount; pass++) {
+            int w = getPassWidth(pass, width);
+            int h = getPassHeight(pass, height);
+            // empty passes contain no scanlines or filter type bytes
+            if (w != 0 && h != 0) {
+                size += h * (colorType.getScanlineLength(w, bitDepth) + 1);
+            }
+        }
+        return size;
+    }
+
     private Adam7() { }
 
     @Override
-    public byte[] getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
-            byte[] filterData, byte[] palette, byte[] transparency, byte[] background) throws ImageDataException {
+    public long getFilteredSize(int width, int height, int bitDepth, ColorType colorType) {
+        return getFilteredSize(7, width, height, bitDepth, colorType);
+    }
+
+    @Override
+    public void getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
+            byte[] filterData, PixelSetterFactory setters, int pixelLength, byte[] dest, int offset)
+            throws ImageDataException {
+        getPngSamples(1, width, height, bitDepth, colorType, filterMethod, filterData, setters, pixelLength, dest,
+                offset);
+    }
+
+    /**
+     * Reconstructs the first passes of the filtered image data of an image
+     * with the specified parameters and stores the samples of an image
+     * reduced by {@code scale} in {@code dest}. Only the passes returned by
+     * {@link #getPassCount(int)} are reconstructed, and {@code filterData}
+     * only needs to contain the image data of those passes. The reduced image
+     * has a size of {@code ceil(width / scale) x ceil(height / scale)}.
+     *
+     * @param scale  the scale, either {@code 1}, {@code 2}, {@code 4} or
+     *               {@code 8}
+     * @param dest   the array to store samples in
+     * @param offset the index in {@code dest} of the first sample
+     * @see #getFilteredSize(int, int, int, int, ColorType)
+     */
+    void getPngSamples(int scale, int width, int height, int bitDepth, ColorType colorType,
+            FilterMethod filterMethod, byte[] filterData, PixelSetterFactory setters, int pixelLength, byte[] dest,
+            int offset) throws ImageDataException {
         // reduced images containing the samples
-        ReducedImage[] images = getReducedImages(width, height, bitDepth, colorType, filterMethod, filterData);
-        // pixel setters for reduced image samples
-        PixelSetter[] setters = new PixelSetter[images.length];
-        for (int i = 0; i < images.length; i++) {
-            if (images[i] != null && images[i].samples.length > 0) {
-                setters[i] = colorType.getPixelSetter(bitDepth, images[i], palette, transparency, background);
+        ReducedImage[] images = getReducedImages(getPassCount(scale), width, height, bitDepth, colorType,
+                filterMethod, filterData);
+        // number of bytes in each row of the reduced image in dest
+        int rowLength = (width + scale - 1) / scale * pixelLength;
+        // set the pixels of each scanline of each pass as a run in dest, with
+        // the distance between the columns of the pass as step; all pixels of
+        // the reconstructed passes have a column and row that are multiples
+        // of scale
+        for (int pass = 0; pass < images.length; pass++) {
+            ReducedImage image = images[pass];
+            if (image == null) {
+                continue;
             }
-            else {
-                setters[i] = null;
-            }
-        }
-
-        // TODO for every 2nd scanline, the index can only be 6
-        // table of the reduced image/pixel setter index for a given pixel
-        int[] table = {
-                0, 5, 3, 5, 1, 5, 3, 5,
-                6, 6, 6, 6, 6, 6, 6, 6,
-                4, 5, 4, 5, 4, 5, 4, 5,
-                6, 6, 6, 6, 6, 6, 6, 6,
-                2, 5, 3, 5, 2, 5, 3, 5,
-                6, 6, 6, 6, 6, 6, 6, 6,
-                4, 5, 4, 5, 4, 5, 4, 5,
-                6, 6, 6, 6, 6, 6, 6, 6};
-
-        // number of components for each pixel in destination array
-        int components = colorType.usesTruecolor() ? 3 : 1;
-        // destination array for PNG pixel samples
-        byte[] dest = new byte[width * height * components];
-        // index in dest for next pixel sample
-        int index = 0;
-        // iterate each scanline
-        for (int y = 0; y < height; y++) {
-            // set pixel samples in dest from reduced image
-            for (int x = 0; x < width; x++) {
-                int tIndex = table[(x % 8) + (y % 8 * 8)];
-                PixelSetter setter = setters[tIndex];
-                if (setter != null) {
-                    setter.setNext(dest, index);
-                    index += components;
-                }
+            PixelSetter setter = setters.create(image);
+            int step = DELTA_X[pass] / scale * pixelLength;
+            int index = offset + START_Y[pass] / scale * rowLength + START_X[pass] / scale * pixelLength;
+            int rowStep = DELTA_Y[pass] / scale * rowLength;
+            for (int y = 0; y < image.height; y++, index += rowStep) {
+                setter.setRun(y, 0, image.width, dest, index, step);
             }
         }
-        return dest;
     }
 
-    private ReducedImage[] getReducedImages(int width, int height, int bitDepth, ColorType colorType,
-            FilterMethod filterMethod, byte[] filterData) throws ImageDataException {
+    private ReducedImage[] getReducedImages(int passCount, int width, int height, int bitDepth,
+            ColorType colorType, FilterMethod filterMethod, byte[] filterData) throws ImageDataException {
 
         // https://www.w3.org/TR/png/#8Interlace
         /* 
@@ -94,96 +186,87 @@ final class Adam7 implements InterlaceMethod {
         7 7 7 7 7 7 7 7
         */
 
-        // lambda expression that returns the number of bytes in a scanline of 
-        // an image given the image width
-        IntUnaryOperator bytes = (w) -> (int) Math.ceil(w * colorType.getComponentCount() * bitDepth / 8.0d);
-        // return value
+        // return value; images of empty or omitted passes are null
         ReducedImage[] images = new ReducedImage[7];
-        // offset into filterData
+        // geometry and offset into filterData of each pass, computed up front
+        // so that passes can be reconstructed independently
+        int[] widths = new int[passCount];
+        int[] lines = new int[passCount];
+        int[] nBytes = new int[passCount];
+        int[] offsets = new int[passCount];
         int offset = 0;
-
-        // TODO recheck dimensions of Image are correct
-        // pass 1
-        {
-            int w = (int) Math.ceil(width / 8.0d);
-            int lines = (int) Math.ceil(height / 8.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[0] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
-        }
-
-        // pass 2
-        if (width > 4) {
-            int w = (int) Math.ceil((width - 4) / 8.0d);
-            int lines = (int) Math.ceil(height / 8.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[1] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
-        }
-        else {
-            images[1] = null;
-        }
-
-        // pass 3
-        if (height > 4) {
-            int w = (int) Math.ceil(width / 4.0d);
-            int lines = (int) Math.ceil((height - 4) / 8.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[2] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
-        }
-        else {
-            images[2] = null;
+        for (int pass = 0; pass < passCount; pass++) {
+            widths[pass] = getPassWidth(pass, width);
+            lines[pass] = getPassHeight(pass, height);
+            // empty passes contain no scanlines or filter type bytes
+            if (widths[pass] != 0 && lines[pass] != 0) {
+                nBytes[pass] = (int) colorType.getScanlineLength(widths[pass], bitDepth);
+                offsets[pass] = offset;
+                offset += lines[pass] * (nBytes[pass] + 1);
+            }
         }
 
-        // pass 4
-        if (width > 2) {
-            int w = (int) Math.ceil((width - 2) / 4.0d);
-            int lines = (int) Math.ceil(height / 4.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[3] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
+        // small images are not worth the overhead of forking tasks
+        if (offset < PARALLEL_THRESHOLD) {
+            for (int pass = 0; pass < passCount; pass++) {
+                if (nBytes[pass] != 0) {
+                    filterMethod.reconstructInPlace(bitDepth, colorType, filterData, offsets[pass], lines[pass],
+                            nBytes[pass]);
+                    images[pass] = new ReducedImage(widths[pass], lines[pass], filterData, offsets[pass],
+                            nBytes[pass]);
+                }
+            }
         }
         else {
-            images[3] = null;
+            List<Callable<ReducedImage>> tasks = new ArrayList<>(passCount);
+            for (int pass = 0; pass < passCount; pass++) {
+                if (nBytes[pass] != 0) {
+                    int p = pass;
+                    // passes are reconstructed in place in disjoint regions of filterData
+                    tasks.add(() -> {
+                        filterMethod.reconstructInPlace(bitDepth, colorType, filterData, offsets[p], lines[p],
+                                nBytes[p]);
+                        return new ReducedImage(widths[p], lines[p], filterData, offsets[p], nBytes[p]);
+                    });
+                }
+            }
+            // invokeAll helps to complete the tasks if called from a worker
+            // thread of the pool, e.g. when decoding images in a batch
+            List<Future<ReducedImage>> futures = ForkJoinPool.commonPool().invokeAll(tasks);
+            int i = 0;
+            for (int pass = 0; pass < passCount; pass++) {
+                if (nBytes[pass] != 0) {
+                    images[pass] = join(futures.get(i++));
+                }
+            }
         }
 
-        // pass 5
-        if (height > 2) {
-            int w = (int) Math.ceil(width / 2.0d);
-            int lines = (int) Math.ceil((height - 2) / 4.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[4] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
-        }
-        else {
-            images[4] = null;
-        }
+        return images;
+    }
 
-        // pass 6
-        if (width > 1) {
-            int w = (int) Math.ceil((width - 1) / 2.0d);
-            int lines = (int) Math.ceil(height / 2.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[5] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            offset += lines * (nBytes + 1);
+    /**
+     * Returns the result of a completed pass reconstruction task, and
+     * rethrows the exception thrown by the task, if any.
+     */
+    private ReducedImage join(Future<ReducedImage> future) throws ImageDataException {
+        try {
+            return future.get();
         }
-        else {
-            images[5] = null;
-        }
-
-        // pass 7
-        if (height > 1) {
-            int w = width;
-            int lines = (int) Math.ceil((height - 1) / 2.0d);
-            int nBytes = bytes.applyAsInt(w);
-            images[6] = new ReducedImage(w, lines, filterMethod.reconstruct(bitDepth, colorType, filterData, offset, lines, nBytes));
-            // offset += lines * (nBytes + 1);
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof ImageDataException ide) {
+                throw ide;
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            if (e.getCause() instanceof Error err) {
+                throw err;
+            }
+            throw new IllegalStateException(e.getCause());
         }
-        else {
-            images[6] = null;
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImageDataException("interrupted while reconstructing passes");
         }
-
-        return images;
     }
 }
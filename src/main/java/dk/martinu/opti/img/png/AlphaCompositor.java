@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import java.util.Arrays;
+
+/**
+ * Composites pixels with an alpha sample against a background color, i.e.
+ * {@code output = alpha * foreground + (1 - alpha) * background}, with exact
+ * integer arithmetic. The division by {@code 255} is computed with a multiply
+ * and shifts, and the result is rounded to the nearest integer.
+ * <p>
+ * Runs of pixels with 8-bit samples are composited by
+ * {@link #composite8(byte[], int, int, int, int[], byte[], int, int)}, which
+ * the shared instance can implement with the Vector API.
+ *
+ * @author Adam Martinu
+ * @see #getInstance()
+ * @since 1.0
+ */
+class AlphaCompositor {
+
+    /**
+     * Returns the shared instance. If the {@code jdk.incubator.vector} module
+     * is available at runtime, the instance is a
+     * {@link VectorAlphaCompositor}, otherwise pixels are composited with
+     * scalar code.
+     */
+    static AlphaCompositor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the composite of an 8-bit foreground and background sample,
+     * which is {@code round((fg * alpha + bg * (255 - alpha)) / 255)}.
+     *
+     * @param fg    the foreground sample
+     * @param bg    the background sample
+     * @param alpha the alpha sample of the foreground
+     * @return the composite sample
+     */
+    static int composite(int fg, int bg, int alpha) {
+        // x / 255 is rounded to (x + 128 + (x + 128 >> 8)) >> 8 for all
+        // 0 <= x <= 255 * 255
+        final int t = fg * alpha + bg * (255 - alpha) + 128;
+        return t + (t >> 8) >> 8;
+    }
+
+    /**
+     * Returns the composite of a 16-bit foreground and background sample,
+     * which is {@code round((fg * alpha + bg * (65535 - alpha)) / 65535)}.
+     *
+     * @param fg    the foreground sample
+     * @param bg    the background sample
+     * @param alpha the alpha sample of the foreground
+     * @return the composite sample
+     */
+    static int composite16(int fg, int bg, int alpha) {
+        return (int) ((fg * (long) alpha + bg * (long) (65535 - alpha) + 32767) / 65535);
+    }
+
+    /**
+     * Composites a run of pixels with 8-bit samples, where each pixel has
+     * {@code channels} color samples followed by an alpha sample, and stores
+     * the color samples in {@code dest}. Runs of opaque and transparent
+     * pixels are copied from the samples or the background.
+     *
+     * @param samples  the sample bytes
+     * @param k        the index in {@code samples} of the first pixel
+     * @param count    the number of pixels to composite
+     * @param channels the number of color samples of each pixel; {@code 1}
+     *                 or {@code 3}
+     * @param bg       the 8-bit background sample of each channel
+     * @param dest     the array to store samples in
+     * @param index    the index in {@code dest} of the first sample
+     * @param step     the distance in {@code dest} between the first samples
+     *                 of consecutive pixels
+     */
+    void composite8(byte[] samples, int k, int count, int channels, int[] bg, byte[] dest, int index, int step) {
+        final int bytesPerPixel = channels + 1;
+        for (int max = k + count * bytesPerPixel; k < max; k += bytesPerPixel, index += step) {
+            final int alpha = samples[k + channels] & 0xFF;
+            if (alpha == 0xFF) {
+                for (int c = 0; c < channels; c++) {
+                    dest[index + c] = samples[k + c];
+                }
+            }
+            else if (alpha == 0) {
+                for (int c = 0; c < channels; c++) {
+                    dest[index + c] = (byte) bg[c];
+                }
+            }
+            else {
+                for (int c = 0; c < channels; c++) {
+                    dest[index + c] = (byte) composite(samples[k + c] & 0xFF, bg[c], alpha);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holder of the shared instance, which is initialized when it is first
+     * used.
+     */
+    private static class Holder {
+
+        static final AlphaCompositor INSTANCE = create();
+
+        private static AlphaCompositor create() {
+            try {
+                final AlphaCompositor compositor = new VectorAlphaCompositor();
+                // the Vector API is incubating and can change between
+                // releases; transparent, partially transparent and opaque
+                // pixels are composited once, such that all methods that are
+                // used are linked before an image is decoded
+                final byte[] samples = new byte[1024];
+                for (int value : new int[] {0x00, 0x80, 0xFF}) {
+                    Arrays.fill(samples, (byte) value);
+                    compositor.composite8(samples, 0, 256, 3, new int[3], new byte[768], 0, 3);
+                    compositor.composite8(samples, 0, 512, 1, new int[1], new byte[512], 0, 1);
+                }
+                return compositor;
+            }
+            // jdk.incubator.vector is not available
+            catch (LinkageError | UnsupportedOperationException e) {
+                return new AlphaCompositor();
+            }
+        }
+    }
+}
@@ -14,23 +14,76 @@ public interface ColorType {
     static ColorType get(byte value) throws ImageDataException {
         int i = value & 0xFF;
         return switch (value) {
-            case GRAYSCALE -> new Grayscale();
-            case TRUECOLOR -> new Truecolor();
-            case INDEXED -> new Indexed();
-            case GRAYSCALE_ALPHA -> new GrayscaleAlpha();
-            case TRUECOLOR_ALPHA -> new TruecolorAlpha();
+            case GRAYSCALE -> Grayscale.INSTANCE;
+            case TRUECOLOR -> Truecolor.INSTANCE;
+            case INDEXED -> Indexed.INSTANCE;
+            case GRAYSCALE_ALPHA -> GrayscaleAlpha.INSTANCE;
+            case TRUECOLOR_ALPHA -> TruecolorAlpha.INSTANCE;
             default ->
                     throw new ImageDataException("invalid color type value {%d}", value);
         };
     }
 
+    /**
+     * Returns a new pixel setter that stores the 8-bit samples of the pixels
+     * of the specified reduced image, with {@link #getChannels(boolean)}
+     * samples per pixel. If {@code background} is {@code null}, alpha
+     * samples are stored after the color samples of each pixel, otherwise
+     * alpha is composited against the background color.
+     *
+     * @param bitDepth     the image bit depth
+     * @param image        the reduced image
+     * @param palette      the palette, or {@code null}
+     * @param transparency the tRNS chunk data, or {@code null}
+     * @param background   the background color, or {@code null} if alpha is
+     *                     preserved
+     * @return a new pixel setter
+     * @throws ImageDataException if the bit depth is invalid
+     */
     PixelSetter getPixelSetter(int bitDepth, ReducedImage image, byte[] palette, byte[] transparency, byte[] background) throws ImageDataException;
 
+    /**
+     * Returns the number of 8-bit samples of each pixel in decoded images,
+     * which is {@code 3} for color images and {@code 1} for grayscale images,
+     * plus an alpha sample if {@code alpha} is {@code true}.
+     *
+     * @param alpha {@code true} if alpha samples are stored
+     * @return the number of samples per pixel
+     */
+    default int getChannels(boolean alpha) {
+        final int channels = usesTruecolor() ? 3 : 1;
+        return alpha ? channels + 1 : channels;
+    }
+
     // https://www.w3.org/TR/png/#4Concepts.PNGImage
     int getComponentCount();
 
     String getName();
 
+    /**
+     * Returns the number of bytes per complete pixel of an image with the
+     * specified bit depth, rounded up to {@code 1}. This is the offset to
+     * subtract from an index in a scanline to get filter bytes 'a' and 'c'.
+     *
+     * @param bitDepth the image bit depth
+     * @return the filter offset in bytes
+     */
+    default int getFilterOffset(int bitDepth) {
+        return Math.max(1, getComponentCount() * bitDepth / 8);
+    }
+
+    /**
+     * Returns the number of bytes in a scanline of an image with the specified
+     * width and bit depth, not including the filter type byte.
+     *
+     * @param width    the image width
+     * @param bitDepth the image bit depth
+     * @return the number of sample bytes in a scanline
+     */
+    default long getScanlineLength(int width, int bitDepth) {
+        return ((long) width * getComponentCount() * bitDepth + 7) / 8;
+    }
+
     int getValue();
 
     default boolean usesAlpha() {
@@ -29,34 +29,46 @@ import dk.martinu.opti.img.spi.ImageDataException;
 interface FilterMethod {
 
     /**
-     * Reconstructs the filtered image sample bytes in {@code filt} using the
-     * specified parameters, starting at index {@code 0}.
+     * Reconstructs the filtered image sample bytes in {@code filt} in place,
+     * starting at the specified {@code offset} index, without allocating an
+     * array for the reconstructed bytes. The filter type byte that precedes
+     * each scanline is consumed, and the reconstructed scanlines are stored
+     * consecutively in {@code filt}, starting at {@code offset}. Bytes after
+     * the {@code lines * nBytes} reconstructed bytes are undefined.
      *
      * @param bitDepth  the image bit depth
      * @param colorType the image color type
-     * @param filt      the filtered sample bytes
+     * @param filt      the filtered sample bytes, which are replaced by the
+     *                  reconstructed bytes
+     * @param offset    index offset in the {@code filt} array to start
+     *                  reconstruction
      * @param lines     the number of scanlines to reconstruct
      * @param nBytes    the number of sample bytes in a scanline
-     * @return an array of reconstructed sample bytes (scanlines)
      * @throws ImageDataException if the sample bytes could not be reconstructed
      */
-    default byte[] reconstruct(int bitDepth, ColorType colorType, byte[] filt, int lines, int nBytes) throws ImageDataException {
-        return reconstruct(bitDepth, colorType, filt, 0, lines, nBytes);
-    }
+    void reconstructInPlace(int bitDepth, ColorType colorType, byte[] filt, int offset, int lines, int nBytes)
+            throws ImageDataException;
 
     /**
-     * Reconstructs the filtered image sample bytes in {@code filt} using the
-     * specified parameters, and starting at the specified {@code offset} index.
+     * Reconstructs a single filtered scanline in place, using the previous
+     * reconstructed scanline. This allows an image to be reconstructed one
+     * scanline at a time, without holding more than two scanlines in memory.
      *
-     * @param bitDepth  the image bit depth
-     * @param colorType the image color type
-     * @param filt      the filtered sample bytes
-     * @param offset    index offset in the {@code filt} array to start
-     *                  reconstruction
-     * @param lines     the number of scanlines to reconstruct
-     * @param nBytes    the number of sample bytes in a scanline
-     * @return an array of reconstructed sample bytes (scanlines)
-     * @throws ImageDataException if the sample bytes could not be reconstructed
+     * @param filterType   the filter type of the scanline
+     * @param line         array containing the filtered sample bytes of the
+     *                     scanline, which are replaced by the reconstructed
+     *                     bytes
+     * @param offset       index of the first sample byte in {@code line}
+     * @param prev         array containing the previous reconstructed
+     *                     scanline, or {@code null} if {@code line} is the
+     *                     first scanline
+     * @param prevOffset   index of the first sample byte in {@code prev}
+     * @param nBytes       the number of sample bytes in a scanline
+     * @param filterOffset the number of bytes per complete pixel, or {@code 1}
+     *                     if the bit depth is less than 8
+     * @throws ImageDataException if the scanline could not be reconstructed
+     * @see ColorType#getFilterOffset(int)
      */
-    byte[] reconstruct(int bitDepth, ColorType colorType, byte[] filt, int offset, int lines, int nBytes) throws ImageDataException;
+    void reconstructLine(int filterType, byte[] line, int offset, byte[] prev, int prevOffset, int nBytes,
+            int filterOffset) throws ImageDataException;
 }
@@ -24,170 +24,262 @@ import dk.martinu.opti.img.spi.ImageDataException;
  * <a href="https://www.w3.org/TR/png/#9Filters">9. Filtering</a>.
  *
  * @author Adam Martinu
+ * @see VectorFilterMethod_0
  * @since 1.0
  */
-final class FilterMethod_0 implements FilterMethod {
+class FilterMethod_0 implements FilterMethod {
 
     /**
      * Constant for Filter type 0 (None).
      */
-    private static final int TYPE_NONE = 0;
+    static final int TYPE_NONE = 0;
     /**
      * Constant for Filter type 1 (Sub).
      */
-    private static final int TYPE_SUB = 1;
+    static final int TYPE_SUB = 1;
     /**
      * Constant for Filter type 2 (Up).
      */
-    private static final int TYPE_UP = 2;
+    static final int TYPE_UP = 2;
     /**
      * Constant for Filter type 3 (Average).
      */
-    private static final int TYPE_AVERAGE = 3;
+    static final int TYPE_AVERAGE = 3;
     /**
      * Constant for Filter type 4 (Paeth).
      */
-    private static final int TYPE_PAETH = 4;
+    static final int TYPE_PAETH = 4;
 
-    @Override
-    public byte[] reconstruct(int bitDepth, ColorType colorType, byte[] filt, int offset, int lines, int nBytes) throws ImageDataException {
-        // destination for reconstructed bytes
-        byte[] recon = new byte[lines * nBytes];
+    /**
+     * Returns the shared instance of filter method 0. If the
+     * {@code jdk.incubator.vector} module is available at runtime, the
+     * instance is a {@link VectorFilterMethod_0}, otherwise scanlines are
+     * reconstructed with scalar code.
+     */
+    static FilterMethod_0 getInstance() {
+        return Holder.INSTANCE;
+    }
 
+    @Override
+    public void reconstructInPlace(int bitDepth, ColorType colorType, byte[] filt, int offset, int lines, int nBytes)
+            throws ImageDataException {
         // the offset to subtract from an index in a scanline to get filter bytes 'a' and 'c'
-        int filterOffset;
-        if (bitDepth < 8) {
-            filterOffset = 1;
-        }
-        else {
-            int sampleSize = bitDepth / 8;
-            filterOffset = sampleSize * (colorType.usesTruecolor() ? 3 : 1);
-            if (colorType.usesAlpha()) {
-                filterOffset += sampleSize;
-            }
-        }
+        int filterOffset = colorType.getFilterOffset(bitDepth);
 
         /*
         reconstruct filtered bytes
-        https://www.w3.org/TR/png/#9Filter-types
         ----
         i: current scanline
-        j: index in filt
-        k: index in recon
+        j: index of filter type byte in filt
+        k: index of reconstructed scanline in filt
         ----
-        j and k are assigned in outer loop and incremented in inner loops
+        each scanline is moved over the filter type bytes that precede it,
+        such that the previous reconstructed scanline is immediately before
+        it, and reconstructed in place
          */
-        for (int i = 0, j = offset + 1, k = 0; i < lines; i++, j = i * (nBytes + 1) + offset + 1, k = i * nBytes) {
-            int filterTypeIndex = j - 1;
-            // filter type preceding filtered bytes in scanline
-            int filterType = filt[filterTypeIndex] & 0xFF;
+        for (int i = 0, j = offset, k = offset; i < lines; i++, j += nBytes + 1, k += nBytes) {
+            int filterType = filt[j] & 0xFF;
+            System.arraycopy(filt, j + 1, filt, k, nBytes);
+            reconstructLine(filterType, filt, k, i == 0 ? null : filt, k - nBytes, nBytes, filterOffset);
+        }
+    }
 
-            if (filterType == TYPE_NONE) {
-                System.arraycopy(filt, j, recon, k, nBytes);
+    @Override
+    public void reconstructLine(int filterType, byte[] line, int offset, byte[] prev, int prevOffset, int nBytes,
+            int filterOffset) throws ImageDataException {
+        /*
+        reconstruct filtered bytes
+        https://www.w3.org/TR/png/#9Filter-types
+        ----
+        each filter type is reconstructed by a kernel, which takes the filter
+        offset (bytes per pixel) as a parameter. Kernels are called with a
+        constant filter offset for each value that occurs in an image (1, 2,
+        3, 4, 6 and 8), such that the JIT compiler specializes an inlined copy
+        of the kernel for each value, where index arithmetic is folded and the
+        main loop can be unrolled. The first pixel of a scanline has no bytes
+        'a' or 'c' (both are 0), and is reconstructed before the main loop,
+        which does not branch on the byte index. The first scanline of an
+        image has no previous scanline (all bytes 'b' and 'c' are 0), which
+        reduces Paeth to Sub and Average to half of 'a'.
+         */
+        if (filterType == TYPE_NONE) {
+            // scanline is not filtered
+        }
+
+        else if (filterType == TYPE_SUB) {
+            switch (filterOffset) {
+                case 1 -> sub(line, offset, nBytes, 1);
+                case 2 -> sub(line, offset, nBytes, 2);
+                case 3 -> sub(line, offset, nBytes, 3);
+                case 4 -> sub(line, offset, nBytes, 4);
+                case 6 -> sub(line, offset, nBytes, 6);
+                case 8 -> sub(line, offset, nBytes, 8);
+                default -> sub(line, offset, nBytes, filterOffset);
             }
+        }
 
-            else if (filterType == TYPE_SUB) {
-                for (int max = j + nBytes; j < max; j++, k++) {
-                    if (j - filterOffset <= filterTypeIndex) {
-                        recon[k] = filt[j];
-                    }
-                    else {
-                        recon[k] = (byte) ((filt[j] & 0xFF) + (recon[k - filterOffset] & 0xFF));
-                    }
-                }
+        else if (filterType == TYPE_UP) {
+            if (prev != null) {
+                up(line, offset, prev, prevOffset, nBytes);
             }
+        }
 
-            else if (filterType == TYPE_UP) {
-                if (i == 0) {
-                    System.arraycopy(filt, j, recon, k, nBytes);
+        else if (filterType == TYPE_AVERAGE) {
+            if (prev == null) {
+                switch (filterOffset) {
+                    case 1 -> averageFirst(line, offset, nBytes, 1);
+                    case 2 -> averageFirst(line, offset, nBytes, 2);
+                    case 3 -> averageFirst(line, offset, nBytes, 3);
+                    case 4 -> averageFirst(line, offset, nBytes, 4);
+                    case 6 -> averageFirst(line, offset, nBytes, 6);
+                    case 8 -> averageFirst(line, offset, nBytes, 8);
+                    default -> averageFirst(line, offset, nBytes, filterOffset);
                 }
-                else {
-                    for (int max = j + nBytes; j < max; j++, k++) {
-                        recon[k] = (byte) ((filt[j] & 0xFF) + (recon[k - nBytes] & 0xFF));
-                    }
+            }
+            else {
+                switch (filterOffset) {
+                    case 1 -> average(line, offset, prev, prevOffset, nBytes, 1);
+                    case 2 -> average(line, offset, prev, prevOffset, nBytes, 2);
+                    case 3 -> average(line, offset, prev, prevOffset, nBytes, 3);
+                    case 4 -> average(line, offset, prev, prevOffset, nBytes, 4);
+                    case 6 -> average(line, offset, prev, prevOffset, nBytes, 6);
+                    case 8 -> average(line, offset, prev, prevOffset, nBytes, 8);
+                    default -> average(line, offset, prev, prevOffset, nBytes, filterOffset);
                 }
             }
+        }
 
-            else if (filterType == TYPE_AVERAGE) {
-                if (i == 0) {
-                    for (int max = j + nBytes; j < max; j++, k++) {
-                        if (j - filterOffset <= filterTypeIndex) {
-                            recon[k] = filt[j];
-                        }
-                        else {
-                            recon[k] = (byte) ((filt[j] & 0xFF) + ((recon[k - filterOffset] & 0xFF) >>> 1));
-                        }
-                    }
+        // https://www.w3.org/TR/png/#9Filter-type-4-Paeth
+        else if (filterType == TYPE_PAETH) {
+            // the predictor is always 'a' for the first scanline
+            if (prev == null) {
+                switch (filterOffset) {
+                    case 1 -> sub(line, offset, nBytes, 1);
+                    case 2 -> sub(line, offset, nBytes, 2);
+                    case 3 -> sub(line, offset, nBytes, 3);
+                    case 4 -> sub(line, offset, nBytes, 4);
+                    case 6 -> sub(line, offset, nBytes, 6);
+                    case 8 -> sub(line, offset, nBytes, 8);
+                    default -> sub(line, offset, nBytes, filterOffset);
                 }
-                else {
-                    for (int m, max = j + nBytes; j < max; j++, k++) {
-                        m = j - filterOffset;
-                        if (m <= filterTypeIndex) {
-                            recon[k] = (byte) ((filt[j] & 0xFF) + ((recon[k - nBytes] & 0xFF) >>> 1));
-                        }
-                        else {
-                            recon[k] = (byte) ((filt[j] & 0xFF) + (((recon[k - filterOffset] & 0xFF) + (recon[k - nBytes] & 0xFF)) >>> 1));
-                        }
-                    }
+            }
+            else {
+                switch (filterOffset) {
+                    case 1 -> paeth(line, offset, prev, prevOffset, nBytes, 1);
+                    case 2 -> paeth(line, offset, prev, prevOffset, nBytes, 2);
+                    case 3 -> paeth(line, offset, prev, prevOffset, nBytes, 3);
+                    case 4 -> paeth(line, offset, prev, prevOffset, nBytes, 4);
+                    case 6 -> paeth(line, offset, prev, prevOffset, nBytes, 6);
+                    case 8 -> paeth(line, offset, prev, prevOffset, nBytes, 8);
+                    default -> paeth(line, offset, prev, prevOffset, nBytes, filterOffset);
                 }
             }
+        }
+        else {
+            throw new ImageDataException("invalid filter type {%d}", filterType);
+        }
+    }
 
-            // https://www.w3.org/TR/png/#9Filter-type-4-Paeth
-            else if (filterType == TYPE_PAETH) {
-                if (i == 0) {
-                    for (int max = j + nBytes; j < max; j++, k++) {
-                        if (j - filterOffset <= filterTypeIndex) {
-                            recon[k] = filt[j];
-                        }
-                        else {
-                            recon[k] = (byte) ((filt[j] & 0xFF) + (recon[k - filterOffset] & 0xFF));
-                        }
-                    }
-                }
-                else {
-                    // filter bytes
-                    int a, b = recon[k - nBytes] & 0xFF, c;
-                    // paeth function variables
-                    int p, pa, pb, pc, pr;
-
-                    final int max = j + nBytes;
-                    // the predictor (pr) is always 'b' for the first byte
-                    recon[k++] = (byte) ((filt[j++] & 0xFF) + b);
-
-                    while (j < max) {
-                        // assign a, b and c
-                        if (j - filterOffset <= filterTypeIndex) {
-                            a = 0;
-                            c = 0;
-                        }
-                        else {
-                            a = recon[k - filterOffset] & 0xFF;
-                            c = recon[k - nBytes - filterOffset] & 0xFF;
-                        }
-                        b = recon[k - nBytes] & 0xFF;
-                        // update paeth variables
-                        p  = a + b - c;
-                        pa = Math.abs(p - a);
-                        pb = Math.abs(p - b);
-                        pc = Math.abs(p - c);
-                        // determine predictor
-                        if (pa <= pb && pa <= pc) {
-                            pr = a;
-                        }
-                        else if (pb <= pc) {
-                            pr = b;
-                        }
-                        else {
-                            pr = c;
-                        }
-                        recon[k++] = (byte) ((filt[j++] & 0xFF) + pr);
-                    }
-                }
+    /**
+     * Reconstructs a scanline filtered with the Average filter, which is not
+     * the first scanline.
+     */
+    private static void average(byte[] line, int offset, byte[] prev, int prevOffset, int nBytes, int bpp) {
+        final int first = Math.min(bpp, nBytes);
+        // the first pixel has no byte 'a'
+        for (int k = 0; k < first; k++) {
+            line[offset + k] = (byte) (line[offset + k] + ((prev[prevOffset + k] & 0xFF) >>> 1));
+        }
+        for (int k = first; k < nBytes; k++) {
+            final int a = line[offset + k - bpp] & 0xFF;
+            final int b = prev[prevOffset + k] & 0xFF;
+            line[offset + k] = (byte) (line[offset + k] + (a + b >>> 1));
+        }
+    }
+
+    /**
+     * Reconstructs the first scanline of an image filtered with the Average
+     * filter, where all bytes 'b' are 0.
+     */
+    private static void averageFirst(byte[] line, int offset, int nBytes, int bpp) {
+        for (int k = bpp; k < nBytes; k++) {
+            line[offset + k] = (byte) (line[offset + k] + ((line[offset + k - bpp] & 0xFF) >>> 1));
+        }
+    }
+
+    /**
+     * Reconstructs a scanline filtered with the Paeth filter, which is not the
+     * first scanline.
+     */
+    private static void paeth(byte[] line, int offset, byte[] prev, int prevOffset, int nBytes, int bpp) {
+        final int first = Math.min(bpp, nBytes);
+        // the predictor is always 'b' for the first pixel
+        for (int k = 0; k < first; k++) {
+            line[offset + k] = (byte) (line[offset + k] + prev[prevOffset + k]);
+        }
+        for (int k = first; k < nBytes; k++) {
+            final int a = line[offset + k - bpp] & 0xFF;
+            final int b = prev[prevOffset + k] & 0xFF;
+            final int c = prev[prevOffset + k - bpp] & 0xFF;
+            line[offset + k] = (byte) (line[offset + k] + paethPredictor(a, b, c));
+        }
+    }
+
+    /**
+     * Returns the Paeth predictor of the specified filter bytes. The predictor
+     * is selected with sign masks instead of branches, which are mispredicted
+     * often for photographic images. The precedence of 'a' over 'b' over 'c'
+     * is kept when distances are equal.
+     */
+    private static int paethPredictor(int a, int b, int c) {
+        // p = a + b - c; distances from p to a, b and c
+        final int pa = Math.abs(b - c);
+        final int pb = Math.abs(a - c);
+        final int pc = Math.abs(a + b - c - c);
+        // masks are -1 if the right operand is selected, otherwise 0
+        final int mb = pb - pa >> 31;
+        final int ab = a ^ (a ^ b) & mb;
+        final int pab = pa ^ (pa ^ pb) & mb;
+        final int mc = pc - pab >> 31;
+        return ab ^ (ab ^ c) & mc;
+    }
+
+    /**
+     * Reconstructs a scanline filtered with the Sub filter, or the first
+     * scanline of an image filtered with the Paeth filter.
+     */
+    private static void sub(byte[] line, int offset, int nBytes, int bpp) {
+        for (int k = bpp; k < nBytes; k++) {
+            line[offset + k] = (byte) (line[offset + k] + line[offset + k - bpp]);
+        }
+    }
+
+    /**
+     * Reconstructs a scanline filtered with the Up filter, which is not the
+     * first scanline.
+     */
+    private static void up(byte[] line, int offset, byte[] prev, int prevOffset, int nBytes) {
+        for (int k = 0; k < nBytes; k++) {
+            line[offset + k] = (byte) (line[offset + k] + prev[prevOffset + k]);
+        }
+    }
+
+    /**
+     * Holder of the shared instance, which is initialized when it is first
+     * used.
+     */
+    private static class Holder {
+
+        static final FilterMethod_0 INSTANCE = create();
+
+        private static FilterMethod_0 create() {
+            try {
+                return new VectorFilterMethod_0();
             }
-            else {
-                throw new ImageDataException("invalid filter type {%d}", filterType);
+            // jdk.incubator.vector is not available
+            catch (LinkageError e) {
+                return new FilterMethod_0();
             }
         }
-        return recon;
     }
 }
@@ -20,6 +20,11 @@ import static dk.martinu.opti.img.png.PngInfo.*;
 
 public final class Grayscale implements ColorType {
 
+    /**
+     * Shared instance, returned by {@link ColorType#get(byte)}.
+     */
+    static final Grayscale INSTANCE = new Grayscale();
+
     public static final int COMPONENT_COUNT = 1;
 
     @Override
@@ -34,24 +39,31 @@ public final class Grayscale implements ColorType {
 
     @Override
     public PixelSetter getPixelSetter(int bitDepth, ReducedImage image, byte[] palette, byte[] transparency, byte[] background) {
-        if (transparency != null && background != null) {
+        if (background == null) {
+            return switch (bitDepth) {
+                case BIT_DEPTH_16 -> new AlphaPixelSetter_16(image, transparency);
+                case BIT_DEPTH_8 -> new AlphaPixelSetter_8(image, transparency);
+                // BIT_DEPTH_4, BIT_DEPTH_2 or BIT_DEPTH_1
+                default -> new PackedPixelSetter(image, bitDepth, COMPONENT_COUNT + 1,
+                        getPackedAlphaValues(bitDepth, transparency));
+            };
+        }
+        else if (transparency != null) {
             return switch (bitDepth) {
                 case BIT_DEPTH_16 -> new PixelSetter_16_Alpha(image, transparency, background);
                 case BIT_DEPTH_8 -> new PixelSetter_8_Alpha(image, transparency, background);
-                case BIT_DEPTH_4 -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_4_Alpha(image, transparency, background));
-                case BIT_DEPTH_2 -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_2_Alpha(image, transparency, background));
-                // BIT_DEPTH_1
-                default -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_1_Alpha(image, transparency, background));
+                // BIT_DEPTH_4, BIT_DEPTH_2 or BIT_DEPTH_1
+                default -> new PackedPixelSetter(image, bitDepth, COMPONENT_COUNT,
+                        getPackedValues(bitDepth, transparency, background));
             };
         }
         else {
             return switch (bitDepth) {
                 case BIT_DEPTH_16 -> new PixelSetter_16(image);
                 case BIT_DEPTH_8 -> new PixelSetter_8(image);
-                case BIT_DEPTH_4 -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_4(image));
-                case BIT_DEPTH_2 -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_2(image));
-                // BIT_DEPTH_1
-                default -> InconstantPixelSetter.wrapIfInconstant(bitDepth, image.width, new PixelSetter_1(image));
+                // BIT_DEPTH_4, BIT_DEPTH_2 or BIT_DEPTH_1
+                default -> new PackedPixelSetter(image, bitDepth, COMPONENT_COUNT,
+                        getPackedValues(bitDepth, null, null));
             };
         }
     }
@@ -61,303 +73,201 @@ public final class Grayscale implements ColorType {
         return 0;
     }
 
-    private static final class PixelSetter_1 extends PackedPixelSetter {
-
-        public PixelSetter_1(ReducedImage image) {
-            super(image);
+    /**
+     * Returns the 8-bit output sample of each sample value of an image with
+     * the specified bit depth less than {@code 8}, where the bits of each
+     * value are replicated. If {@code trns} is not {@code null}, the
+     * transparent value is replaced by the background color in {@code bkgd}.
+     *
+     * @see PackedPixelSetter
+     */
+    private static byte[] getPackedValues(int bitDepth, byte[] trns, byte[] bkgd) {
+        int max = (1 << bitDepth) - 1;
+        // replicates the bits of a value, e.g. 0x55 for 2-bit values
+        int factor = 0xFF / max;
+        byte[] values = new byte[max + 1];
+        for (int v = 0; v <= max; v++) {
+            values[v] = (byte) (v * factor);
         }
-
-        @Override
-        public void setNext(byte[] dest, int index) {
-            // sample stored in the lowest bit
-            int b;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                b = sampleByte >> 7 & 0x01;
-                position++;
-            }
-            else if (position == 1) {
-                b = sampleByte >> 6 & 0x01;
-                position++;
-            }
-            else if (position == 2) {
-                b = sampleByte >> 5 & 0x01;
-                position++;
-            }
-            else if (position == 3) {
-                b = sampleByte >> 4 & 0x01;
-                position++;
-            }
-            else if (position == 4) {
-                b = sampleByte >> 3 & 0x01;
-                position++;
-            }
-            else if (position == 5) {
-                b = sampleByte >> 2 & 0x01;
-                position++;
-            }
-            else if (position == 6) {
-                b = sampleByte >> 1 & 0x01;
-                position++;
-            }
-            else /* if (position == 7) */ {
-                b = sampleByte & 0x01;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            // since there are only 2 possible values, the sample value is
-            // assigned directly instead of replicating bits
-            byte s = b == 0 ? 0 : (byte) 0xFF;
-            dest[index]     = s;
+        if (trns != null) {
+            values[trns[1] & max] = (byte) ((bkgd[1] & max) * factor);
         }
+        return values;
     }
 
-    private static final class PixelSetter_16 extends AbstractPixelSetter {
-
-        PixelSetter_16(ReducedImage image) {
-            super(image);
+    /**
+     * Returns the 8-bit output sample and alpha sample of each sample value
+     * of an image with the specified bit depth less than {@code 8}. The alpha
+     * sample is {@code 0} for the transparent value if {@code trns} is not
+     * {@code null}, and otherwise {@code 255}.
+     *
+     * @see #getPackedValues(int, byte[], byte[])
+     */
+    private static byte[] getPackedAlphaValues(int bitDepth, byte[] trns) {
+        byte[] gray = getPackedValues(bitDepth, null, null);
+        byte[] values = new byte[gray.length * 2];
+        for (int v = 0; v < gray.length; v++) {
+            values[v * 2]     = gray[v];
+            values[v * 2 + 1] = (byte) 0xFF;
         }
-
-        @Override
-        public void setNext(byte[] dest, int index) {
-            byte s = samples[i];
-            dest[index]     = s;
-            i += COMPONENT_COUNT * 2;
+        if (trns != null) {
+            values[(trns[1] & gray.length - 1) * 2 + 1] = 0;
         }
+        return values;
     }
 
-    private static final class PixelSetter_16_Alpha extends AbstractPixelSetter {
+    /**
+     * Pixel setter that stores an alpha sample after the sample of each
+     * pixel, which is {@code 0} for the transparent value given by the tRNS
+     * chunk and otherwise {@code 255}.
+     */
+    private static final class AlphaPixelSetter_16 extends AbstractPixelSetter {
 
+        /**
+         * tRNS chunk data, or {@code null} if all pixels are opaque.
+         */
         final byte[] trns;
-        final byte[] bkgd;
 
-        PixelSetter_16_Alpha(ReducedImage image, byte[] trns, byte[] bkgd) {
+        AlphaPixelSetter_16(ReducedImage image, byte[] trns) {
             super(image);
             this.trns = trns;
-            this.bkgd = bkgd;
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            byte s;
-            // transfer sample if not transparent
-            if (samples[i] != trns[0] || samples[i + 1] != trns[1]) {
-                s = samples[i];
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 2);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index] = samples[k];
+            if (trns != null && samples[k] == trns[0] && samples[k + 1] == trns[1]) {
+                dest[index + 1] = 0;
             }
-            // otherwise replace with background color
             else {
-                s = bkgd[0];
+                dest[index + 1] = (byte) 0xFF;
             }
-            dest[index]     = s;
-            i += COMPONENT_COUNT * 2;
         }
     }
 
-    private static final class PixelSetter_1_Alpha extends PackedPixelSetter {
+    /**
+     * Pixel setter that stores an alpha sample after the sample of each
+     * pixel, which is {@code 0} for the transparent value given by the tRNS
+     * chunk and otherwise {@code 255}.
+     */
+    private static final class AlphaPixelSetter_8 extends AbstractPixelSetter {
 
+        /**
+         * tRNS chunk data, or {@code null} if all pixels are opaque.
+         */
         final byte[] trns;
-        final byte[] bkgd;
 
-        PixelSetter_1_Alpha(ReducedImage image, byte[] trns, byte[] bkgd) {
+        AlphaPixelSetter_8(ReducedImage image, byte[] trns) {
             super(image);
             this.trns = trns;
-            this.bkgd = bkgd;
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // sample stored in the lowest bit
-            int b;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                b = sampleByte >> 7 & 0x01;
-                position++;
-            }
-            else if (position == 1) {
-                b = sampleByte >> 6 & 0x01;
-                position++;
-            }
-            else if (position == 2) {
-                b = sampleByte >> 5 & 0x01;
-                position++;
-            }
-            else if (position == 3) {
-                b = sampleByte >> 4 & 0x01;
-                position++;
-            }
-            else if (position == 4) {
-                b = sampleByte >> 3 & 0x01;
-                position++;
-            }
-            else if (position == 5) {
-                b = sampleByte >> 2 & 0x01;
-                position++;
-            }
-            else if (position == 6) {
-                b = sampleByte >> 1 & 0x01;
-                position++;
-            }
-            else /* if (position == 7) */ {
-                b = sampleByte & 0x01;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            // replace with background color if transparent
-            if (b == (trns[1] & 0x01)) {
-                b = (bkgd[1] & 0x01);
-            }
-            // since there are only 2 possible values, the sample value is
-            // assigned directly instead of replicating bits
-            byte s = b == 0 ? 0 : (byte) 0xFF;
-            dest[index]     = s;
-        }
-    }
-
-    private static final class PixelSetter_2 extends PackedPixelSetter {
-
-        public PixelSetter_2(ReducedImage image) {
-            super(image);
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 2);
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // sample stored in lowest 2 bits
-            int b;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                b = sampleByte >> 6 & 0x03;
-                position++;
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
             }
-            else if (position == 1) {
-                b = sampleByte >> 4 & 0x03;
-                position++;
-            }
-            else if (position == 2) {
-                b = sampleByte >> 2 & 0x03;
-                position++;
-            }
-            else /* if (position == 3) */ {
-                b = sampleByte & 0x03;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            // since there are only 4 possible values, the sample value is
-            // assigned directly instead of replicating bits
-            byte s = switch (b) {
-                case 0 -> 0;
-                case 1 -> 0x55;
-                case 2 -> (byte) 0xAA;
-                default -> (byte) 0xFF; // case 3
-            };
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            byte s = samples[k];
             dest[index]     = s;
+            dest[index + 1] = trns != null && s == trns[1] ? 0 : (byte) 0xFF;
         }
     }
 
-    private static final class PixelSetter_2_Alpha extends PackedPixelSetter {
-
-        final byte[] trns;
-        final byte[] bkgd;
+    private static final class PixelSetter_16 extends AbstractPixelSetter {
 
-        PixelSetter_2_Alpha(ReducedImage image, byte[] trns, byte[] bkgd) {
+        PixelSetter_16(ReducedImage image) {
             super(image);
-            this.trns = trns;
-            this.bkgd = bkgd;
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // sample stored in lowest 2 bits
-            int b;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                b = sampleByte >> 6 & 0x03;
-                position++;
-            }
-            else if (position == 1) {
-                b = sampleByte >> 4 & 0x03;
-                position++;
-            }
-            else if (position == 2) {
-                b = sampleByte >> 2 & 0x03;
-                position++;
-            }
-            else /* if (position == 3) */ {
-                b = sampleByte & 0x03;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            // replace with background color if transparent
-            if (b == (trns[1] & 0x03)) {
-                b = (bkgd[1] & 0x03);
-            }
-            // since there are only 4 possible values, the sample value is
-            // assigned directly instead of replicating bits
-            byte s = switch (b) {
-                case 0 -> 0;
-                case 1 -> 0x55;
-                case 2 -> (byte) 0xAA;
-                default -> (byte) 0xFF; // case 3
-            };
-            dest[index]     = s;
-        }
-    }
-
-    private static final class PixelSetter_4 extends PackedPixelSetter {
-
-        PixelSetter_4(ReducedImage image) {
-            super(image);
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 1);
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            byte s;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                int b = sampleByte & 0xF0;
-                s = (byte) (b | b >> 4);
-                position++;
-            }
-            else /* if (position == 1) */ {
-                int b = sampleByte & 0x0F;
-                s = (byte) (b | b << 4);
-                position = 0;
-                i += COMPONENT_COUNT;
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
             }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            byte s = samples[k];
             dest[index]     = s;
         }
     }
 
-    private static final class PixelSetter_4_Alpha extends PackedPixelSetter {
+    private static final class PixelSetter_16_Alpha extends AbstractPixelSetter {
 
         final byte[] trns;
         final byte[] bkgd;
 
-        PixelSetter_4_Alpha(ReducedImage image, byte[] trns, byte[] bkgd) {
+        PixelSetter_16_Alpha(ReducedImage image, byte[] trns, byte[] bkgd) {
             super(image);
             this.trns = trns;
             this.bkgd = bkgd;
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // output sample value
-            byte s;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                int b = sampleByte & 0xF0;
-                s = (byte) (b | b >> 4);
-                position++;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 1);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
             }
-            else /* if (position == 1) */ {
-                int b = sampleByte & 0x0F;
-                s = (byte) (b << 4 | b );
-                position = 0;
-                i += COMPONENT_COUNT;
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            byte s;
+            // transfer sample if not transparent
+            if (samples[k] != trns[0] || samples[k + 1] != trns[1]) {
+                s = samples[k];
             }
-            // replace with background color if transparent
-            if ((s & 0x0F) == (trns[1] & 0x0F)) {
-                int b = bkgd[1] & 0x0F;
-                s = (byte) (b << 4 | b);
+            // otherwise replace with background color
+            else {
+                s = bkgd[0];
             }
             dest[index]     = s;
         }
@@ -370,10 +280,25 @@ public final class Grayscale implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            byte s = samples[i];
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 1);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            byte s = samples[k];
             dest[index]     = s;
-            i += COMPONENT_COUNT;
         }
     }
 
@@ -389,14 +314,29 @@ public final class Grayscale implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            byte s = samples[i];
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 1);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            byte s = samples[k];
             // replace with background color if transparent
             if (s == trns[1]) {
                 s = bkgd[1];
             }
             dest[index]     = s;
-            i += COMPONENT_COUNT;
         }
     }
 }
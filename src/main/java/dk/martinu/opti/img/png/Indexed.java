@@ -18,11 +18,17 @@ package dk.martinu.opti.img.png;
 
 import dk.martinu.opti.img.spi.ImageDataException;
 
+import java.util.Arrays;
+
 import static dk.martinu.opti.img.png.PngInfo.*;
-import static dk.martinu.opti.img.png.InconstantPixelSetter.wrapIfInconstant;
 
 public final class Indexed implements ColorType {
 
+    /**
+     * Shared instance, returned by {@link ColorType#get(byte)}.
+     */
+    static final Indexed INSTANCE = new Indexed();
+
     public static final int COMPONENT_COUNT = 1;
 
     @Override
@@ -39,13 +45,20 @@ public final class Indexed implements ColorType {
     public PixelSetter getPixelSetter(int bitDepth, ReducedImage image, byte[] palette,
             byte[] transparency, byte[] background) throws ImageDataException {
         validateBitDepth(bitDepth);
+        if (background == null) {
+            byte[] rgba = getAlphaPalette(palette, transparency);
+            return switch (bitDepth) {
+                case BIT_DEPTH_8 -> new AlphaPixelSetter_8(image, rgba);
+                // BIT_DEPTH_4, BIT_DEPTH_2 or BIT_DEPTH_1
+                default -> new PackedPixelSetter(image, bitDepth, 4, Arrays.copyOf(rgba, 4 << bitDepth));
+            };
+        }
         // NOTE: palette is premultiplied with alpha by PngInfo
         return switch (bitDepth) {
             case BIT_DEPTH_8 -> new PixelSetter_8(image, palette);
-            case BIT_DEPTH_4 -> wrapIfInconstant(bitDepth, image.width, new PixelSetter_4(image, palette));
-            case BIT_DEPTH_2 -> wrapIfInconstant(bitDepth, image.width, new PixelSetter_2(image, palette));
-            // BIT_DEPTH_1
-            default -> wrapIfInconstant(bitDepth, image.width, new PixelSetter_1(image, palette));
+            // BIT_DEPTH_4, BIT_DEPTH_2 or BIT_DEPTH_1; indices that are
+            // outside the palette are black
+            default -> new PackedPixelSetter(image, bitDepth, 3, Arrays.copyOf(palette, 3 << bitDepth));
         };
     }
 
@@ -61,122 +74,56 @@ public final class Indexed implements ColorType {
         }
     }
 
-    private static final class PixelSetter_1 extends PackedPixelSetter {
-
-        final byte[] plte;
-
-        PixelSetter_1(ReducedImage image, byte[] plte) {
-            super(image);
-            this.plte = plte;
-        }
-
-        @Override
-        public void setNext(byte[] dest, int index) {
-            // palette index
-            int k;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                k = (sampleByte >> 7 & 0x01) * 3;
-                position++;
-            }
-            else if (position == 1) {
-                k = (sampleByte >> 6 & 0x01) * 3;
-                position++;
-            }
-            else if (position == 2) {
-                k = (sampleByte >> 5 & 0x01) * 3;
-                position++;
-            }
-            else if (position == 3) {
-                k = (sampleByte >> 4 & 0x01) * 3;
-                position++;
-            }
-            else if (position == 4) {
-                k = (sampleByte >> 3 & 0x01) * 3;
-                position++;
+    /**
+     * Returns the color and alpha samples of all 256 palette indices, with
+     * alpha from {@code trns}. Entries without alpha in {@code trns} are
+     * opaque, and indices that are outside the palette are opaque black.
+     *
+     * @param plte the palette
+     * @param trns the tRNS chunk data, or {@code null}
+     */
+    private static byte[] getAlphaPalette(byte[] plte, byte[] trns) {
+        byte[] rgba = new byte[256 * 4];
+        for (int i = 0, pi = 0; i < 256; i++, pi += 3) {
+            if (pi < plte.length) {
+                rgba[i * 4]     = plte[pi];
+                rgba[i * 4 + 1] = plte[pi + 1];
+                rgba[i * 4 + 2] = plte[pi + 2];
             }
-            else if (position == 5) {
-                k = (sampleByte >> 2 & 0x01) * 3;
-                position++;
-            }
-            else if (position == 6) {
-                k = (sampleByte >> 1 & 0x01) * 3;
-                position++;
-            }
-            else /* if (position == 7) */ {
-                k = (sampleByte & 0x01) * 3;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            dest[index]     = plte[k];
-            dest[index + 1] = plte[k + 1];
-            dest[index + 2] = plte[k + 2];
+            rgba[i * 4 + 3] = trns != null && i < trns.length ? trns[i] : (byte) 0xFF;
         }
+        return rgba;
     }
 
-    private static final class PixelSetter_2 extends PackedPixelSetter {
+    /**
+     * Pixel setter that stores the color and alpha samples of the palette
+     * entry of each pixel.
+     */
+    private static final class AlphaPixelSetter_8 extends AbstractPixelSetter {
 
-        final byte[] plte;
+        final byte[] rgba;
 
-        PixelSetter_2(ReducedImage image, byte[] plte) {
+        AlphaPixelSetter_8(ReducedImage image, byte[] rgba) {
             super(image);
-            this.plte = plte;
+            this.rgba = rgba;
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // palette index
-            int k;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                k = (sampleByte >> 6 & 0x03) * 3;
-                position++;
-            }
-            else if (position == 1) {
-                k = (sampleByte >> 4 & 0x03) * 3;
-                position++;
-            }
-            else if (position == 2) {
-                k = (sampleByte >> 2 & 0x03) * 3;
-                position++;
-            }
-            else /* if (position == 3) */ {
-                k = (sampleByte & 0x03) * 3;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            dest[index]     = plte[k];
-            dest[index + 1] = plte[k + 1];
-            dest[index + 2] = plte[k + 2];
-        }
-    }
-
-    private static final class PixelSetter_4 extends PackedPixelSetter {
-
-        final byte[] plte;
-
-        PixelSetter_4(ReducedImage image, byte[] plte) {
-            super(image);
-            this.plte = plte;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 4);
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            // palette index
-            int k;
-            if (position == 0) {
-                sampleByte = samples[i] & 0xFF;
-                k = (sampleByte >> 4 & 0x0F) * 3;
-                position++;
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                // palette index
+                int j = (samples[k] & 0xFF) * 4;
+                dest[index]     = rgba[j];
+                dest[index + 1] = rgba[j + 1];
+                dest[index + 2] = rgba[j + 2];
+                dest[index + 3] = rgba[j + 3];
             }
-            else /* if (position == 1) */ {
-                k = (sampleByte & 0x0F) * 3;
-                position = 0;
-                i += COMPONENT_COUNT;
-            }
-            dest[index]     = plte[k];
-            dest[index + 1] = plte[k + 1];
-            dest[index + 2] = plte[k + 2];
         }
     }
 
@@ -190,13 +137,28 @@ public final class Indexed implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
             // palette index
-            int k = (samples[i] & 0xFF) * 3;
-            dest[index]     = plte[k];
-            dest[index + 1] = plte[k + 1];
-            dest[index + 2] = plte[k + 2];
-            i += COMPONENT_COUNT;
+            int j = (samples[k] & 0xFF) * 3;
+            dest[index]     = plte[j];
+            dest[index + 1] = plte[j + 1];
+            dest[index + 2] = plte[j + 2];
         }
     }
 }
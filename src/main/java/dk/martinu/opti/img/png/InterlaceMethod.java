@@ -7,8 +7,36 @@ import java.util.function.IntUnaryOperator;
 // DOC InterlaceMethod
 interface InterlaceMethod {
 
-    byte[] getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
-            byte[] filterData, byte[] palette, byte[] transparency, byte[] background) throws ImageDataException;
+    /**
+     * Returns the number of filtered bytes, including filter type bytes, in
+     * the decompressed image data of an image with the specified parameters.
+     *
+     * @param width     the image width
+     * @param height    the image height
+     * @param bitDepth  the image bit depth
+     * @param colorType the image color type
+     * @return the size of the filtered image data in bytes
+     */
+    long getFilteredSize(int width, int height, int bitDepth, ColorType colorType);
+
+    /**
+     * Reconstructs the filtered image data of an image with the specified
+     * parameters and stores the samples of its pixels in {@code dest},
+     * starting at {@code offset}. The samples of each pixel are stored by the
+     * pixel setters created by {@code setters}, which must store
+     * {@code pixelLength} bytes for each pixel, e.g. the 8-bit samples of a
+     * pixel with alpha composited against the background color. The filtered
+     * image data is reconstructed in place, so the contents of
+     * {@code filterData} are undefined afterwards.
+     *
+     * @param setters     the factory of pixel setters
+     * @param pixelLength the number of bytes stored for each pixel
+     * @param dest        the array to store samples in
+     * @param offset      the index in {@code dest} of the first sample
+     */
+    void getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
+            byte[] filterData, PixelSetterFactory setters, int pixelLength, byte[] dest, int offset)
+            throws ImageDataException;
 
     /**
      * Retrieves a sequence of reduced images from the specified samples array
@@ -18,41 +18,49 @@ package dk.martinu.opti.img.png;
 
 import dk.martinu.opti.img.spi.ImageDataException;
 
+import java.util.stream.IntStream;
+
 final class NullMethod implements InterlaceMethod {
 
     static final NullMethod INSTANCE = new NullMethod();
 
+    /**
+     * Minimum number of samples in an expanded image before its scanlines are
+     * expanded concurrently.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 18;
+
     private NullMethod() { }
 
     @Override
-    public byte[] getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
-            byte[] filterData, byte[] palette, byte[] transparency, byte[] background) throws ImageDataException {
+    public long getFilteredSize(int width, int height, int bitDepth, ColorType colorType) {
+        return height * (colorType.getScanlineLength(width, bitDepth) + 1);
+    }
 
-        byte[] samples = filterMethod.reconstruct(bitDepth, colorType,
-                filterData, height, (int) Math.ceil(width * colorType.getComponentCount() * bitDepth / 8.0));
+    @Override
+    public void getPngSamples(int width, int height, int bitDepth, ColorType colorType, FilterMethod filterMethod,
+            byte[] filterData, PixelSetterFactory setters, int pixelLength, byte[] dest, int offset)
+            throws ImageDataException {
+
+        int nBytes = (int) colorType.getScanlineLength(width, bitDepth);
+        filterMethod.reconstructInPlace(bitDepth, colorType, filterData, 0, height, nBytes);
         // single reduced image containing the samples
-        ReducedImage img = new ReducedImage(width, height, samples);
+        ReducedImage img = new ReducedImage(width, height, filterData, 0, nBytes);
 
         // pixel setter for reduced image samples
-        PixelSetter setter = colorType.getPixelSetter(bitDepth, img, palette, transparency, background);
-
-        // number of components for each pixel in destination array
-        int components = colorType.usesTruecolor() ? 3 : 1;
-        // destination array for PNG pixel samples
-        byte[] dest = new byte[width * height * components];
-        // index in dest for next pixel sample
-        int index = 0;
-        // iterate each scanline
-        for (int y = 0; y < height; y++) {
-            // TODO this can be optimized to a single method call.
-            //  Implement new method in PixelSetter that sets all pixels in the
-            //  entire scanline (can also be used in pass 7 by Adam7)
-            // set pixel samples in dest from reduced image
-            for (int x = 0; x < width; x++) {
-                setter.setNext(dest, index);
-                index += components;
+        PixelSetter setter = setters.create(img);
+
+        // number of bytes in each row of dest
+        int rowLength = width * pixelLength;
+        // expand scanlines; rows are independent, so large images are
+        // expanded in bands of rows concurrently
+        if ((long) height * rowLength < PARALLEL_THRESHOLD) {
+            for (int y = 0; y < height; y++) {
+                setter.expandRow(y, dest, offset + y * rowLength);
             }
         }
-        return dest;
+        else {
+            IntStream.range(0, height).parallel().forEach(y -> setter.expandRow(y, dest, offset + y * rowLength));
+        }
     }
 }
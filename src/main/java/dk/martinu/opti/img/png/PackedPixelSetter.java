@@ -1,11 +1,100 @@
 package dk.martinu.opti.img.png;
 
-abstract class PackedPixelSetter extends AbstractPixelSetter {
+/**
+ * Pixel setter for images with packed samples, i.e. a bit depth less than
+ * {@code 8}. The samples of all pixels in a sample byte are looked up in a
+ * table with an entry for each of the 256 byte values, such that whole bytes
+ * are expanded at once. The table is computed from the output samples of
+ * each sample value, which can include bit replication, palette lookup and
+ * replacement of the transparent value.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
+class PackedPixelSetter extends AbstractPixelSetter {
 
-    int sampleByte = 0;
-    int position = 0;
+    /**
+     * Number of output samples of each pixel.
+     */
+    final int channels;
+    /**
+     * Number of pixels in each sample byte, and the shift and mask to get the
+     * byte and the pixel in the byte of a column.
+     */
+    final int pixelsPerByte, shift, mask;
+    /**
+     * Output samples of each pixel of each byte value; the samples of pixel
+     * {@code j} of byte {@code b} are at index
+     * {@code (b * pixelsPerByte + j) * channels}.
+     */
+    final byte[] table;
 
-    PackedPixelSetter(ReducedImage image) {
+    /**
+     * Constructs a new packed pixel setter.
+     *
+     * @param image    the image
+     * @param bitDepth the image bit depth; {@code 1}, {@code 2} or {@code 4}
+     * @param channels the number of output samples of each pixel
+     * @param values   the output samples of each sample value, which must
+     *                 contain {@code channels} samples for each of the
+     *                 {@code 2^bitDepth} values
+     */
+    PackedPixelSetter(ReducedImage image, int bitDepth, int channels, byte[] values) {
         super(image);
+        this.channels = channels;
+        pixelsPerByte = 8 / bitDepth;
+        shift         = Integer.numberOfTrailingZeros(pixelsPerByte);
+        mask          = pixelsPerByte - 1;
+        table         = new byte[256 * pixelsPerByte * channels];
+        final int valueMask = (1 << bitDepth) - 1;
+        for (int b = 0, t = 0; b < 256; b++) {
+            // pixels are stored from the highest bits to the lowest
+            for (int j = pixelsPerByte - 1; j >= 0; j--) {
+                final int v = (b >> j * bitDepth & valueMask) * channels;
+                for (int c = 0; c < channels; c++) {
+                    table[t++] = values[v + c];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void expandRow(int y, byte[] dest, int index) {
+        setRun(y, 0, width, dest, index, channels);
+    }
+
+    @Override
+    public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+        final int row = offset + y * stride;
+        final int max = x + count;
+        // pixels before the first whole byte of the run
+        for (; x < max && (x & mask) != 0; x++, index += step) {
+            set(dest, index, row, x);
+        }
+        // whole bytes are expanded at once if pixels are contiguous in dest
+        if (step == channels) {
+            final int n = pixelsPerByte * channels;
+            for (; x + pixelsPerByte <= max; x += pixelsPerByte, index += n) {
+                final int t = (samples[row + (x >> shift)] & 0xFF) * n;
+                for (int j = 0; j < n; j++) {
+                    dest[index + j] = table[t + j];
+                }
+            }
+        }
+        // remaining pixels
+        for (; x < max; x++, index += step) {
+            set(dest, index, row, x);
+        }
+    }
+
+    /**
+     * Stores the samples of the pixel in the specified column of the
+     * scanline at index {@code row} in {@code samples}.
+     */
+    private void set(byte[] dest, int index, int row, int x) {
+        final int t = ((samples[row + (x >> shift)] & 0xFF) * pixelsPerByte + (x & mask)) * channels;
+        for (int c = 0; c < channels; c++) {
+            dest[index + c] = table[t + c];
+        }
     }
 }
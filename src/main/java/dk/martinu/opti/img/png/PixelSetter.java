@@ -1,6 +1,40 @@
 package dk.martinu.opti.img.png;
 
+/**
+ * Stores the 8-bit samples of the pixels of a reduced image in a destination
+ * array, in bulk. Pixel setters do not have state that changes when pixels
+ * are set, so scanlines can be set in any order, and by multiple threads
+ * concurrently.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
 public interface PixelSetter {
-    
-    void setNext(byte[] dest, int index);
+
+    /**
+     * Stores the samples of all pixels in the specified scanline of the image
+     * in {@code dest}, starting at {@code index}.
+     *
+     * @param y     the scanline of the image
+     * @param dest  the array to store samples in
+     * @param index the index in {@code dest} of the first sample
+     */
+    void expandRow(int y, byte[] dest, int index);
+
+    /**
+     * Stores the samples of {@code count} consecutive pixels in the specified
+     * scanline of the image, starting at column {@code x}, in {@code dest}.
+     * The samples of each pixel are stored {@code step} indices after the
+     * samples of the previous pixel, e.g. to set every other pixel of a row
+     * of a deinterlaced image.
+     *
+     * @param y     the scanline of the image
+     * @param x     the column of the first pixel
+     * @param count the number of pixels to set
+     * @param dest  the array to store samples in
+     * @param index the index in {@code dest} of the first sample
+     * @param step  the distance in {@code dest} between the first samples of
+     *              consecutive pixels
+     */
+    void setRun(int y, int x, int count, byte[] dest, int index, int step);
 }
@@ -0,0 +1,24 @@
+package dk.martinu.opti.img.png;
+
+import dk.martinu.opti.img.spi.ImageDataException;
+
+/**
+ * Creates the pixel setters of the reduced images of an image, e.g. of each
+ * pass of an interlaced image.
+ *
+ * @author Adam Martinu
+ * @see PixelSetter
+ * @since 1.0
+ */
+@FunctionalInterface
+interface PixelSetterFactory {
+
+    /**
+     * Returns a new pixel setter for the specified reduced image.
+     *
+     * @param image the reduced image
+     * @return a new pixel setter
+     * @throws ImageDataException if the image parameters are invalid
+     */
+    PixelSetter create(ReducedImage image) throws ImageDataException;
+}
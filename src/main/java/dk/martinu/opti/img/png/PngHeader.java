@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import dk.martinu.opti.img.spi.DecodeOptions;
+import dk.martinu.opti.img.spi.ImageHeader;
+
+/**
+ * The fields of the IHDR chunk of a PNG image, returned by
+ * {@link PngImageDecoder#probe(java.nio.file.Path)}. The number of channels,
+ * depth and decoded size describe the image that is decoded with the options
+ * that the image was probed with.
+ *
+ * @param width           the image width
+ * @param height          the image height
+ * @param bitDepth        the bit depth of the encoded samples
+ * @param colorType       the color type
+ * @param interlaceMethod the interlace method, either
+ *                        {@link PngInfo#INTERLACE_METHOD_0} or
+ *                        {@link PngInfo#INTERLACE_METHOD_1}
+ * @param filteredSize    the number of bytes of decompressed, filtered image
+ *                        data
+ * @param options         the decode options that the image was probed with
+ * @author Adam Martinu
+ * @since 1.0
+ */
+public record PngHeader(int width, int height, int bitDepth, ColorType colorType, int interlaceMethod,
+                        long filteredSize, DecodeOptions options) implements ImageHeader {
+
+    /**
+     * Returns the number of channels of the decoded image, which is
+     * {@code 3} for color images and {@code 1} for grayscale images, plus an
+     * alpha channel if alpha is preserved by the decode options. Otherwise
+     * alpha is composited against the background color when decoded.
+     */
+    @Override
+    public int channels() {
+        return colorType.getChannels(options.isAlphaPreserved());
+    }
+
+    /**
+     * Returns the sample depth of the decoded image, which is {@code 16} if
+     * the image has 16-bit samples that are decoded with full depth and is
+     * not reduced, otherwise {@code 8}.
+     */
+    @Override
+    public int depth() {
+        // reduced images are decoded with 8-bit samples
+        if (options.isFullDepth() && bitDepth == PngInfo.BIT_DEPTH_16 && options.getScaleFactor(width, height) == 1) {
+            return PngInfo.BIT_DEPTH_16;
+        }
+        return PngInfo.BIT_DEPTH_8;
+    }
+
+    /**
+     * Returns the number of bytes required to store the samples of the
+     * decoded image. For images that are reduced by the decode options, this
+     * is the size of the image reduced by the scale factor of the options,
+     * which is at least the size of the decoded image.
+     *
+     * @see DecodeOptions#getScaleFactor(int, int)
+     */
+    @Override
+    public long getDecodedSize() {
+        final int factor = options.getScaleFactor(width, height);
+        final long reducedWidth = (width + factor - 1) / factor;
+        final long reducedHeight = (height + factor - 1) / factor;
+        return (reducedWidth * reducedHeight * channels() * depth() + 7) / 8;
+    }
+
+    /**
+     * Returns {@code true} if the image is interlaced with Adam7, otherwise
+     * {@code false}.
+     */
+    public boolean isInterlaced() {
+        return interlaceMethod == PngInfo.INTERLACE_METHOD_1;
+    }
+}
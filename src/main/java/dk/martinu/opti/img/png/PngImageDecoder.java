@@ -3,31 +3,65 @@ package dk.martinu.opti.img.png;
 import dk.martinu.opti.img.OptiImage;
 import dk.martinu.opti.img.spi.*;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import static dk.martinu.opti.Util.getInt;
 
 public class PngImageDecoder implements ImageDecoder {
 
+    /**
+     * Minimum size in bytes of a file for it to be mapped into memory when
+     * decoded. Smaller files are read through a channel instead, where the
+     * cost of mapping would outweigh the cost of copying the chunk data.
+     */
+    protected static final long MAP_THRESHOLD = 1 << 20;
+    /**
+     * Size in bytes of the PNG file header and the IHDR chunk, which are the
+     * only bytes read when probing an image.
+     */
+    protected static final int HEADER_SIZE = 8 + 12 + 13;
+
     public static PngImageDecoder provider() {
         return new PngImageDecoder();
     }
 
-    protected void validateFileHeader(FileChannel in) throws IOException, ImageFormatException {
+    protected void validateFileHeader(ReadableByteChannel in) throws IOException, ImageFormatException {
         ByteBuffer buffer = ByteBuffer.allocate(8);
-        if (in.read(buffer) != buffer.capacity()) {
-            throw new IOException("missing PNG file header");
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                throw new IOException("missing PNG file header");
+            }
         }
         if (!isFileHeaderValid(buffer.array())) {
             throw new ImageFormatException("invalid PNG file header");
         }
     }
 
+    protected void validateFileHeader(ByteBuffer in) throws IOException, ImageFormatException {
+        byte[] header = new byte[8];
+        if (in.remaining() < header.length) {
+            throw new IOException("missing PNG file header");
+        }
+        in.get(header);
+        if (!isFileHeaderValid(header)) {
+            throw new ImageFormatException("invalid PNG file header");
+        }
+    }
+
     protected boolean isFileHeaderValid(byte[] header) {
         return 0x89_50_4E_47 == getInt(header) && 0x0D_0A_1A_0A == getInt(header, 4);
     }
@@ -35,41 +69,636 @@ public class PngImageDecoder implements ImageDecoder {
     @Override
     public boolean canDecode(Path path) {
         if (Files.isRegularFile(path) && Files.isReadable(path)) {
-            if (path.endsWith(".png")) {
-                return true;
-            }
             try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
-                final ByteBuffer buffer = ByteBuffer.allocate(8);
-                return in.read(buffer) == buffer.capacity()
-                        && isFileHeaderValid(buffer.array());
+                return canDecode(DecoderRegistry.readHeader(in));
             }
             catch (IOException e) {
-                e.printStackTrace();
+                return false;
             }
         }
         return false;
     }
 
+    @Override
+    public boolean canDecode(ByteBuffer header) {
+        if (header.remaining() < 8) {
+            return false;
+        }
+        final byte[] bytes = new byte[8];
+        header.get(header.position(), bytes);
+        return isFileHeaderValid(bytes);
+    }
+
     @Override
     public OptiImage decode(Path path) throws IOException {
         try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
-            validateFileHeader(input);
-            final ChunkReader reader = new ChunkReader(input);
-            // create image info from IHDR chunk
-            final PngInfo info = new PngInfo(reader.getChunk());
-            // read remaining chunks and update info
-            Chunk chunk;
-            while ((chunk = reader.getChunk()).type() != ChunkType.IEND) {
-                info.update(chunk);
+            return decode(createChunkReader(input), DecodeOptions.DEFAULT);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from file " + path, e);
+        }
+    }
+
+    /**
+     * Decodes the specified image file asynchronously. The file is read with
+     * an {@link AsynchronousFileChannel}, one block ahead of the decoder, such
+     * that reading the next chunks overlaps with inflating and unfiltering the
+     * current ones on {@code executor}. The decode task is not submitted
+     * until the first block of the file has been read.
+     *
+     * @param path     the path of the image file
+     * @param executor the executor that decodes the image
+     * @return a future that completes with the decoded image
+     */
+    @Override
+    public CompletableFuture<OptiImage> decodeAsync(Path path, Executor executor) {
+        Objects.requireNonNull(path, "path is null");
+        Objects.requireNonNull(executor, "executor is null");
+        final PrefetchChannel input;
+        try {
+            input = new PrefetchChannel(AsynchronousFileChannel.open(path, StandardOpenOption.READ));
+        }
+        catch (IOException e) {
+            return CompletableFuture.failedFuture(new IOException("could not read PNG image from file " + path, e));
+        }
+        return input.prefetched().thenApplyAsync(n -> {
+            try (input) {
+                return decode(createChunkReader(input), DecodeOptions.DEFAULT);
             }
-            if (chunk.data().length != 0) {
-                throw new ImageException("invalid IEND chunk");
+            catch (IOException | ImageException e) {
+                throw new CompletionException(new IOException("could not read PNG image from file " + path, e));
             }
-            // create image from updated info
-            return info.createImage();
+        }, executor).whenComplete((img, e) -> {
+            // close the file if the first block could not be read
+            if (e != null && input.isOpen()) {
+                try {
+                    input.close();
+                }
+                catch (IOException ignored) { }
+            }
+        });
+    }
+
+    @Override
+    public OptiImage decode(Path path, DecodeOptions options) throws IOException {
+        Objects.requireNonNull(options, "options is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(createChunkReader(input), options);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from file " + path, e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(Path path, OptiImage dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(createChunkReader(input), dest);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from file " + path, e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ByteBuffer buffer) throws IOException {
+        try {
+            return decode(createChunkReader(buffer), DecodeOptions.DEFAULT);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from buffer", e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ByteBuffer buffer, DecodeOptions options) throws IOException {
+        Objects.requireNonNull(options, "options is null");
+        try {
+            return decode(createChunkReader(buffer), options);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from buffer", e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ByteBuffer buffer, OptiImage dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try {
+            return decode(createChunkReader(buffer), dest);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from buffer", e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ReadableByteChannel input) throws IOException {
+        try {
+            return decode(createChunkReader(input), DecodeOptions.DEFAULT);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from channel", e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ReadableByteChannel input, DecodeOptions options) throws IOException {
+        Objects.requireNonNull(options, "options is null");
+        try {
+            return decode(createChunkReader(input), options);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from channel", e);
+        }
+    }
+
+    @Override
+    public OptiImage decode(ReadableByteChannel input, OptiImage dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try {
+            return decode(createChunkReader(input), dest);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from channel", e);
+        }
+    }
+
+    /**
+     * Decodes the specified PNG image file and stores its samples in
+     * {@code dest}, starting at its position. The position of {@code dest} is
+     * advanced past the samples. The samples are stored exactly like in the
+     * data of an image returned by {@link #decode(Path)}.
+     * <p>
+     * A byte array can be decoded into by wrapping it, e.g. with
+     * {@link ByteBuffer#wrap(byte[], int, int)}, in which case the samples are
+     * stored directly in the array.
+     *
+     * @param path the path of the image file
+     * @param dest the buffer to store samples in
+     * @return {@code dest}
+     * @throws IOException if the file could not be read, if it is not a valid
+     *                     PNG image, or if {@code dest} cannot hold the
+     *                     samples of the image
+     * @see PngInfo#getSamplesLength()
+     */
+    public ByteBuffer decodeSamples(Path path, ByteBuffer dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decodeSamples(createChunkReader(input), dest);
         }
         catch (IOException | ImageException e) {
             throw new IOException("could not read PNG image from file " + path, e);
         }
     }
+
+    /**
+     * Decodes a PNG image from the remaining bytes of {@code buffer} and
+     * stores its samples in {@code dest}. The position of {@code buffer} is
+     * not changed.
+     *
+     * @see #decodeSamples(Path, ByteBuffer)
+     */
+    public ByteBuffer decodeSamples(ByteBuffer buffer, ByteBuffer dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try {
+            return decodeSamples(createChunkReader(buffer), dest);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from buffer", e);
+        }
+    }
+
+    /**
+     * Decodes a PNG image from the specified channel and stores its samples
+     * in {@code dest}. The channel is not closed.
+     *
+     * @see #decodeSamples(Path, ByteBuffer)
+     */
+    public ByteBuffer decodeSamples(ReadableByteChannel input, ByteBuffer dest) throws IOException {
+        Objects.requireNonNull(dest, "dest is null");
+        try {
+            return decodeSamples(createChunkReader(input), dest);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from channel", e);
+        }
+    }
+
+    /**
+     * Decodes a rectangular region of the specified PNG image file. For
+     * non-interlaced images, rows above the region are decompressed and
+     * reconstructed but not expanded, only the columns of the region are
+     * expanded, and no image data after the last row of the region is
+     * decompressed. Interlaced images are decoded in full and then cropped,
+     * since each pass spans the entire image.
+     *
+     * @param path   the path of the image file
+     * @param x      the first column of the region
+     * @param y      the first row of the region
+     * @param width  the width of the region
+     * @param height the height of the region
+     * @return an image of the region with the metadata of the image file
+     * @throws IllegalArgumentException if the region is empty or has a
+     *                                  negative position
+     * @throws IOException              if the file could not be read, if it
+     *                                  is not a valid PNG image, or if the
+     *                                  region is outside the image
+     */
+    public OptiImage decodeRegion(Path path, int x, int y, int width, int height) throws IOException {
+        if (x < 0 || y < 0 || width < 1 || height < 1) {
+            throw new IllegalArgumentException("invalid region {" + x + ", " + y + ", " + width + ", " + height + "}");
+        }
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decodeRegion(input, createChunkReader(input), x, y, width, height);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image from file " + path, e);
+        }
+    }
+
+    @Override
+    public PngHeader probe(Path path) throws IOException {
+        return probe(path, DecodeOptions.DEFAULT);
+    }
+
+    @Override
+    public PngHeader probe(Path path, DecodeOptions options) throws IOException {
+        Objects.requireNonNull(options, "options is null");
+        try (FileChannel input = FileChannel.open(path, StandardOpenOption.READ)) {
+            return probe(createHeaderReader(input), options);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image header from file " + path, e);
+        }
+    }
+
+    @Override
+    public PngHeader probe(ByteBuffer buffer) throws IOException {
+        try {
+            return probe(createChunkReader(buffer), DecodeOptions.DEFAULT);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image header from buffer", e);
+        }
+    }
+
+    @Override
+    public PngHeader probe(ReadableByteChannel input) throws IOException {
+        try {
+            return probe(createHeaderReader(input), DecodeOptions.DEFAULT);
+        }
+        catch (IOException | ImageException e) {
+            throw new IOException("could not read PNG image header from channel", e);
+        }
+    }
+
+    /**
+     * Opens the specified non-interlaced PNG image file for reading one row
+     * at a time. The returned reader must be closed by the caller.
+     *
+     * @param path the path of the image file
+     * @return a row reader positioned at the first row of the image
+     * @throws IOException if the file could not be opened, or if it is not a
+     *                     valid, non-interlaced PNG image
+     * @see PngRowReader
+     */
+    public PngRowReader openRows(Path path) throws IOException {
+        final FileChannel input = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new PngRowReader(input, createChunkReader(input));
+        }
+        catch (IOException | ImageException e) {
+            input.close();
+            throw new IOException("could not read PNG image from file " + path, e);
+        }
+    }
+
+    /**
+     * Returns a publisher of the rows of the specified non-interlaced PNG
+     * image file. Rows are decoded on the specified executor when requested
+     * by a subscriber, and published as new arrays of
+     * {@link PngRowReader#getRowLength()} samples. The file is opened once for
+     * each subscriber.
+     *
+     * @param path     the path of the image file
+     * @param executor the executor to decode and publish rows on
+     * @return a publisher of image rows
+     * @see #openRows(Path)
+     */
+    public Flow.Publisher<byte[]> publishRows(Path path, Executor executor) {
+        return new PngRowPublisher(this, path, executor);
+    }
+
+    /**
+     * Validates the PNG file header of the specified file and returns a new
+     * chunk reader for the remaining bytes of the file, starting at its
+     * current position. The file is mapped into memory if it is large enough,
+     * in which case the position of {@code input} is not changed.
+     *
+     * @param input the file to read from
+     * @return a chunk reader positioned at the first chunk
+     */
+    protected ChunkReader createChunkReader(FileChannel input) throws IOException, ImageFormatException {
+        final long position = input.position();
+        final long size = input.size() - position;
+        // walk chunks directly over the mapped file if it is large enough
+        if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+            final ByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, position, size);
+            validateFileHeader(buffer);
+            return skipIgnored(new ChunkReader(buffer));
+        }
+        else {
+            validateFileHeader(input);
+            return skipIgnored(new ChunkReader(input));
+        }
+    }
+
+    /**
+     * Validates the PNG file header at the position of the specified buffer
+     * and returns a new chunk reader for its remaining bytes. The position of
+     * {@code buffer} is not changed.
+     *
+     * @param buffer the buffer to read from
+     * @return a chunk reader positioned at the first chunk
+     */
+    protected ChunkReader createChunkReader(ByteBuffer buffer) throws IOException, ImageFormatException {
+        final ByteBuffer input = buffer.duplicate();
+        validateFileHeader(input);
+        return skipIgnored(new ChunkReader(input));
+    }
+
+    /**
+     * Validates the PNG file header read from the specified channel and
+     * returns a new chunk reader for the remaining bytes of the channel. If
+     * the channel is a file channel, the chunk reader is created by
+     * {@link #createChunkReader(FileChannel)}.
+     *
+     * @param input the channel to read from
+     * @return a chunk reader positioned at the first chunk
+     */
+    protected ChunkReader createChunkReader(ReadableByteChannel input) throws IOException, ImageFormatException {
+        if (input instanceof FileChannel file) {
+            return createChunkReader(file);
+        }
+        validateFileHeader(input);
+        return skipIgnored(new ChunkReader(input));
+    }
+
+    /**
+     * Sets the skip filter of the specified chunk reader to skip the data of
+     * chunks that are ignored by {@link PngInfo}, and returns the reader.
+     * Their data is then not read or checksummed when the input is seekable.
+     *
+     * @see PngInfo#isIgnored(int)
+     */
+    protected ChunkReader skipIgnored(ChunkReader reader) {
+        reader.setSkipFilter(PngInfo::isIgnored);
+        return reader;
+    }
+
+    /**
+     * Reads the PNG file header and the IHDR chunk from the specified channel,
+     * validates the file header and returns a new chunk reader for the IHDR
+     * chunk. Exactly {@link #HEADER_SIZE} bytes are read, unless the channel
+     * ends before that, so no bytes are read past the IHDR chunk and the
+     * position of a seekable channel is left at the end of it.
+     *
+     * @param input the channel to read from
+     * @return a chunk reader positioned at the IHDR chunk
+     */
+    protected ChunkReader createHeaderReader(ReadableByteChannel input) throws IOException, ImageFormatException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) == -1) {
+                break;
+            }
+        }
+        validateFileHeader(buffer.flip());
+        return new ChunkReader(buffer);
+    }
+
+    /**
+     * Reads an image from the specified chunk reader and returns it. If
+     * {@code dest} is not {@code null}, the samples of the image are stored
+     * in {@code dest}, which is validated before any image data is read.
+     *
+     * @param reader the chunk reader to read chunks from
+     * @param dest   the image to store samples in, or {@code null}
+     * @return the decoded image
+     */
+    protected OptiImage decode(ChunkReader reader, OptiImage dest) throws IOException, ImageException {
+        // create image info from IHDR chunk
+        final PngInfo info = new PngInfo(reader.getChunk());
+        if (dest != null) {
+            info.validateDestination(dest);
+        }
+        readChunks(reader, info);
+        // create image from updated info
+        return dest != null ? info.createImage(dest) : info.createImage();
+    }
+
+    /**
+     * Reads an image from the specified chunk reader with the specified
+     * options and returns it. The CRC policy of {@code reader} is set from
+     * {@code options}.
+     * <p>
+     * Images that are larger than the maximum size of {@code options} are
+     * reduced by the factor returned by
+     * {@link DecodeOptions#getScaleFactor(int, int)}. Interlaced images are
+     * reduced by decompressing and reconstructing only the Adam7 passes that
+     * contain the pixels of the reduced image, which are 1/8, 1/4 or 1/2 of
+     * the image size; the factor is rounded up to the nearest of these, or to
+     * a multiple of 8 for larger factors. Non-interlaced images are read by
+     * row, and rows after the last row that is sampled are not decompressed.
+     *
+     * @param reader  the chunk reader to read chunks from
+     * @param options the decode options
+     * @return the decoded image
+     */
+    protected OptiImage decode(ChunkReader reader, DecodeOptions options) throws IOException, ImageException {
+        reader.setCrcPolicy(options.getCrcPolicy());
+        final PngInfo info = new PngInfo(reader.getChunk());
+        info.isAdler32Checked = options.isAdler32Check();
+        info.isAlphaPreserved = options.isAlphaPreserved();
+        final int factor = options.getScaleFactor(info.width, info.height);
+        // reduced images are decoded with 8-bit samples
+        info.isFullDepth = options.isFullDepth() && factor == 1;
+        if (factor == 1) {
+            readChunks(reader, info);
+            return info.createImage();
+        }
+        if (info.interlaceMethod == NullMethod.INSTANCE) {
+            return decodeReduced(reader, info, factor, options.isAreaAveraging());
+        }
+
+        // decode only the passes of the nearest scale, then sample the reduced
+        // image if the factor is greater than 8
+        info.scale = factor >= 8 ? 8 : Integer.highestOneBit(factor - 1) << 1;
+        readChunks(reader, info);
+        final OptiImage img = info.createImage();
+        final int step = (factor + info.scale - 1) / info.scale;
+        if (step == 1) {
+            return img;
+        }
+        final int channels = img.channels;
+        final int width = (img.width + step - 1) / step;
+        final int height = (img.height + step - 1) / step;
+        final byte[] samples = new byte[width * height * channels];
+        for (int y = 0, index = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, index += channels) {
+                System.arraycopy(img.data, (y * step * img.width + x * step) * channels, samples, index, channels);
+            }
+        }
+        return info.createImage(width, height, samples);
+    }
+
+    /**
+     * Reads a non-interlaced image by row and returns it reduced by
+     * {@code factor}. Each pixel of the reduced image is either the top-left
+     * pixel of the area it is reduced from, or the average of all pixels in
+     * the area if {@code areaAveraging} is {@code true}. Without area
+     * averaging, rows between sampled rows are reconstructed but not
+     * expanded, and rows after the last sampled row are not decompressed.
+     *
+     * @param reader        the chunk reader to read chunks from
+     * @param info          image info created from the IHDR chunk
+     * @param factor        the factor to reduce the image by
+     * @param areaAveraging {@code true} if pixels are averaged
+     * @return the reduced image
+     */
+    protected OptiImage decodeReduced(ChunkReader reader, PngInfo info, int factor, boolean areaAveraging)
+            throws IOException, ImageException {
+        final int channels = info.getChannels();
+        final int width = (info.width + factor - 1) / factor;
+        final int height = (info.height + factor - 1) / factor;
+        final byte[] samples = new byte[Math.multiplyExact(width * channels, height)];
+
+        // the input of reader is closed by the caller
+        try (PngRowReader rows = new PngRowReader(() -> { }, reader, info)) {
+            if (areaAveraging) {
+                final byte[] row = new byte[rows.getRowLength()];
+                // sums of the samples of each area in the current band of rows
+                final long[] sums = new long[width * channels];
+                for (int y = 0, index = 0; y < height; y++) {
+                    Arrays.fill(sums, 0);
+                    final int rowCount = Math.min(factor, info.height - y * factor);
+                    for (int r = 0; r < rowCount; r++) {
+                        rows.readRow(row, 0);
+                        for (int x = 0, i = 0; x < info.width; x++) {
+                            final int k = x / factor * channels;
+                            for (int c = 0; c < channels; c++) {
+                                sums[k + c] += row[i++] & 0xFF;
+                            }
+                        }
+                    }
+                    for (int x = 0; x < width; x++) {
+                        final long count = (long) rowCount * Math.min(factor, info.width - x * factor);
+                        for (int c = 0; c < channels; c++) {
+                            samples[index++] = (byte) ((sums[x * channels + c] + count / 2) / count);
+                        }
+                    }
+                }
+            }
+            else {
+                for (int y = 0, index = 0; y < height; y++) {
+                    // skip rows between sampled rows
+                    while (rows.getRow() < y * factor) {
+                        rows.skipRow();
+                    }
+                    // only the pixels of sampled columns are expanded
+                    rows.readSampledRow(samples, index, 0, width, factor);
+                    index += width * channels;
+                }
+            }
+        }
+        return info.createImage(width, height, samples);
+    }
+
+    /**
+     * Reads an image from the specified chunk reader and stores its samples
+     * in {@code dest}, which is validated before any image data is read.
+     *
+     * @param reader the chunk reader to read chunks from
+     * @param dest   the buffer to store samples in
+     * @return {@code dest}
+     */
+    protected ByteBuffer decodeSamples(ChunkReader reader, ByteBuffer dest) throws IOException, ImageException {
+        final PngInfo info = new PngInfo(reader.getChunk());
+        info.validateDestination(dest);
+        readChunks(reader, info);
+        info.createSamples(dest);
+        return dest;
+    }
+
+    /**
+     * Reads a region of an image from the specified chunk reader and returns
+     * it.
+     *
+     * @param input  the input that chunks are read from, which is closed
+     *               when the region has been read
+     * @param reader the chunk reader to read chunks from
+     * @return the decoded region
+     * @see #decodeRegion(Path, int, int, int, int)
+     */
+    protected OptiImage decodeRegion(Closeable input, ChunkReader reader, int x, int y, int width, int height)
+            throws IOException, ImageException {
+        final PngInfo info = new PngInfo(reader.getChunk());
+        if (x + (long) width > info.width || y + (long) height > info.height) {
+            throw new ImageFormatException("region is outside image {%d, %d, %d, %d}", x, y, width, height);
+        }
+        final int channels = info.getChannels();
+        final int rowLength = width * channels;
+        final byte[] samples = new byte[Math.multiplyExact(rowLength, height)];
+
+        // crop region from the entire image, as passes are not ordered by row
+        if (info.interlaceMethod != NullMethod.INSTANCE) {
+            readChunks(reader, info);
+            final OptiImage img = info.createImage();
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(img.data, ((y + row) * info.width + x) * channels, samples, row * rowLength,
+                        rowLength);
+            }
+        }
+        // read rows until the last row of the region, skipping rows above it
+        else {
+            try (PngRowReader rows = new PngRowReader(input, reader, info)) {
+                for (int row = 0; row < y; row++) {
+                    rows.skipRow();
+                }
+                for (int row = 0; row < height; row++) {
+                    rows.readRow(samples, row * rowLength, x, width);
+                }
+            }
+        }
+        return info.createImage(width, height, samples);
+    }
+
+    /**
+     * Reads the IHDR chunk from the specified chunk reader and returns its
+     * fields. No other chunks are read.
+     *
+     * @param reader  the chunk reader to read the IHDR chunk from
+     * @param options the decode options that the header describes
+     * @return the image header
+     */
+    protected PngHeader probe(ChunkReader reader, DecodeOptions options) throws IOException, ImageException {
+        return new PngInfo(reader.getChunk()).getHeader(options);
+    }
+
+    /**
+     * Reads the remaining chunks from {@code reader} and updates
+     * {@code info}, until the IEND chunk is read.
+     */
+    protected void readChunks(ChunkReader reader, PngInfo info) throws IOException, ImageException {
+        // read remaining chunks and update info
+        int type;
+        while ((type = reader.next()) != ChunkType.IEND) {
+            info.update(type, reader.data());
+        }
+        if (reader.length() != 0) {
+            throw new ImageException("invalid IEND chunk");
+        }
+    }
 }
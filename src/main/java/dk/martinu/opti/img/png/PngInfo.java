@@ -20,11 +20,11 @@ import dk.martinu.opti.ByteView;
 import dk.martinu.opti.img.*;
 import dk.martinu.opti.img.spi.*;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
-import static dk.martinu.opti.Util.getInt;
 import static dk.martinu.opti.img.OptiImage.*;
 import static dk.martinu.opti.img.png.ChunkType.*;
 
@@ -57,6 +57,23 @@ public class PngInfo {
     public static final int BIT_DEPTH_16 = 16;
 
     private static final int IHDR_LENGTH = 13;
+    /**
+     * Maximum length of the filtered image data array.
+     */
+    private static final int MAX_FILTERED_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Returns {@code true} if the data of chunks of the specified type is
+     * ignored by {@link #update(int, ByteBuffer)}, i.e. all ancillary chunks
+     * except tRNS and bKGD. The data of these chunks does not need to be read,
+     * and only their type is used to enforce chunk ordering.
+     *
+     * @param type the chunk type
+     * @see ChunkReader#setSkipFilter(java.util.function.IntPredicate)
+     */
+    public static boolean isIgnored(int type) {
+        return !Chunk.isCritical(type) && type != tRNS && type != bKGD;
+    }
 
     /* IHDR chunk fields */
     final int width;
@@ -83,15 +100,73 @@ public class PngInfo {
      */
     protected byte[] background = null;
     /**
-     * Buffer for storing IDAT byte arrays as they are read.
+     * Inflater that IDAT chunk data is decompressed with as it is read, or
+     * {@code null} if no IDAT chunks have been read.
      */
-    protected ByteArrayBuffer idatBuffer = new ByteArrayBuffer();
+    protected Inflater inflater = null;
     /**
-     * {@code true} if {@link #idatBuffer} is closed, otherwise {@code false}.
-     * Set to {@code true} when another chunk has been read after one or more
-     * IDAT chunks have already been read.
+     * Decompressed, filtered image data. The length of the array is the exact
+     * number of bytes required by the image dimensions, bit depth and
+     * interlace method.
      */
-    protected boolean isIdatBufferClosed = false;
+    protected byte[] filteredData = null;
+    /**
+     * Number of bytes decompressed into {@link #filteredData}.
+     */
+    protected int filteredLength = 0;
+    /**
+     * {@code true} if no more IDAT chunks can be read, otherwise
+     * {@code false}. Set to {@code true} when another chunk has been read
+     * after one or more IDAT chunks have already been read.
+     */
+    protected boolean isIdatClosed = false;
+    /**
+     * {@code true} if image data is decompressed on demand with
+     * {@link #inflate(byte[], int, int)}, otherwise {@code false} if it is
+     * decompressed into {@link #filteredData} as IDAT chunks are read.
+     */
+    protected boolean isStreaming = false;
+    /**
+     * Scale that an interlaced image is reduced by when it is decoded, either
+     * {@code 1}, {@code 2}, {@code 4} or {@code 8}. If greater than
+     * {@code 1}, only the image data of the Adam7 passes that contain the
+     * pixels of the reduced image is decompressed; the remaining image data
+     * is ignored. Must be {@code 1} for non-interlaced images, and must not
+     * be changed after IDAT chunks have been read.
+     *
+     * @see Adam7#getPassCount(int)
+     */
+    protected int scale = 1;
+    /**
+     * {@code true} if the Adler-32 checksum of the compressed image data is
+     * verified, otherwise {@code false}, in which case the image data is
+     * decompressed as raw deflate data after the zlib header. Must not be
+     * changed after IDAT chunks have been read.
+     */
+    protected boolean isAdler32Checked = true;
+    /**
+     * {@code true} if alpha samples are stored in decoded images, including
+     * alpha from the tRNS chunk, otherwise {@code false} if alpha is
+     * composited against the background color. Must not be changed after
+     * samples have been created.
+     *
+     * @see #getChannels()
+     */
+    protected boolean isAlphaPreserved = false;
+    /**
+     * {@code true} if an image with a bit depth of {@code 16} is decoded to a
+     * {@link ShortImage} with the full precision of its samples, otherwise
+     * {@code false} if samples are truncated to 8 bits. Ignored for other bit
+     * depths, and if the image is reduced by {@link #scale}.
+     */
+    protected boolean isFullDepth = false;
+    /**
+     * Number of bytes of the zlib header that remain to be read if the
+     * Adler-32 checksum is not verified, and the bytes that have been read.
+     * The header can span multiple IDAT chunks.
+     */
+    private int zlibHeaderRemaining = 2;
+    private int zlibHeader = 0;
     // TODO metadata
     private final Map<String, Object> metadata = new HashMap<>();
 
@@ -101,101 +176,207 @@ public class PngInfo {
             throw new ImageFormatException("missing IHDR chunk");
         }
 
-        byte[] ihdr = chunk.data();
-        if (ihdr.length != IHDR_LENGTH) {
+        ByteBuffer ihdr = chunk.data().duplicate();
+        if (ihdr.remaining() != IHDR_LENGTH) {
             throw new ImageDataException("invalid IHDR chunk");
         }
 
-        width = getInt(ihdr);
+        width = ihdr.getInt();
         if (width < 1) {
             throw new ImageDataException("invalid image width {%d}", width);
         }
 
-        height = getInt(ihdr, 4);
+        height = ihdr.getInt();
         if (height < 1) {
             throw new ImageDataException("invalid image height {%d}", height);
         }
 
-        bitDepth  = getBitDepth(ihdr[8]);
-        colorType = ColorType.get(ihdr[9]);
+        bitDepth  = getBitDepth(ihdr.get());
+        colorType = ColorType.get(ihdr.get());
         colorType.validateBitDepth(bitDepth);
 
-        compressionMethod = ihdr[10];
+        compressionMethod = ihdr.get();
         if (compressionMethod != COMPRESSION_DEFLATE) {
             throw new ImageDataException("invalid compression method {%d}", compressionMethod);
         }
 
-        filterMethod    = getFilterMethod(ihdr[11]);
-        interlaceMethod = getInterlaceMethod(ihdr[12]);
+        filterMethod    = getFilterMethod(ihdr.get());
+        interlaceMethod = getInterlaceMethod(ihdr.get());
 
         metadata.put(IMAGE_FORMAT, "PNG");
         metadata.put(BIT_DEPTH, bitDepth);
     }
 
     public OptiImage createImage() throws ImageFormatException, ImageDataException {
-        // https://www.w3.org/TR/png/#5ChunkOrdering
-        if (colorType.usesPalette() && palette == null) {
-            throw new ImageFormatException("missing PLTE chunk");
-        }
-        if (idatBuffer.isEmpty()) {
-            throw new ImageFormatException("missing IDAT chunks");
+        if (isFullDepth && bitDepth == BIT_DEPTH_16 && scale == 1) {
+            return createShortImage();
         }
+        // image samples used by return value
+        byte[] samples = new byte[getSamplesLength()];
+        createSamples(samples, 0);
+        return createImage(getScaledWidth(), getScaledHeight(), samples);
+    }
 
-        // FIXME IDAT lengths are not validated and can contain any amount of samples
-        //  both too much and too little
+    /**
+     * Returns a new image of the specified size with the metadata of this
+     * image, e.g. a region of this image.
+     *
+     * @param width   the width of the new image
+     * @param height  the height of the new image
+     * @param samples the samples of the new image, with
+     *                {@link #getChannels()} samples per pixel
+     */
+    OptiImage createImage(int width, int height, byte[] samples) {
+        return switch (getChannels()) {
+            case 4 -> new RgbaImage(width, height, samples, metadata);
+            case 3 -> new RgbImage(width, height, samples, metadata);
+            case 2 -> new GrayAlphaImage(width, height, samples, metadata);
+            default -> new GrayscaleImage(width, height, samples, metadata);
+        };
+    }
 
-        // prepare background and palette for images with alpha
-        byte[] bkgd = getCompositingBackground();
-        byte[] plte = getPremultipliedPalette(bkgd);
-        // image samples used by return value
-        byte[] samples = interlaceMethod.getPngSamples(width, height, bitDepth, colorType,
-                filterMethod, getFilteredData(), plte, transparency, bkgd);
+    /**
+     * Stores the samples of the image in the specified image instead of
+     * allocating a new image. The metadata of {@code dest} is not changed.
+     *
+     * @param dest the image to store samples in
+     * @return {@code dest}
+     * @throws ImageFormatException if {@code dest} does not match the image,
+     *                              or if the image chunks are invalid
+     * @throws ImageDataException   if the image data is invalid
+     * @see #validateDestination(OptiImage)
+     */
+    public OptiImage createImage(OptiImage dest) throws ImageFormatException, ImageDataException {
+        validateDestination(dest);
+        createSamples(dest.data, 0);
+        return dest;
+    }
 
-        // return value
-        final OptiImage img;
-        // TODO copy pngSamples into image instance
-        if (colorType.usesTruecolor()) {
-            img = new RgbImage(width, height, samples, metadata);
+    /**
+     * Stores the samples of the image in the specified buffer, starting at
+     * its position. The position is advanced past the samples. Samples are
+     * stored directly in the backing array of {@code dest} if it has one,
+     * otherwise they are copied into the buffer.
+     *
+     * @param dest the buffer to store samples in
+     * @throws ImageFormatException if {@code dest} cannot hold the samples of
+     *                              the image, or if the image chunks are
+     *                              invalid
+     * @throws ImageDataException   if the image data is invalid
+     * @see #validateDestination(ByteBuffer)
+     */
+    public void createSamples(ByteBuffer dest) throws ImageFormatException, ImageDataException {
+        validateDestination(dest);
+        final int length = getSamplesLength();
+        if (dest.hasArray()) {
+            createSamples(dest.array(), dest.arrayOffset() + dest.position());
+            dest.position(dest.position() + length);
         }
         else {
-            img = new GrayscaleImage(width, height, samples, metadata);
+            byte[] samples = new byte[length];
+            createSamples(samples, 0);
+            dest.put(samples);
+        }
+    }
+
+    /**
+     * Returns the number of samples per pixel in decoded images, which is
+     * {@code 3} for color images and {@code 1} for grayscale images, plus an
+     * alpha sample if {@link #isAlphaPreserved alpha is preserved}.
+     */
+    public int getChannels() {
+        return colorType.getChannels(isAlphaPreserved);
+    }
+
+    /**
+     * Returns the fields of the IHDR chunk of the image, describing the image
+     * that is decoded with the specified options.
+     */
+    public PngHeader getHeader(DecodeOptions options) {
+        return new PngHeader(width, height, bitDepth, colorType,
+                interlaceMethod == Adam7.INSTANCE ? INTERLACE_METHOD_1 : INTERLACE_METHOD_0,
+                interlaceMethod.getFilteredSize(width, height, bitDepth, colorType), options);
+    }
+
+    /**
+     * Returns the height of the decoded image, which is less than the image
+     * height if the image is reduced by {@link #scale}.
+     */
+    public int getScaledHeight() {
+        return (height + scale - 1) / scale;
+    }
+
+    /**
+     * Returns the width of the decoded image, which is less than the image
+     * width if the image is reduced by {@link #scale}.
+     */
+    public int getScaledWidth() {
+        return (width + scale - 1) / scale;
+    }
+
+    /**
+     * Returns the number of sample bytes in a decoded image.
+     *
+     * @throws ImageDataException if the image is too large to be stored in
+     *                            an array
+     */
+    public int getSamplesLength() throws ImageDataException {
+        long length = (long) getScaledWidth() * getScaledHeight() * getChannels();
+        if (length > MAX_FILTERED_SIZE) {
+            throw new ImageDataException("image is too large {%d x %d}", width, height);
         }
-        return img;
+        return (int) length;
     }
 
     public void update(Chunk chunk) throws ImageFormatException, ImageDataException {
         Objects.requireNonNull(chunk, "chunk is null");
+        update(chunk.type(), chunk.data());
+    }
+
+    /**
+     * Updates this image info with a chunk of the specified type and data,
+     * e.g. the current chunk of a {@link dk.martinu.opti.img.spi.ChunkReader}.
+     * The remaining bytes of {@code data} are the chunk data bytes. Chunk
+     * data that is needed after this method returns is copied, except the
+     * data of IDAT chunks in streaming mode, which is read by the inflater
+     * until it needs more input.
+     *
+     * @param type the chunk type
+     * @param data the chunk data
+     */
+    public void update(int type, ByteBuffer data) throws ImageFormatException, ImageDataException {
+        Objects.requireNonNull(data, "data is null");
 
         // critical chunks
-        if (chunk.isCritical()) {
-            switch (chunk.type()) {
-                case PLTE -> update_PLTE(chunk);
-                case IDAT -> update_IDAT(chunk);
+        if (Chunk.isCritical(type)) {
+            switch (type) {
+                case PLTE -> update_PLTE(data);
+                case IDAT -> update_IDAT(data);
                 default -> throw new ImageDataException(
-                        "unknown critical chunk type %s", Chunk.typeToString(chunk.type()));
+                        "unknown critical chunk type %s", Chunk.typeToString(type));
             }
         }
 
         // ancillary chunks
         else {
             // ignore private chunks and chunks that do not conform to PNG spec
-            if (chunk.isPrivate()) {
+            if (Chunk.isPrivate(type)) {
                 return; // TODO log
             }
-            if (chunk.isReserved()) {
+            if (Chunk.isReserved(type)) {
                 return; // TODO log
             }
 
-            switch (chunk.type()) {
+            switch (type) {
                 /* chunks that are interpreted */
-                case tRNS -> update_tRNS(chunk);
-                case bKGD -> update_bKGD(chunk);
+                case tRNS -> update_tRNS(data);
+                case bKGD -> update_bKGD(data);
 
                 /* ignored chunks (ordering is still enforced) */
                 /* https://www.w3.org/TR/png/#5ChunkOrdering   */
                 case tEXt, zTXt, iTXt, pHYs, tIME -> {
-                    if (!idatBuffer.isEmpty()) {
-                        isIdatBufferClosed = true;
+                    if (inflater != null) {
+                        isIdatClosed = true;
                     }
                     // TODO log
                 }
@@ -203,14 +384,14 @@ public class PngInfo {
                     if (palette == null) {
                         throw new ImageFormatException("PLTE chunk must precede hIST chunk");
                     }
-                    if (!idatBuffer.isEmpty()) {
+                    if (inflater != null) {
                         throw new ImageFormatException("hIST chunk must precede IDAT chunks");
                     }
                 }
                 case sPLT, eXIf -> {
-                    if (!idatBuffer.isEmpty()) {
+                    if (inflater != null) {
                         throw new ImageFormatException(
-                                "%s chunk must precede IDAT chunks", Chunk.typeToString(chunk.type()));
+                                "%s chunk must precede IDAT chunks", Chunk.typeToString(type));
                     }
                     // TODO log
                 }
@@ -218,18 +399,18 @@ public class PngInfo {
                 case cHRM, gAMA, iCCP, sBIT, sRGB, cICP, mDCv, cLLi -> {
                     if (palette != null) {
                         throw new ImageFormatException(
-                                "%s chunk must precede PLTE chunk", Chunk.typeToString(chunk.type()));
+                                "%s chunk must precede PLTE chunk", Chunk.typeToString(type));
                     }
-                    if (!idatBuffer.isEmpty()) {
+                    if (inflater != null) {
                         throw new ImageFormatException(
-                                "%s chunk must precede IDAT chunks", Chunk.typeToString(chunk.type()));
+                                "%s chunk must precede IDAT chunks", Chunk.typeToString(type));
                     }
                     // TODO log
                 }
                 // unknown ancillary chunks
                 default -> {
-                    if (!idatBuffer.isEmpty()) {
-                        isIdatBufferClosed = true;
+                    if (inflater != null) {
+                        isIdatClosed = true;
                     }
                     // TODO log
                 }
@@ -237,16 +418,44 @@ public class PngInfo {
         }
     }
 
-    protected void update_IDAT(Chunk chunk) throws ImageFormatException {
+    protected void update_IDAT(ByteBuffer data) throws ImageFormatException, ImageDataException {
         // https://www.w3.org/TR/png/#5ChunkOrdering
-        if (isIdatBufferClosed) {
+        if (isIdatClosed) {
             throw new ImageFormatException("IDAT chunks must be consecutive");
         }
 
-        idatBuffer.add(chunk.data());
+        if (inflater == null) {
+            if (!isStreaming) {
+                long size = scale == 1 ?
+                        interlaceMethod.getFilteredSize(width, height, bitDepth, colorType) :
+                        Adam7.getFilteredSize(Adam7.getPassCount(scale), width, height, bitDepth, colorType);
+                if (size > MAX_FILTERED_SIZE) {
+                    throw new ImageDataException("image is too large {%d x %d}", width, height);
+                }
+                filteredData = new byte[(int) size];
+            }
+            inflater = new Inflater(!isAdler32Checked);
+        }
+        final ByteBuffer input = data.duplicate();
+        // raw deflate data follows the zlib header, which is skipped
+        if (!isAdler32Checked && zlibHeaderRemaining > 0) {
+            while (zlibHeaderRemaining > 0 && input.hasRemaining()) {
+                zlibHeader = zlibHeader << 8 | input.get() & 0xFF;
+                zlibHeaderRemaining--;
+            }
+            // compression method must be deflate, without preset dictionary
+            if (zlibHeaderRemaining == 0
+                    && ((zlibHeader >>> 8 & 0x0F) != 8 || (zlibHeader & 0x20) != 0 || zlibHeader % 31 != 0)) {
+                throw new ImageDataException("invalid zlib header {%d}", zlibHeader);
+            }
+        }
+        inflater.setInput(input); // <- NOTE inflater reads from buffer; does not copy
+        if (!isStreaming) {
+            inflateAll();
+        }
     }
 
-    protected void update_PLTE(Chunk chunk) throws ImageFormatException, ImageDataException {
+    protected void update_PLTE(ByteBuffer data) throws ImageFormatException, ImageDataException {
         // https://www.w3.org/TR/png/#5ChunkOrdering
         if (palette != null) {
             throw new ImageFormatException("image contains multiple PLTE chunks");
@@ -257,7 +466,7 @@ public class PngInfo {
         if (background != null) {
             throw new ImageFormatException("PLTE chunk must precede bKGD chunk");
         }
-        if (!idatBuffer.isEmpty()) {
+        if (inflater != null) {
             throw new ImageFormatException("PLTE chunk must precede IDAT chunks");
         }
 
@@ -266,7 +475,7 @@ public class PngInfo {
         if (!colorType.usesTruecolor()) {
             throw new ImageDataException("image color type %s does not allow PLTE chunk", colorType.getName());
         }
-        final int len = chunk.data().length;
+        final int len = data.remaining();
         if (len % 3 != 0) {
             throw new ImageDataException("invalid PLTE chunk samples length {%d}", len);
         }
@@ -276,20 +485,20 @@ public class PngInfo {
                     "PLTE chunk samples length is too large for bit depth {%d, %d}", len, bitDepth);
         }
 
-        palette = chunk.data();
+        palette = getBytes(data);
     }
 
-    protected void update_bKGD(Chunk chunk) throws ImageFormatException, ImageDataException {
+    protected void update_bKGD(ByteBuffer data) throws ImageFormatException, ImageDataException {
         // https://www.w3.org/TR/png/#5ChunkOrdering
         if (colorType.usesPalette() && palette == null) {
             throw new ImageFormatException("PLTE chunk must precede bKGD chunk");
         }
-        if (!idatBuffer.isEmpty()) {
+        if (inflater != null) {
             throw new ImageFormatException("bKGD chunk must precede IDAT chunks");
         }
 
         // https://www.w3.org/TR/png/#11bKGD
-        final byte[] bKGD = chunk.data();
+        final byte[] bKGD = getBytes(data);
         final int len = bKGD.length;
 
         // validate chunk length
@@ -340,12 +549,12 @@ public class PngInfo {
         background = bKGD;
     }
 
-    protected void update_tRNS(Chunk chunk) throws ImageFormatException, ImageDataException {
+    protected void update_tRNS(ByteBuffer data) throws ImageFormatException, ImageDataException {
         // https://www.w3.org/TR/png/#5ChunkOrdering
         if (colorType.usesPalette() && palette == null) {
             throw new ImageFormatException("PLTE chunk must precede tRNS chunk");
         }
-        if (!idatBuffer.isEmpty()) {
+        if (inflater != null) {
             throw new ImageFormatException("tRNS chunk must precede IDAT chunks");
         }
 
@@ -355,7 +564,7 @@ public class PngInfo {
         }
 
         // TODO mask alpha values for bit depth
-        final int len = chunk.data().length;
+        final int len = data.remaining();
         if (colorType.usesPalette()) {
             if (len > palette.length / 3) {
                 throw new ImageDataException("too many entries in tRNS chunk {%d}", len);
@@ -368,7 +577,143 @@ public class PngInfo {
             // TODO validate GREYSCALE 0
         }
 
-        transparency = chunk.data();
+        transparency = getBytes(data);
+    }
+
+    /**
+     * Validates that the specified image can store the samples of this image,
+     * i.e. that it has the same width, height and number of channels, with
+     * 8-bit samples.
+     *
+     * @param dest the image to validate
+     * @throws ImageFormatException if {@code dest} does not match this image
+     */
+    public void validateDestination(OptiImage dest) throws ImageFormatException, ImageDataException {
+        Objects.requireNonNull(dest, "dest is null");
+        if (dest.width != getScaledWidth() || dest.height != getScaledHeight() || dest.channels != getChannels()
+                || dest.depth != BIT_DEPTH_8 || dest.data.length < getSamplesLength()) {
+            throw new ImageFormatException("destination image does not match image {%d x %d x %d}",
+                    getScaledWidth(), getScaledHeight(), getChannels());
+        }
+    }
+
+    /**
+     * Validates that the specified buffer has enough remaining space to store
+     * the samples of this image.
+     *
+     * @param dest the buffer to validate
+     * @throws ImageFormatException if {@code dest} cannot hold the samples
+     */
+    public void validateDestination(ByteBuffer dest) throws ImageFormatException, ImageDataException {
+        Objects.requireNonNull(dest, "dest is null");
+        if (dest.remaining() < getSamplesLength()) {
+            throw new ImageFormatException("destination buffer is too small {%d < %d}",
+                    dest.remaining(), getSamplesLength());
+        }
+    }
+
+    /**
+     * Returns a new pixel setter for the specified reduced image, using the
+     * palette, transparency and compositing background of this image. Alpha
+     * is stored instead of composited if {@link #isAlphaPreserved} is
+     * {@code true}.
+     */
+    PixelSetter createPixelSetter(ReducedImage image) throws ImageDataException {
+        byte[] bkgd = isAlphaPreserved ? null : getCompositingBackground();
+        return colorType.getPixelSetter(bitDepth, image, getPremultipliedPalette(bkgd), transparency, bkgd);
+    }
+
+    /**
+     * Decompresses image data from the current IDAT chunk into the specified
+     * array.
+     *
+     * @param dest   the array to decompress image data into
+     * @param offset the index in {@code dest} of the first byte
+     * @param length the maximum number of bytes to decompress
+     * @return the number of bytes decompressed, which is {@code 0} if the
+     * inflater needs more input or the compressed data is finished
+     * @throws ImageDataException if the data cannot be decompressed
+     */
+    int inflate(byte[] dest, int offset, int length) throws ImageDataException {
+        try {
+            int len = inflater.inflate(dest, offset, length);
+            if (len == 0 && inflater.needsDictionary()) {
+                throw new ImageDataException("cannot decompress image samples");
+            }
+            return len;
+        }
+        catch (DataFormatException e) {
+            throw new ImageDataException("an error occurred while decompressing image samples", e);
+        }
+    }
+
+    /**
+     * Validates that all image data has been read, and stores the samples of
+     * the image in {@code dest}, starting at {@code offset}.
+     */
+    private void createSamples(byte[] dest, int offset) throws ImageFormatException, ImageDataException {
+        createSamples(this::createPixelSetter, getChannels(), dest, offset);
+    }
+
+    /**
+     * Validates that all image data has been read, and stores the pixels of
+     * the image in {@code dest}, starting at {@code offset}, with the pixel
+     * setters created by {@code setters}.
+     *
+     * @param setters     the factory of pixel setters
+     * @param pixelLength the number of bytes that pixel setters store for
+     *                    each pixel
+     * @see InterlaceMethod#getPngSamples(int, int, int, ColorType, FilterMethod, byte[], PixelSetterFactory, int,
+     * byte[], int)
+     */
+    private void createSamples(PixelSetterFactory setters, int pixelLength, byte[] dest, int offset)
+            throws ImageFormatException, ImageDataException {
+        // https://www.w3.org/TR/png/#5ChunkOrdering
+        if (colorType.usesPalette() && palette == null) {
+            throw new ImageFormatException("missing PLTE chunk");
+        }
+        if (inflater == null) {
+            throw new ImageFormatException("missing IDAT chunks");
+        }
+        try {
+            if (filteredLength < filteredData.length) {
+                throw new ImageDataException("not enough image data in IDAT chunks {%d < %d}",
+                        filteredLength, filteredData.length);
+            }
+            // image data of omitted passes is not decompressed
+            if (scale == 1 && !inflater.finished()) {
+                throw new ImageDataException("compressed image data is incomplete");
+            }
+        }
+        finally {
+            inflater.end();
+        }
+
+        if (scale == 1) {
+            interlaceMethod.getPngSamples(width, height, bitDepth, colorType, filterMethod, filteredData, setters,
+                    pixelLength, dest, offset);
+        }
+        else {
+            Adam7.INSTANCE.getPngSamples(scale, width, height, bitDepth, colorType, filterMethod, filteredData,
+                    setters, pixelLength, dest, offset);
+        }
+    }
+
+    /**
+     * Returns a new image with the 16-bit samples of this image, which must
+     * have a bit depth of {@code 16} and must not be reduced. The pixels of
+     * the image are deinterlaced as they are, and their samples are then
+     * converted by {@link #getShortSamples(byte[])}.
+     */
+    private OptiImage createShortImage() throws ImageFormatException, ImageDataException {
+        final int pixelLength = colorType.getComponentCount() * 2;
+        final long length = (long) width * height * pixelLength;
+        if (length > MAX_FILTERED_SIZE) {
+            throw new ImageDataException("image is too large {%d x %d}", width, height);
+        }
+        final byte[] pixels = new byte[(int) length];
+        createSamples(image -> new RawPixelSetter(image, pixelLength), pixelLength, pixels, 0);
+        return new ShortImage(width, height, getChannels(), getShortSamples(pixels), metadata);
     }
 
     private int getBitDepth(byte value) throws ImageDataException {
@@ -384,6 +729,16 @@ public class PngInfo {
         };
     }
 
+    /**
+     * Returns a new array containing a copy of the remaining bytes of
+     * {@code data}. The position of {@code data} is not changed.
+     */
+    private static byte[] getBytes(ByteBuffer data) {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(data.position(), bytes);
+        return bytes;
+    }
+
     private byte[] getCompositingBackground() {
         // create new default (white) background color for color type
         if (background == null) {
@@ -417,39 +772,87 @@ public class PngInfo {
         }
     }
 
+    /**
+     * Returns the big-endian 16-bit samples of the specified pixels of an
+     * image with a bit depth of {@code 16}, with {@link #getChannels()}
+     * samples per pixel. Alpha, including alpha from the tRNS chunk, is
+     * either stored after the color samples of each pixel or composited
+     * against the background color with
+     * {@link AlphaCompositor#composite16(int, int, int)}.
+     *
+     * @param pixels the big-endian samples of the pixels of the image
+     */
+    private byte[] getShortSamples(byte[] pixels) {
+        final int components = colorType.getComponentCount();
+        final int channels = getChannels();
+        // pixels without tRNS alpha are returned as they are if all their
+        // samples are kept
+        if (channels == components && (colorType.usesAlpha() || transparency == null)) {
+            return pixels;
+        }
+        final byte[] samples = new byte[pixels.length / components * channels];
+
+        // number of color samples of each pixel
+        final int colors = colorType.usesAlpha() ? components - 1 : components;
+        // 16-bit background and transparent color, or null if not used
+        final int[] bkgd = isAlphaPreserved ? null : getShortColor(getCompositingBackground(), colors);
+        final int[] trns = colorType.usesAlpha() || transparency == null ? null : getShortColor(transparency, colors);
+        final int[] color = new int[colors];
+        for (int k = 0, i = 0; k < pixels.length; ) {
+            boolean isTransparent = trns != null;
+            for (int c = 0; c < colors; c++, k += 2) {
+                color[c] = (pixels[k] & 0xFF) << 8 | pixels[k + 1] & 0xFF;
+                isTransparent = isTransparent && color[c] == trns[c];
+            }
+            final int alpha;
+            if (colorType.usesAlpha()) {
+                alpha = (pixels[k] & 0xFF) << 8 | pixels[k + 1] & 0xFF;
+                k += 2;
+            }
+            else {
+                alpha = isTransparent ? 0 : 0xFFFF;
+            }
+            if (bkgd == null) {
+                for (int c = 0; c < colors; c++) {
+                    samples[i++] = (byte) (color[c] >>> 8);
+                    samples[i++] = (byte) color[c];
+                }
+                samples[i++] = (byte) (alpha >>> 8);
+                samples[i++] = (byte) alpha;
+            }
+            else {
+                for (int c = 0; c < colors; c++) {
+                    final int sample = AlphaCompositor.composite16(color[c], bkgd[c], alpha);
+                    samples[i++] = (byte) (sample >>> 8);
+                    samples[i++] = (byte) sample;
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Returns the 16-bit samples of a color stored in the specified bytes,
+     * e.g. the data of a bKGD or tRNS chunk.
+     */
+    private static int[] getShortColor(byte[] bytes, int colors) {
+        final int[] color = new int[colors];
+        for (int c = 0; c < colors; c++) {
+            color[c] = (bytes[c * 2] & 0xFF) << 8 | bytes[c * 2 + 1] & 0xFF;
+        }
+        return color;
+    }
+
     private FilterMethod getFilterMethod(byte value) throws ImageDataException {
         int i = value & 0xFF;
         if (i == FILTER_METHOD_0) {
-            return new FilterMethod_0();
+            return FilterMethod_0.getInstance();
         }
         else {
             throw new ImageDataException("invalid filter method value {%d}", i);
         }
     }
 
-    private byte[] getFilteredData() throws ImageDataException {
-        Inflater inflater = new Inflater();
-        inflater.setInput(idatBuffer.getData()); // <- NOTE inflater uses array pointer; does not copy
-        if (inflater.needsDictionary()) {
-            throw new ImageDataException("cannot decompress image samples");
-        }
-        // buffer of decompressed, filtered image data
-        ByteArrayBuffer dataBuffer = new ByteArrayBuffer();
-        try {
-            // decompress bytes progressively and store in buffer
-            while (!inflater.finished()) {
-                byte[] bytes = new byte[8192];
-                int len = inflater.inflate(bytes);
-                dataBuffer.add(bytes, len);
-            }
-            inflater.end();
-        }
-        catch (DataFormatException e) {
-            throw new ImageDataException("an error occurred while decompressing image samples", e);
-        }
-        return dataBuffer.getData();
-    }
-
     private InterlaceMethod getInterlaceMethod(byte value) throws ImageDataException {
         int i = value & 0xFF;
         if (i == INTERLACE_METHOD_0) {
@@ -464,11 +867,7 @@ public class PngInfo {
     }
 
     private byte[] getPremultipliedPalette(byte[] bkgd) {
-        if (colorType.usesPalette() && palette != null && transparency != null) {
-            // background color constants for multiplying
-            final float r = (float) (bkgd[0] & 0xFF);
-            final float g = (float) (bkgd[1] & 0xFF);
-            final float b = (float) (bkgd[2] & 0xFF);
+        if (colorType.usesPalette() && palette != null && transparency != null && bkgd != null) {
             // return value with premultiplied colors
             byte[] plte = Arrays.copyOf(palette, palette.length);
             // iterate over all entries in tRNS (may contain fewer entries than palette entries)
@@ -482,12 +881,9 @@ public class PngInfo {
                 }
                 // partially transparent
                 else if (alpha != 0xFF) {
-                    // output = alpha * foreground + (1-alpha) * background
-                    float alpha_fg = alpha / 255.0F;
-                    float alpha_bg = 1.0F - alpha_fg;
-                    plte[pi]     = (byte) ((int) (alpha_fg * (plte[pi] & 0xFF)) + (int) (alpha_bg * r));
-                    plte[pi + 1] = (byte) ((int) (alpha_fg * (plte[pi + 1] & 0xFF)) + (int) (alpha_bg * g));
-                    plte[pi + 2] = (byte) ((int) (alpha_fg * (plte[pi + 2] & 0xFF)) + (int) (alpha_bg * b));
+                    for (int c = 0; c < 3; c++) {
+                        plte[pi + c] = (byte) AlphaCompositor.composite(plte[pi + c] & 0xFF, bkgd[c] & 0xFF, alpha);
+                    }
                 }
             }
             return plte;
@@ -496,4 +892,29 @@ public class PngInfo {
             return palette;
         }
     }
+
+    /**
+     * Decompresses the current IDAT chunk into {@link #filteredData}. All
+     * bytes of the chunk are consumed before this method returns.
+     *
+     * @throws ImageDataException if the data cannot be decompressed, or if it
+     *                            decompresses to more bytes than the image
+     *                            requires
+     */
+    private void inflateAll() throws ImageDataException {
+        while (!inflater.needsInput() && !inflater.finished()) {
+            if (filteredLength < filteredData.length) {
+                filteredLength += inflate(filteredData, filteredLength, filteredData.length - filteredLength);
+            }
+            // image data of omitted passes is ignored
+            else if (scale != 1) {
+                break;
+            }
+            // all image data has been decompressed; only the end of the
+            // stream can remain
+            else if (inflate(new byte[1], 0, 1) != 0) {
+                throw new ImageDataException("too much image data in IDAT chunks {> %d}", filteredData.length);
+            }
+        }
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of the rows of a non-interlaced PNG image file. Each subscriber
+ * receives the rows of the image in order, as new arrays of samples. The file
+ * is opened when a subscriber first requests rows, and rows are only decoded
+ * when requested, so no more than the requested rows are held in memory.
+ * Rows are decoded and published on the executor of the publisher.
+ *
+ * @author Adam Martinu
+ * @see PngRowReader
+ * @see PngImageDecoder#publishRows(Path, Executor)
+ * @since 1.0
+ */
+final class PngRowPublisher implements Flow.Publisher<byte[]> {
+
+    private final PngImageDecoder decoder;
+    private final Path path;
+    private final Executor executor;
+
+    PngRowPublisher(PngImageDecoder decoder, Path path, Executor executor) {
+        this.decoder  = Objects.requireNonNull(decoder, "decoder is null");
+        this.path     = Objects.requireNonNull(path, "path is null");
+        this.executor = Objects.requireNonNull(executor, "executor is null");
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber is null");
+        subscriber.onSubscribe(new RowSubscription(subscriber));
+    }
+
+    /**
+     * Subscription that decodes and publishes rows while there is demand.
+     * Signals are only sent from {@link #run()}, which is never executed
+     * concurrently. If the subscriber throws an exception from a signal
+     * method, the subscription is cancelled.
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super byte[]> subscriber;
+        /**
+         * Number of requested rows that have not been published.
+         */
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * Number of times this subscription has been scheduled to run and not
+         * yet run.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        /**
+         * {@code true} if the subscriber has been sent a terminal signal.
+         */
+        private boolean done = false;
+        private PngRowReader reader = null;
+        /**
+         * Illegal request, or {@code null}.
+         */
+        private volatile IllegalArgumentException error = null;
+
+        RowSubscription(Flow.Subscriber<? super byte[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request {" + n + "}");
+            }
+            else {
+                demand.getAndAccumulate(n, (d, m) -> d + m < 0 ? Long.MAX_VALUE : d + m);
+            }
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!done) {
+                    try {
+                        if (cancelled) {
+                            closeReader();
+                            done = true;
+                        }
+                        else if (error != null) {
+                            closeReader();
+                            done = true;
+                            subscriber.onError(error);
+                        }
+                        else {
+                            publish();
+                        }
+                    }
+                    // subscribers must not throw from signal methods; the
+                    // subscription is then cancelled, and no more signals are
+                    // sent
+                    catch (RuntimeException e) {
+                        closeReader();
+                        cancelled = true;
+                        done = true;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        private void closeReader() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException ignored) { }
+                reader = null;
+            }
+        }
+
+        /**
+         * Publishes rows while there is demand, and completes the subscriber
+         * when all rows have been published.
+         */
+        private void publish() {
+            try {
+                if (reader == null) {
+                    reader = decoder.openRows(path);
+                }
+                long n = demand.get();
+                long published = 0;
+                while (published < n && reader.hasNextRow() && !cancelled) {
+                    subscriber.onNext(reader.readRow(new byte[reader.getRowLength()], 0));
+                    published++;
+                }
+                if (n != Long.MAX_VALUE) {
+                    demand.addAndGet(-published);
+                }
+                if (!reader.hasNextRow()) {
+                    closeReader();
+                    done = true;
+                    if (!cancelled) {
+                        subscriber.onComplete();
+                    }
+                }
+            }
+            catch (IOException e) {
+                closeReader();
+                done = true;
+                subscriber.onError(e);
+            }
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+    }
+}
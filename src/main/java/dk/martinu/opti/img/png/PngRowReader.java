@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import dk.martinu.opti.img.spi.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static dk.martinu.opti.img.png.ChunkType.*;
+
+/**
+ * Reader that decodes the pixels of a non-interlaced PNG image one scanline
+ * (row) at a time. Each row is decompressed, reconstructed against the
+ * previous row only and then expanded to 8-bit samples, so the working memory
+ * of a reader is proportional to the image width rather than its size.
+ * <p>
+ * Rows are only decoded when requested, which makes the caller in control of
+ * how fast the image is read. Rows are expanded exactly like the rows of an
+ * image returned by {@link PngImageDecoder#decode(java.nio.file.Path)}, i.e.
+ * with {@link #getChannels()} samples per pixel and alpha either composited
+ * against the background color or preserved, as determined by
+ * {@link PngInfo#isAlphaPreserved}.
+ *
+ * @author Adam Martinu
+ * @see PngImageDecoder#openRows(java.nio.file.Path)
+ * @since 1.0
+ */
+public class PngRowReader implements Closeable {
+
+    /**
+     * The input that chunks are read from, closed when this reader is closed.
+     */
+    protected final Closeable input;
+    protected final ChunkReader reader;
+    protected final PngInfo info;
+    /**
+     * Number of samples per pixel in expanded rows.
+     */
+    protected final int channels;
+    /**
+     * Number of sample bytes in a filtered scanline.
+     */
+    protected final int nBytes;
+    protected final int filterOffset;
+    /**
+     * Reconstructed sample bytes of the current and previous scanline.
+     */
+    protected byte[] line, prev;
+    /**
+     * Pixel setters for {@link #line} and {@link #prev}, respectively.
+     */
+    protected PixelSetter lineSetter, prevSetter;
+    /**
+     * Index of the next row.
+     */
+    protected int y = 0;
+    /**
+     * Reusable array for reading filter type bytes.
+     */
+    private final byte[] filterType = new byte[1];
+
+    /**
+     * Creates a new row reader that reads chunks from {@code reader}, starting
+     * with the IHDR chunk. All chunks preceding the first IDAT chunk are read
+     * by this constructor.
+     *
+     * @param input  the input to close when this reader is closed
+     * @param reader the chunk reader to read chunks from
+     * @throws ImageFormatException if the image is interlaced or its chunks
+     *                              are not in a valid order
+     * @throws ImageDataException   if the image data is invalid
+     * @throws IOException          if an I/O error occurs
+     */
+    public PngRowReader(Closeable input, ChunkReader reader) throws IOException, ImageException {
+        this(input, reader, new PngInfo(Objects.requireNonNull(reader, "reader is null").getChunk()));
+    }
+
+    /**
+     * Creates a new row reader that reads chunks from {@code reader},
+     * starting with the chunk after the IHDR chunk, which has already been
+     * read into {@code info}. All chunks preceding the first IDAT chunk are
+     * read by this constructor.
+     *
+     * @param input  the input to close when this reader is closed
+     * @param reader the chunk reader to read chunks from
+     * @param info   image info created from the IHDR chunk of the image
+     * @throws ImageFormatException if the image is interlaced or its chunks
+     *                              are not in a valid order
+     * @throws ImageDataException   if the image data is invalid
+     * @throws IOException          if an I/O error occurs
+     */
+    public PngRowReader(Closeable input, ChunkReader reader, PngInfo info) throws IOException, ImageException {
+        this.input  = Objects.requireNonNull(input, "input is null");
+        this.reader = Objects.requireNonNull(reader, "reader is null");
+        this.info   = Objects.requireNonNull(info, "info is null");
+        if (info.interlaceMethod != NullMethod.INSTANCE) {
+            throw new ImageFormatException("interlaced images cannot be read by row");
+        }
+        info.isStreaming = true;
+
+        // read chunks until image data is available
+        int type;
+        while ((type = reader.next()) != IDAT) {
+            if (type == IEND) {
+                throw new ImageFormatException("missing IDAT chunks");
+            }
+            info.update(type, reader.data());
+        }
+        if (info.colorType.usesPalette() && info.palette == null) {
+            throw new ImageFormatException("missing PLTE chunk");
+        }
+        info.update(IDAT, reader.data());
+
+        channels     = info.getChannels();
+        nBytes       = (int) info.colorType.getScanlineLength(info.width, info.bitDepth);
+        filterOffset = info.colorType.getFilterOffset(info.bitDepth);
+        line         = new byte[nBytes];
+        prev         = new byte[nBytes];
+        lineSetter   = info.createPixelSetter(new ReducedImage(info.width, 1, line));
+        prevSetter   = info.createPixelSetter(new ReducedImage(info.width, 1, prev));
+    }
+
+    /**
+     * Closes this reader and its input.
+     */
+    @Override
+    public void close() throws IOException {
+        if (info.inflater != null) {
+            info.inflater.end();
+        }
+        input.close();
+    }
+
+    /**
+     * Returns the number of samples per pixel in rows returned by this reader.
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Returns the image height, which is the number of rows.
+     */
+    public int getHeight() {
+        return info.height;
+    }
+
+    /**
+     * Returns the index of the next row to be read.
+     */
+    public int getRow() {
+        return y;
+    }
+
+    /**
+     * Returns the number of sample bytes in rows returned by this reader.
+     */
+    public int getRowLength() {
+        return info.width * channels;
+    }
+
+    /**
+     * Returns the image width.
+     */
+    public int getWidth() {
+        return info.width;
+    }
+
+    /**
+     * Returns {@code true} if the image has more rows to read, otherwise
+     * {@code false}.
+     */
+    public boolean hasNextRow() {
+        return y < info.height;
+    }
+
+    /**
+     * Reads the next row of the image and stores its samples in
+     * {@code dest}, starting at {@code offset}. When the last row has been
+     * read, the remaining chunks of the image are read and validated.
+     *
+     * @param dest   the array to store samples in
+     * @param offset index in {@code dest} of the first sample
+     * @return {@code dest}
+     * @throws NoSuchElementException    if all rows have been read
+     * @throws IndexOutOfBoundsException if {@code dest} cannot hold
+     *                                   {@link #getRowLength()} samples from
+     *                                   {@code offset}
+     * @throws IOException               if an I/O error occurs or the image
+     *                                   data is invalid
+     */
+    public byte[] readRow(byte[] dest, int offset) throws IOException {
+        Objects.checkFromIndexSize(offset, getRowLength(), dest.length);
+        nextLine();
+        // expand samples of reconstructed scanline into dest
+        lineSetter.expandRow(0, dest, offset);
+        finishIfLast();
+        return dest;
+    }
+
+    /**
+     * Reads the next row of the image and stores the samples of
+     * {@code width} pixels, starting at column {@code x}, in {@code dest},
+     * starting at {@code offset}. Only the pixels of the region are expanded.
+     * When the last row has been read, the remaining chunks of the image are
+     * read and validated.
+     *
+     * @param dest   the array to store samples in
+     * @param offset index in {@code dest} of the first sample
+     * @param x      the first column to read
+     * @param width  the number of columns to read
+     * @return {@code dest}
+     * @throws NoSuchElementException    if all rows have been read
+     * @throws IndexOutOfBoundsException if the columns are outside the image,
+     *                                   or if {@code dest} cannot hold the
+     *                                   samples from {@code offset}
+     * @throws IOException               if an I/O error occurs or the image
+     *                                   data is invalid
+     */
+    public byte[] readRow(byte[] dest, int offset, int x, int width) throws IOException {
+        Objects.checkFromIndexSize(x, width, info.width);
+        if (x == 0 && width == info.width) {
+            return readRow(dest, offset);
+        }
+        Objects.checkFromIndexSize(offset, width * channels, dest.length);
+        nextLine();
+        // expand samples of region into dest
+        lineSetter.setRun(0, x, width, dest, offset, channels);
+        finishIfLast();
+        return dest;
+    }
+
+    /**
+     * Reads the next row of the image and stores the samples of
+     * {@code count} pixels, starting at column {@code x} and
+     * {@code stride} columns apart, in {@code dest}, starting at
+     * {@code offset}. Only the sampled pixels are expanded, e.g. to read a
+     * row of an image reduced by a factor of {@code stride}. When the last
+     * row has been read, the remaining chunks of the image are read and
+     * validated.
+     *
+     * @param dest   the array to store samples in
+     * @param offset index in {@code dest} of the first sample
+     * @param x      the first column to read
+     * @param count  the number of columns to read
+     * @param stride the distance between the columns to read
+     * @return {@code dest}
+     * @throws IllegalArgumentException  if {@code stride} is less than
+     *                                   {@code 1}
+     * @throws NoSuchElementException    if all rows have been read
+     * @throws IndexOutOfBoundsException if the columns are outside the image,
+     *                                   or if {@code dest} cannot hold the
+     *                                   samples from {@code offset}
+     * @throws IOException               if an I/O error occurs or the image
+     *                                   data is invalid
+     */
+    public byte[] readSampledRow(byte[] dest, int offset, int x, int count, int stride) throws IOException {
+        if (stride < 1) {
+            throw new IllegalArgumentException("invalid stride {" + stride + "}");
+        }
+        if (count != 0) {
+            Objects.checkFromIndexSize(x, (count - 1) * (long) stride + 1, info.width);
+        }
+        Objects.checkFromIndexSize(offset, count * channels, dest.length);
+        nextLine();
+        // expand sampled pixels into dest
+        for (int i = 0; i < count; i++) {
+            lineSetter.setRun(0, x + i * stride, 1, dest, offset + i * channels, channels);
+        }
+        finishIfLast();
+        return dest;
+    }
+
+    /**
+     * Reads the next row of the image without expanding its samples. The row
+     * is still decompressed and reconstructed, as subsequent rows depend on
+     * it.
+     *
+     * @throws NoSuchElementException if all rows have been read
+     * @throws IOException            if an I/O error occurs or the image data
+     *                                is invalid
+     */
+    public void skipRow() throws IOException {
+        nextLine();
+        finishIfLast();
+    }
+
+    /**
+     * Reads the remaining chunks of the image if the last row has been read.
+     * The image data is validated to not contain more than the rows of the
+     * image.
+     */
+    private void finishIfLast() throws IOException {
+        if (y < info.height) {
+            return;
+        }
+        try {
+            // image data must end after the last row
+            final byte[] probe = new byte[1];
+            while (!info.inflater.finished()) {
+                if (info.inflate(probe, 0, 1) != 0) {
+                    throw new ImageDataException("too much image data in IDAT chunks");
+                }
+                if (!info.inflater.finished() && info.inflater.needsInput()) {
+                    if (reader.next() != IDAT) {
+                        throw new ImageDataException("compressed image data is incomplete");
+                    }
+                    info.update(IDAT, reader.data());
+                }
+            }
+            // read remaining chunks, to validate their order
+            int type;
+            while ((type = reader.next()) != IEND) {
+                info.update(type, reader.data());
+            }
+            if (reader.length() != 0) {
+                throw new ImageException("invalid IEND chunk");
+            }
+        }
+        catch (ImageException e) {
+            throw new IOException("could not read PNG image", e);
+        }
+        finally {
+            info.inflater.end();
+        }
+    }
+
+    /**
+     * Decompresses exactly {@code length} bytes of image data into
+     * {@code dest}, reading more IDAT chunks as needed.
+     */
+    private void inflate(byte[] dest, int offset, int length) throws IOException, ImageException {
+        for (int max = offset + length; offset < max; ) {
+            int len = info.inflate(dest, offset, max - offset);
+            if (len == 0) {
+                if (info.inflater.finished()) {
+                    throw new ImageDataException("not enough image data in IDAT chunks");
+                }
+                if (info.inflater.needsInput()) {
+                    if (reader.next() != IDAT) {
+                        throw new ImageDataException("not enough image data in IDAT chunks");
+                    }
+                    info.update(IDAT, reader.data());
+                }
+            }
+            offset += len;
+        }
+    }
+
+    /**
+     * Decompresses and reconstructs the next scanline into {@link #line}.
+     * The previous scanline is swapped into {@link #prev}.
+     */
+    private void nextLine() throws IOException {
+        if (y >= info.height) {
+            throw new NoSuchElementException("all rows have been read");
+        }
+        // swap scanlines, such that prev is the previous scanline
+        byte[] bytes = prev;
+        prev = line;
+        line = bytes;
+        PixelSetter setter = prevSetter;
+        prevSetter = lineSetter;
+        lineSetter = setter;
+        try {
+            inflate(filterType, 0, 1);
+            inflate(line, 0, nBytes);
+            info.filterMethod.reconstructLine(filterType[0] & 0xFF, line, 0, y == 0 ? null : prev, 0,
+                    nBytes, filterOffset);
+        }
+        catch (ImageException e) {
+            throw new IOException("could not read PNG image row {" + y + "}", e);
+        }
+        y++;
+    }
+}
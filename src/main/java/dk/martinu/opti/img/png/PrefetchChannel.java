@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Readable channel that reads a file sequentially from an asynchronous file
+ * channel, one block ahead of the bytes that are read from it. When a block
+ * is consumed, the read of the next block is started immediately, such that
+ * reading the file overlaps with processing the bytes that have already been
+ * read, e.g. inflating and unfiltering image data.
+ * <p>
+ * The first block is read when the channel is created, and
+ * {@link #prefetched()} can be used to wait for it without blocking.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
+final class PrefetchChannel implements ReadableByteChannel {
+
+    /**
+     * Number of bytes in each block.
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    private final AsynchronousFileChannel channel;
+    /**
+     * Block that bytes are read from, which is ready for reading.
+     */
+    private ByteBuffer current = ByteBuffer.allocate(BLOCK_SIZE).flip();
+    /**
+     * Block that the pending read stores bytes in.
+     */
+    private ByteBuffer next = ByteBuffer.allocate(BLOCK_SIZE);
+    /**
+     * The pending read of {@link #next}, which completes with the number of
+     * bytes read, or {@code -1} at the end of the file.
+     */
+    private CompletableFuture<Integer> pending;
+    /**
+     * File position of the first byte of {@link #next}.
+     */
+    private long position = 0L;
+    private boolean isEndOfFile = false;
+
+    /**
+     * Constructs a new channel that reads from {@code channel}, starting at
+     * position {@code 0}, and starts reading the first block.
+     *
+     * @param channel the channel to read from
+     */
+    PrefetchChannel(AsynchronousFileChannel channel) {
+        this.channel = channel;
+        prefetch();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Returns a future that completes when the pending block has been read.
+     */
+    CompletableFuture<Integer> prefetched() {
+        return pending;
+    }
+
+    @Override
+    public int read(ByteBuffer dest) throws IOException {
+        if (!current.hasRemaining()) {
+            if (isEndOfFile) {
+                return -1;
+            }
+            final int n;
+            try {
+                n = pending.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while reading file");
+            }
+            catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ioe ? ioe : new IOException(e.getCause());
+            }
+            if (n == -1) {
+                isEndOfFile = true;
+                return -1;
+            }
+            position += n;
+            final ByteBuffer block = current;
+            current = next.flip();
+            next    = block;
+            prefetch();
+        }
+        final int n = Math.min(current.remaining(), dest.remaining());
+        dest.put(current.slice(current.position(), n));
+        current.position(current.position() + n);
+        return n;
+    }
+
+    /**
+     * Starts reading the block at {@link #position} into {@link #next}.
+     */
+    private void prefetch() {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        next.clear();
+        channel.read(next, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer result, Void attachment) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                future.completeExceptionally(exc);
+            }
+        });
+        pending = future;
+    }
+}
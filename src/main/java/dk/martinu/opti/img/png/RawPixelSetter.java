@@ -0,0 +1,47 @@
+package dk.martinu.opti.img.png;
+
+/**
+ * Pixel setter that stores the sample bytes of each pixel as they are in the
+ * reconstructed image data, e.g. the big-endian 16-bit samples of an image
+ * with a bit depth of {@code 16}. Only images with a bit depth of at least
+ * {@code 8} are supported.
+ *
+ * @author Adam Martinu
+ * @since 1.0
+ */
+final class RawPixelSetter extends AbstractPixelSetter {
+
+    /**
+     * Number of sample bytes of each pixel.
+     */
+    final int pixelLength;
+
+    /**
+     * Constructs a new raw pixel setter.
+     *
+     * @param image       the image
+     * @param pixelLength the number of sample bytes of each pixel
+     */
+    RawPixelSetter(ReducedImage image, int pixelLength) {
+        super(image);
+        this.pixelLength = pixelLength;
+    }
+
+    @Override
+    public void expandRow(int y, byte[] dest, int index) {
+        System.arraycopy(samples, offset + y * stride, dest, index, width * pixelLength);
+    }
+
+    @Override
+    public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+        int k = offset + y * stride + x * pixelLength;
+        // contiguous pixels are copied at once
+        if (step == pixelLength) {
+            System.arraycopy(samples, k, dest, index, count * pixelLength);
+            return;
+        }
+        for (int max = k + count * pixelLength; k < max; k += pixelLength, index += step) {
+            System.arraycopy(samples, k, dest, index, pixelLength);
+        }
+    }
+}
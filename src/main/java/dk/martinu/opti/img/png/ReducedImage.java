@@ -28,17 +28,41 @@ class ReducedImage {
     final int width;
     final int height;
     final byte[] samples;
+    /**
+     * Index in {@link #samples} of the first sample byte.
+     */
+    final int offset;
+    /**
+     * Number of sample bytes in each scanline.
+     */
+    final int stride;
 
     /**
-     * Constructs a new reduced image.
+     * Constructs a new reduced image whose scanlines fill the samples array.
      *
      * @param width   the width of the image
      * @param height  the height of the image
      * @param samples byte array of samples
      */
     public ReducedImage(int width, int height, byte[] samples) {
+        this(width, height, samples, 0, height != 0 ? samples.length / height : 0);
+    }
+
+    /**
+     * Constructs a new reduced image whose scanlines are stored in a region
+     * of the samples array, e.g. image data that is reconstructed in place.
+     *
+     * @param width   the width of the image
+     * @param height  the height of the image
+     * @param samples byte array of samples
+     * @param offset  the index in {@code samples} of the first sample byte
+     * @param stride  the number of sample bytes in each scanline
+     */
+    public ReducedImage(int width, int height, byte[] samples, int offset, int stride) {
         this.width = width;
         this.height = height;
         this.samples = samples;
+        this.offset = offset;
+        this.stride = stride;
     }
 }
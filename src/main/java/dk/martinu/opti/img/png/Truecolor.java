@@ -7,6 +7,11 @@ import static dk.martinu.opti.img.png.PngInfo.BIT_DEPTH_8;
 
 public final class Truecolor implements ColorType {
 
+    /**
+     * Shared instance, returned by {@link ColorType#get(byte)}.
+     */
+    static final Truecolor INSTANCE = new Truecolor();
+
     public static final int COMPONENT_COUNT = 3;
 
     @Override
@@ -23,6 +28,11 @@ public final class Truecolor implements ColorType {
     public PixelSetter getPixelSetter(int bitDepth, ReducedImage image, byte[] palette,
             byte[] transparency, byte[] background) throws ImageDataException {
         validateBitDepth(bitDepth);
+        if (background == null) {
+            return bitDepth == BIT_DEPTH_8 ?
+                    new AlphaPixelSetter_8(image, transparency) :
+                    new AlphaPixelSetter_16(image, transparency);
+        }
         if (bitDepth == BIT_DEPTH_8) {
             if (transparency != null && background != null) {
                 return new PixelSetter_8_Alpha(image, transparency, background);
@@ -53,6 +63,102 @@ public final class Truecolor implements ColorType {
         }
     }
 
+    /**
+     * Pixel setter that stores an alpha sample after the color samples of
+     * each pixel, which is {@code 0} for the transparent color given by the
+     * tRNS chunk and otherwise {@code 255}.
+     */
+    private static final class AlphaPixelSetter_16 extends AbstractPixelSetter {
+
+        /**
+         * tRNS chunk data, or {@code null} if all pixels are opaque.
+         */
+        final byte[] trns;
+
+        AlphaPixelSetter_16(ReducedImage image, byte[] trns) {
+            super(image);
+            this.trns = trns;
+        }
+
+        @Override
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 4);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index]     = samples[k];
+            dest[index + 1] = samples[k + 2];
+            dest[index + 2] = samples[k + 4];
+            if (trns != null && samples[k] == trns[0] && samples[k + 1] == trns[1] &&
+                    samples[k + 2] == trns[2] && samples[k + 3] == trns[3] &&
+                    samples[k + 4] == trns[4] && samples[k + 5] == trns[5]) {
+                dest[index + 3] = 0;
+            }
+            else {
+                dest[index + 3] = (byte) 0xFF;
+            }
+        }
+    }
+
+    /**
+     * Pixel setter that stores an alpha sample after the color samples of
+     * each pixel, which is {@code 0} for the transparent color given by the
+     * tRNS chunk and otherwise {@code 255}.
+     */
+    private static final class AlphaPixelSetter_8 extends AbstractPixelSetter {
+
+        /**
+         * tRNS chunk data, or {@code null} if all pixels are opaque.
+         */
+        final byte[] trns;
+
+        AlphaPixelSetter_8(ReducedImage image, byte[] trns) {
+            super(image);
+            this.trns = trns;
+        }
+
+        @Override
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 4);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index]     = samples[k];
+            dest[index + 1] = samples[k + 1];
+            dest[index + 2] = samples[k + 2];
+            if (trns != null && samples[k] == trns[1] && samples[k + 1] == trns[3] && samples[k + 2] == trns[5]) {
+                dest[index + 3] = 0;
+            }
+            else {
+                dest[index + 3] = (byte) 0xFF;
+            }
+        }
+    }
+
     private static final class PixelSetter_16 extends AbstractPixelSetter {
 
         PixelSetter_16(ReducedImage image) {
@@ -60,11 +166,26 @@ public final class Truecolor implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            dest[index]     = samples[i];
-            dest[index + 1] = samples[i + 2];
-            dest[index + 2] = samples[i + 4];
-            i += COMPONENT_COUNT * 2;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index]     = samples[k];
+            dest[index + 1] = samples[k + 2];
+            dest[index + 2] = samples[k + 4];
         }
     }
 
@@ -80,14 +201,30 @@ public final class Truecolor implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
             // transfer samples if not transparent
-            if (samples[i] != trns[0] || samples[i + 1] != trns[1] ||
-                    samples[i + 2] != trns[2] || samples[i + 3] != trns[3] ||
-                    samples[i + 4] != trns[4] || samples[i + 5] != trns[5]) {
-                dest[index]     = samples[i];
-                dest[index + 1] = samples[i + 2];
-                dest[index + 2] = samples[i + 4];
+            if (samples[k] != trns[0] || samples[k + 1] != trns[1] ||
+                    samples[k + 2] != trns[2] || samples[k + 3] != trns[3] ||
+                    samples[k + 4] != trns[4] || samples[k + 5] != trns[5]) {
+                dest[index]     = samples[k];
+                dest[index + 1] = samples[k + 2];
+                dest[index + 2] = samples[k + 4];
             }
             // otherwise replace with background color
             else {
@@ -95,7 +232,6 @@ public final class Truecolor implements ColorType {
                 dest[index + 1] = bkgd[2];
                 dest[index + 2] = bkgd[4];
             }
-            i += COMPONENT_COUNT * 2;
         }
     }
 
@@ -106,11 +242,26 @@ public final class Truecolor implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            dest[index]     = samples[i];
-            dest[index + 1] = samples[i + 1];
-            dest[index + 2] = samples[i + 2];
-            i += COMPONENT_COUNT;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index]     = samples[k];
+            dest[index + 1] = samples[k + 1];
+            dest[index + 2] = samples[k + 2];
         }
     }
 
@@ -126,12 +277,28 @@ public final class Truecolor implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT, max = k + count * COMPONENT_COUNT; k < max;
+                    k += COMPONENT_COUNT, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
             // transfer samples if not transparent
-            if (samples[i] != trns[1] || samples[i + 1] != trns[3] || samples[i + 2] != trns[5]) {
-                dest[index]     = samples[i];
-                dest[index + 1] = samples[i + 1];
-                dest[index + 2] = samples[i + 2];
+            if (samples[k] != trns[1] || samples[k + 1] != trns[3] || samples[k + 2] != trns[5]) {
+                dest[index]     = samples[k];
+                dest[index + 1] = samples[k + 1];
+                dest[index + 2] = samples[k + 2];
             }
             // otherwise replace with background color
             else {
@@ -139,7 +306,6 @@ public final class Truecolor implements ColorType {
                 dest[index + 1] = bkgd[3];
                 dest[index + 2] = bkgd[5];
             }
-            i += COMPONENT_COUNT;
         }
     }
 }
@@ -2,13 +2,16 @@ package dk.martinu.opti.img.png;
 
 import dk.martinu.opti.img.spi.ImageDataException;
 
-import java.util.Objects;
-
 import static dk.martinu.opti.img.png.PngInfo.BIT_DEPTH_16;
 import static dk.martinu.opti.img.png.PngInfo.BIT_DEPTH_8;
 
 public final class TruecolorAlpha implements ColorType {
 
+    /**
+     * Shared instance, returned by {@link ColorType#get(byte)}.
+     */
+    static final TruecolorAlpha INSTANCE = new TruecolorAlpha();
+
     public static final int COMPONENT_COUNT = 4;
 
     @Override
@@ -25,7 +28,9 @@ public final class TruecolorAlpha implements ColorType {
     public PixelSetter getPixelSetter(int bitDepth, ReducedImage image, byte[] palette,
             byte[] transparency, byte[] background) throws ImageDataException {
         validateBitDepth(bitDepth);
-        Objects.requireNonNull(background, "background is null");
+        if (background == null) {
+            return bitDepth == BIT_DEPTH_8 ? new AlphaPixelSetter_8(image) : new AlphaPixelSetter_16(image);
+        }
         if (bitDepth == BIT_DEPTH_8) {
             return new PixelSetter_8(image, background);
         }
@@ -46,6 +51,72 @@ public final class TruecolorAlpha implements ColorType {
         }
     }
 
+    /**
+     * Pixel setter that stores the color and alpha samples of each pixel.
+     */
+    private static final class AlphaPixelSetter_16 extends AbstractPixelSetter {
+
+        AlphaPixelSetter_16(ReducedImage image) {
+            super(image);
+        }
+
+        @Override
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, COMPONENT_COUNT);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            dest[index]     = samples[k];
+            dest[index + 1] = samples[k + 2];
+            dest[index + 2] = samples[k + 4];
+            dest[index + 3] = samples[k + 6];
+        }
+    }
+
+    /**
+     * Pixel setter that stores the color and alpha samples of each pixel,
+     * which are equal to the sample bytes of the image.
+     */
+    private static final class AlphaPixelSetter_8 extends AbstractPixelSetter {
+
+        AlphaPixelSetter_8(ReducedImage image) {
+            super(image);
+        }
+
+        @Override
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, COMPONENT_COUNT);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            int k = offset + y * stride + x * COMPONENT_COUNT;
+            // contiguous pixels are copied as is
+            if (step == COMPONENT_COUNT) {
+                System.arraycopy(samples, k, dest, index, count * COMPONENT_COUNT);
+                return;
+            }
+            for (int max = k + count * COMPONENT_COUNT; k < max; k += COMPONENT_COUNT, index += step) {
+                dest[index]     = samples[k];
+                dest[index + 1] = samples[k + 1];
+                dest[index + 2] = samples[k + 2];
+                dest[index + 3] = samples[k + 3];
+            }
+        }
+    }
+
     private static final class PixelSetter_16 extends AbstractPixelSetter {
 
         final byte[] bkgd;
@@ -56,12 +127,28 @@ public final class TruecolorAlpha implements ColorType {
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            int alpha = samples[i + 6] & 0xFF;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            for (int k = offset + y * stride + x * COMPONENT_COUNT * 2, max = k + count * COMPONENT_COUNT * 2; k < max;
+                    k += COMPONENT_COUNT * 2, index += step) {
+                set(dest, index, k);
+            }
+        }
+
+        /**
+         * Stores the samples of the pixel whose first sample byte is at index
+         * {@code k} in {@code samples}.
+         */
+        private void set(byte[] dest, int index, int k) {
+            int alpha = samples[k + 6] & 0xFF;
             if (alpha == 0xFF) {
-                dest[index]     = samples[i];
-                dest[index + 1] = samples[i + 2];
-                dest[index + 2] = samples[i + 4];
+                dest[index]     = samples[k];
+                dest[index + 1] = samples[k + 2];
+                dest[index + 2] = samples[k + 4];
             }
             else if (alpha == 0) {
                 dest[index]     = bkgd[0];
@@ -69,48 +156,34 @@ public final class TruecolorAlpha implements ColorType {
                 dest[index + 2] = bkgd[4];
             }
             else {
-                // output = alpha * foreground + (1-alpha) * background
-                float alpha_fg = alpha / 255.0F;
-                float alpha_bg = 1.0F - alpha_fg;
-                dest[index]     = (byte) ((int) (alpha_fg * (samples[i] & 0xFF)) + (int) (alpha_bg * (bkgd[0] & 0xFF)));
-                dest[index + 1] = (byte) ((int) (alpha_fg * (samples[i + 2] & 0xFF)) + (int) (alpha_bg * (bkgd[2] & 0xFF)));
-                dest[index + 2] = (byte) ((int) (alpha_fg * (samples[i + 4] & 0xFF)) + (int) (alpha_bg * (bkgd[4] & 0xFF)));
+                dest[index]     = (byte) AlphaCompositor.composite(samples[k] & 0xFF, bkgd[0] & 0xFF, alpha);
+                dest[index + 1] = (byte) AlphaCompositor.composite(samples[k + 2] & 0xFF, bkgd[2] & 0xFF, alpha);
+                dest[index + 2] = (byte) AlphaCompositor.composite(samples[k + 4] & 0xFF, bkgd[4] & 0xFF, alpha);
             }
-            i += COMPONENT_COUNT * 2;
         }
     }
 
     private static final class PixelSetter_8 extends AbstractPixelSetter {
 
-        final byte[] bkgd;
+        /**
+         * The 8-bit background sample of each channel.
+         */
+        final int[] bg;
 
         PixelSetter_8(ReducedImage image, byte[] bkgd) {
             super(image);
-            this.bkgd = bkgd;
+            bg = new int[] {bkgd[1] & 0xFF, bkgd[3] & 0xFF, bkgd[5] & 0xFF};
         }
 
         @Override
-        public void setNext(byte[] dest, int index) {
-            int alpha = samples[i + 3] & 0xFF;
-            if (alpha == 0xFF) {
-                dest[index]     = samples[i];
-                dest[index + 1] = samples[i + 1];
-                dest[index + 2] = samples[i + 2];
-            }
-            else if (alpha == 0) {
-                dest[index]     = bkgd[1];
-                dest[index + 1] = bkgd[3];
-                dest[index + 2] = bkgd[5];
-            }
-            else {
-                // output = alpha * foreground + (1-alpha) * background
-                float alpha_fg = alpha / 255.0F;
-                float alpha_bg = 1.0F - alpha_fg;
-                dest[index]     = (byte) ((int) (alpha_fg * (samples[i] & 0xFF)) + (int) (alpha_bg * (bkgd[1] & 0xFF)));
-                dest[index + 1] = (byte) ((int) (alpha_fg * (samples[i + 1] & 0xFF)) + (int) (alpha_bg * (bkgd[3] & 0xFF)));
-                dest[index + 2] = (byte) ((int) (alpha_fg * (samples[i + 2] & 0xFF)) + (int) (alpha_bg * (bkgd[5] & 0xFF)));
-            }
-            i += COMPONENT_COUNT;
+        public void expandRow(int y, byte[] dest, int index) {
+            setRun(y, 0, width, dest, index, 3);
+        }
+
+        @Override
+        public void setRun(int y, int x, int count, byte[] dest, int index, int step) {
+            AlphaCompositor.getInstance().composite8(samples, offset + y * stride + x * COMPONENT_COUNT, count, 3, bg,
+                    dest, index, step);
         }
     }
 }
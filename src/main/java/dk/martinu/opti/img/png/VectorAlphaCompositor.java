@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import jdk.incubator.vector.*;
+
+import java.nio.ByteOrder;
+
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+
+/**
+ * Alpha compositor that composites runs of pixels with 8-bit samples with the
+ * Vector API, which is only used if the {@code jdk.incubator.vector} module
+ * is available at runtime.
+ * <p>
+ * The bytes of a vector of pixels are reinterpreted as lanes that each hold
+ * a single pixel, i.e. ints for truecolor with alpha and shorts for grayscale
+ * with alpha. Color and alpha samples are extracted with shifts, composited
+ * with the same integer arithmetic as
+ * {@link AlphaCompositor#composite(int, int, int)}, and the alpha samples are
+ * removed by a shuffle before the color samples are stored. Vectors of
+ * pixels that are all opaque or all transparent are not composited. Pixels
+ * that are not contiguous in the destination array, and pixels at the end of
+ * a run that do not fill a vector, are composited by
+ * {@link AlphaCompositor}.
+ *
+ * @author Adam Martinu
+ * @see AlphaCompositor#getInstance()
+ * @since 1.0
+ */
+final class VectorAlphaCompositor extends AlphaCompositor {
+
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORT_SPECIES =
+            VectorSpecies.of(short.class, INT_SPECIES.vectorShape());
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+            VectorSpecies.of(byte.class, INT_SPECIES.vectorShape());
+    /**
+     * Number of truecolor and grayscale pixels in each vector, respectively.
+     */
+    private static final int RGBA_LENGTH = INT_SPECIES.length();
+    private static final int GA_LENGTH = SHORT_SPECIES.length();
+    /**
+     * Shuffles that remove the alpha sample, i.e. the highest byte of each
+     * lane, from composited truecolor and grayscale pixels.
+     */
+    private static final VectorShuffle<Byte> RGB_SHUFFLE =
+            VectorShuffle.fromOp(BYTE_SPECIES, j -> j < RGBA_LENGTH * 3 ? j / 3 * 4 + j % 3 : 0);
+    private static final VectorShuffle<Byte> GRAY_SHUFFLE =
+            VectorShuffle.fromOp(BYTE_SPECIES, j -> j < GA_LENGTH ? j * 2 : 0);
+    /**
+     * Masks of the bytes of composited truecolor and grayscale pixels.
+     */
+    private static final VectorMask<Byte> RGB_MASK = BYTE_SPECIES.indexInRange(0, RGBA_LENGTH * 3);
+    private static final VectorMask<Byte> GRAY_MASK = BYTE_SPECIES.indexInRange(0, GA_LENGTH);
+
+    static {
+        // samples are extracted from lanes in little-endian order
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new UnsupportedOperationException("native byte order is not little-endian");
+        }
+    }
+
+    @Override
+    void composite8(byte[] samples, int k, int count, int channels, int[] bg, byte[] dest, int index, int step) {
+        if (step == channels) {
+            final int n;
+            if (channels == 3) {
+                n = compositeRgba(samples, k, count, bg, dest, index);
+            }
+            else {
+                n = compositeGrayAlpha(samples, k, count, bg[0], dest, index);
+            }
+            k += n * (channels + 1);
+            index += n * channels;
+            count -= n;
+        }
+        super.composite8(samples, k, count, channels, bg, dest, index, step);
+    }
+
+    /**
+     * Composites whole vectors of grayscale pixels with alpha and returns the
+     * number of pixels that were composited.
+     */
+    private int compositeGrayAlpha(byte[] samples, int k, int count, int bg, byte[] dest, int index) {
+        final int vectors = count / GA_LENGTH;
+        for (int v = 0; v < vectors; v++, k += GA_LENGTH * 2, index += GA_LENGTH) {
+            // lane = gray | alpha << 8; arithmetic wraps at 16 bits, but
+            // all intermediate values are less than 2^16
+            final ShortVector px = ByteVector.fromArray(BYTE_SPECIES, samples, k).reinterpretAsShorts();
+            final ShortVector alpha = px.lanewise(LSHR, 8);
+            final ShortVector out;
+            if (alpha.eq((short) 0xFF).allTrue()) {
+                out = px;
+            }
+            else if (alpha.eq((short) 0).allTrue()) {
+                out = ShortVector.broadcast(SHORT_SPECIES, (short) bg);
+            }
+            else {
+                final ShortVector fg = px.and((short) 0xFF);
+                final ShortVector t = fg.mul(alpha)
+                        .add(alpha.neg().add((short) 0xFF).mul((short) bg))
+                        .add((short) 128);
+                out = t.add(t.lanewise(LSHR, 8)).lanewise(LSHR, 8);
+            }
+            final ByteVector bytes = out.reinterpretAsBytes().rearrange(GRAY_SHUFFLE);
+            // the bytes after the composited samples are overwritten by the
+            // next vector, or masked if this is the last vector
+            if (v < vectors - 1) {
+                bytes.intoArray(dest, index);
+            }
+            else {
+                bytes.intoArray(dest, index, GRAY_MASK);
+            }
+        }
+        return vectors * GA_LENGTH;
+    }
+
+    /**
+     * Composites whole vectors of truecolor pixels with alpha and returns the
+     * number of pixels that were composited.
+     */
+    private int compositeRgba(byte[] samples, int k, int count, int[] bg, byte[] dest, int index) {
+        final int vectors = count / RGBA_LENGTH;
+        for (int v = 0; v < vectors; v++, k += RGBA_LENGTH * 4, index += RGBA_LENGTH * 3) {
+            // lane = red | green << 8 | blue << 16 | alpha << 24
+            final IntVector px = ByteVector.fromArray(BYTE_SPECIES, samples, k).reinterpretAsInts();
+            final IntVector alpha = px.lanewise(LSHR, 24);
+            final IntVector out;
+            if (alpha.eq(0xFF).allTrue()) {
+                out = px;
+            }
+            else if (alpha.eq(0).allTrue()) {
+                out = IntVector.broadcast(INT_SPECIES, bg[0] | bg[1] << 8 | bg[2] << 16);
+            }
+            else {
+                final IntVector inverse = alpha.neg().add(0xFF);
+                final IntVector r = composite(px.and(0xFF), alpha, inverse, bg[0]);
+                final IntVector g = composite(px.lanewise(LSHR, 8).and(0xFF), alpha, inverse, bg[1]);
+                final IntVector b = composite(px.lanewise(LSHR, 16).and(0xFF), alpha, inverse, bg[2]);
+                out = r.or(g.lanewise(LSHL, 8)).or(b.lanewise(LSHL, 16));
+            }
+            final ByteVector bytes = out.reinterpretAsBytes().rearrange(RGB_SHUFFLE);
+            // the bytes after the composited samples are overwritten by the
+            // next vector, or masked if this is the last vector
+            if (v < vectors - 1) {
+                bytes.intoArray(dest, index);
+            }
+            else {
+                bytes.intoArray(dest, index, RGB_MASK);
+            }
+        }
+        return vectors * RGBA_LENGTH;
+    }
+
+    /**
+     * Returns the composite of foreground samples and a background sample.
+     *
+     * @see AlphaCompositor#composite(int, int, int)
+     */
+    private static IntVector composite(IntVector fg, IntVector alpha, IntVector inverse, int bg) {
+        final IntVector t = fg.mul(alpha).add(inverse.mul(bg)).add(128);
+        return t.add(t.lanewise(LSHR, 8)).lanewise(LSHR, 8);
+    }
+}
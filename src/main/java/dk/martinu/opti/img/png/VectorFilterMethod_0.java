@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package dk.martinu.opti.img.png;
+
+import dk.martinu.opti.img.spi.ImageDataException;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of filter method 0 that reconstructs scanlines with the
+ * Vector API, which is only used if the {@code jdk.incubator.vector} module
+ * is available at runtime.
+ * <p>
+ * The Up filter is reconstructed by adding whole vectors of the previous
+ * scanline. The Sub filter, and the Paeth filter of the first scanline, which
+ * is equivalent to Sub, are reconstructed as a prefix sum over the pixels of
+ * each vector. The Average and Paeth filters of other scanlines depend on the
+ * previous reconstructed pixel in a way that cannot be computed as a prefix
+ * sum, and are reconstructed by {@link FilterMethod_0}.
+ *
+ * @author Adam Martinu
+ * @see FilterMethod_0#getInstance()
+ * @since 1.0
+ */
+final class VectorFilterMethod_0 extends FilterMethod_0 {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    /**
+     * Number of bytes in each vector.
+     */
+    private static final int LENGTH = SPECIES.length();
+    /**
+     * Shuffles that broadcast the last pixel of a vector to every pixel of
+     * the next vector, for each filter offset up to {@code 8}, or
+     * {@code null} if the filter offset is not less than {@link #LENGTH}.
+     */
+    @SuppressWarnings("unchecked")
+    private static final VectorShuffle<Byte>[] CARRY = (VectorShuffle<Byte>[]) new VectorShuffle<?>[9];
+
+    static {
+        for (int n = 1; n < CARRY.length && n < LENGTH; n++) {
+            final int filterOffset = n;
+            CARRY[n] = VectorShuffle.fromOp(SPECIES, j -> LENGTH - filterOffset + j % filterOffset);
+        }
+    }
+
+    @Override
+    public void reconstructLine(int filterType, byte[] line, int offset, byte[] prev, int prevOffset, int nBytes,
+            int filterOffset) throws ImageDataException {
+        if (filterType == TYPE_UP && prev != null) {
+            reconstructUp(line, offset, prev, prevOffset, nBytes);
+        }
+        else if ((filterType == TYPE_SUB || filterType == TYPE_PAETH && prev == null)
+                && filterOffset < CARRY.length && CARRY[filterOffset] != null) {
+            reconstructSub(line, offset, nBytes, filterOffset);
+        }
+        else {
+            super.reconstructLine(filterType, line, offset, prev, prevOffset, nBytes, filterOffset);
+        }
+    }
+
+    /**
+     * Reconstructs a scanline filtered with the Sub filter. Each vector is
+     * summed in {@code log2(LENGTH / filterOffset)} steps, where the vector
+     * is shifted by an increasing number of pixels, and the last pixel of the
+     * previous vector is added to every pixel. The first pixel of the
+     * scanline has no byte 'a', so the first vector has no carry.
+     */
+    private void reconstructSub(byte[] line, int offset, int nBytes, int filterOffset) {
+        final VectorShuffle<Byte> carryShuffle = CARRY[filterOffset];
+        final int max = offset + nBytes;
+        final int bound = offset + SPECIES.loopBound(nBytes);
+        ByteVector carry = ByteVector.zero(SPECIES);
+        int k = offset;
+        for (; k < bound; k += LENGTH) {
+            ByteVector v = ByteVector.fromArray(SPECIES, line, k);
+            for (int shift = filterOffset; shift < LENGTH; shift <<= 1) {
+                v = v.add(v.unslice(shift));
+            }
+            v = v.add(carry);
+            v.intoArray(line, k);
+            carry = v.rearrange(carryShuffle);
+        }
+        // remaining bytes of the scanline
+        for (k = Math.max(k, offset + filterOffset); k < max; k++) {
+            line[k] = (byte) ((line[k] & 0xFF) + (line[k - filterOffset] & 0xFF));
+        }
+    }
+
+    /**
+     * Reconstructs a scanline filtered with the Up filter, which adds the
+     * bytes of the previous scanline.
+     */
+    private void reconstructUp(byte[] line, int offset, byte[] prev, int prevOffset, int nBytes) {
+        final int max = offset + nBytes;
+        final int bound = offset + SPECIES.loopBound(nBytes);
+        int k = offset, m = prevOffset;
+        for (; k < bound; k += LENGTH, m += LENGTH) {
+            ByteVector.fromArray(SPECIES, line, k)
+                    .add(ByteVector.fromArray(SPECIES, prev, m))
+                    .intoArray(line, k);
+        }
+        // remaining bytes of the scanline
+        for (; k < max; k++, m++) {
+            line[k] = (byte) ((line[k] & 0xFF) + (prev[m] & 0xFF));
+        }
+    }
+}
@@ -1,13 +1,43 @@
 package dk.martinu.opti.img.spi;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
-public record Chunk(int type, byte[] data, int crc) {
+/**
+ * A chunk read by a {@link ChunkReader}. The chunk data is a buffer whose
+ * remaining bytes are the chunk data bytes; it is either a wrapped array or
+ * a view of the buffer the chunk was read from, so its contents are not
+ * copied.
+ */
+public record Chunk(int type, ByteBuffer data, int crc) {
 
     private static final int ancillaryBit = 0x20 << 24;
     private static final int privateBit = 0x20 << 16;
     private static final int reservedBit = 0x20 << 8;
 
+    /**
+     * Returns {@code true} if the specified chunk type is critical, otherwise
+     * {@code false} if it is ancillary.
+     */
+    public static boolean isCritical(int type) {
+        return (type & ancillaryBit) == 0;
+    }
+
+    /**
+     * Returns {@code true} if the specified chunk type is private.
+     */
+    public static boolean isPrivate(int type) {
+        return (type & privateBit) != 0;
+    }
+
+    /**
+     * Returns {@code true} if the reserved bit of the specified chunk type is
+     * set.
+     */
+    public static boolean isReserved(int type) {
+        return (type & reservedBit) != 0;
+    }
+
     public static String typeToString(int type) {
         return String.copyValueOf(new char[] {
                 //@fmt:off
@@ -19,21 +49,37 @@ public record Chunk(int type, byte[] data, int crc) {
         });
     }
 
-    public Chunk(int type, byte[] data, int crc) {
+    public Chunk(int type, ByteBuffer data, int crc) {
         this.type = type;
         this.data = Objects.requireNonNull(data, "data is null");
         this.crc = crc;
     }
 
+    /**
+     * Returns a new array containing a copy of the chunk data bytes.
+     */
+    public byte[] getBytes() {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(data.position(), bytes);
+        return bytes;
+    }
+
     public boolean isCritical() {
-        return (type & ancillaryBit) == 0;
+        return isCritical(type);
     }
 
     public boolean isPrivate() {
-        return (type & privateBit) != 0;
+        return isPrivate(type);
     }
 
     public boolean isReserved() {
-        return (type & reservedBit) != 0;
+        return isReserved(type);
+    }
+
+    /**
+     * Returns the number of chunk data bytes.
+     */
+    public int length() {
+        return data.remaining();
     }
 }
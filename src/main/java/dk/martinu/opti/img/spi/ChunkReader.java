@@ -3,11 +3,34 @@ package dk.martinu.opti.img.spi;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.IntPredicate;
 import java.util.zip.CRC32;
 
+/**
+ * Reads chunks from a channel or a buffer. Chunks are read either as
+ * {@link Chunk} objects with {@link #getChunk()}, or without allocating with
+ * the cursor methods, {@link #next()}, {@link #type()}, {@link #length()},
+ * {@link #data()} and {@link #crc()}.
+ */
 public class ChunkReader {
 
+    /**
+     * Minimum capacity of the data array in channel mode, which is the size
+     * of IDAT chunks written by most encoders.
+     */
+    private static final int DEFAULT_CAPACITY = 8192;
+    /**
+     * Capacity of the buffer that bytes are read into in channel mode.
+     */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    /**
+     * Type of the last chunk, after which no bytes are read from channels.
+     */
+    private static final int IEND = 0x49454E44;
+
     private static boolean isTypeValid(int type) {
         for (int i = 0; i < 4; i++, type >>>= 8) {
             int b = type & 0xFF;
@@ -17,54 +40,414 @@ public class ChunkReader {
         }
         return true;
     }
+    /**
+     * The channel to read chunks from, or {@code null} if chunks are read
+     * from {@link #buffer}.
+     */
     protected final ReadableByteChannel input;
+    /**
+     * The buffer to read chunks from, or {@code null} if chunks are read from
+     * {@link #input}. Chunks are read from the buffer's position, which is
+     * advanced past each chunk as it is read.
+     */
+    protected final ByteBuffer buffer;
+    /**
+     * Buffer of bytes read from {@link #input}, which is ready for reading.
+     * Chunk lengths, types and CRC values are read from the buffer, and it is
+     * refilled with as many bytes as possible, such that chunks are read with
+     * few calls to the channel.
+     *
+     * @see #fill(int, int)
+     */
+    private final ByteBuffer readBuffer;
+    /**
+     * Used to compute the CRC value of each chunk.
+     */
+    private final CRC32 crc32 = new CRC32();
+    /**
+     * Data of the current chunk read from {@link #input}, which grows to the
+     * largest chunk.
+     */
+    private byte[] dataArray = new byte[0];
+    private ByteBuffer dataBuffer = ByteBuffer.wrap(dataArray);
+    /**
+     * Read-only view of the data of the current chunk, returned by
+     * {@link #data()}.
+     */
+    private ByteBuffer view;
+    /**
+     * Filter of chunk types whose data is skipped, or {@code null}.
+     */
+    private IntPredicate skipFilter = null;
+    /**
+     * Policy for verifying the CRC values of chunks.
+     */
+    private CrcPolicy crcPolicy = CrcPolicy.ALL;
+    private boolean isSkipped = false;
+    private int type;
+    private int length;
+    private int crc;
 
+    /**
+     * Creates a new chunk reader that reads chunks from the specified channel,
+     * starting at its current position. The channel must be in blocking mode,
+     * and it is not closed by this reader. Bytes are read in blocks of up to
+     * 64 KiB, and partial reads are repeated. If the channel is not seekable,
+     * no bytes are read past the current chunk. If it is seekable, bytes are
+     * read ahead, and its position is moved back to the end of the last chunk
+     * when it is read.
+     *
+     * @param input the channel to read chunks from
+     * @throws NullPointerException if {@code input} is {@code null}
+     */
     public ChunkReader(ReadableByteChannel input) {
         this.input = Objects.requireNonNull(input, "input is null");
+        buffer     = null;
+        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE).flip();
+        view       = dataBuffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Creates a new chunk reader that reads chunks directly from the remaining
+     * bytes of the specified buffer, e.g. a file mapped into memory. The data
+     * of chunks returned by this reader are views of {@code buffer} and are
+     * not copied.
+     *
+     * @param buffer the buffer to read chunks from
+     * @throws NullPointerException if {@code buffer} is {@code null}
+     */
+    public ChunkReader(ByteBuffer buffer) {
+        input       = null;
+        this.buffer = Objects.requireNonNull(buffer, "buffer is null").slice();
+        readBuffer  = null;
+        view        = this.buffer.asReadOnlyBuffer().limit(0);
     }
 
+    /**
+     * Reads the next chunk and returns a new chunk object containing it. In
+     * channel mode the chunk data is copied into a new array, and in buffer
+     * mode it is a view of the buffer. This is convenient for chunks that are
+     * kept, but allocates for every chunk; use {@link #next()} to read chunks
+     * without allocating.
+     *
+     * @return the next chunk
+     * @throws IOException        if the chunk is incomplete or its CRC value
+     *                            is invalid
+     * @throws ImageDataException if the chunk type is invalid
+     */
     public Chunk getChunk() throws IOException, ImageDataException {
-        // reusable int buffer
-        final ByteBuffer bInt = ByteBuffer.allocate(4);
-        // used to compute CRC value of chunk
-        final CRC32 crc32 = new CRC32();
+        final int type = next();
+        final ByteBuffer data;
+        if (buffer != null) {
+            data = buffer.slice(buffer.position() - 4 - length, view.remaining());
+        }
+        else {
+            data = ByteBuffer.wrap(Arrays.copyOf(dataArray, view.remaining()));
+        }
+        return new Chunk(type, data, crc);
+    }
+
+    /**
+     * Returns the CRC value of the current chunk.
+     */
+    public int crc() {
+        return crc;
+    }
+
+    /**
+     * Returns a read-only view of the data bytes of the current chunk, from
+     * its position to its limit, which is empty if the data was skipped. The
+     * view is reused, and its contents are only valid until the next chunk is
+     * read; it must be copied if it is needed after that.
+     * <p>
+     * In buffer mode the view spans the whole buffer, and its position is the
+     * index of the chunk data in the buffer, which is not {@code 0}. In
+     * channel mode its position is {@code 0}. The data must therefore be read
+     * relative to the position of the view, e.g. with relative get methods or
+     * with {@link ByteBuffer#slice()}, and not with absolute indices from
+     * {@code 0}.
+     */
+    public ByteBuffer data() {
+        return view;
+    }
+
+    /**
+     * Returns the number of data bytes of the current chunk.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Reads the next chunk and returns its type. The type, length, data and
+     * CRC value of the chunk are then available from this reader until the
+     * next chunk is read. Buffers and CRC state are reused between chunks, so
+     * reading a chunk does not allocate unless its data is larger than the
+     * data of all previous chunks in channel mode.
+     *
+     * @return the type of the chunk
+     * @throws IOException        if the chunk is incomplete or its CRC value
+     *                            is invalid
+     * @throws ImageDataException if the chunk type is invalid
+     * @see #data()
+     */
+    public int next() throws IOException, ImageDataException {
+        if (buffer != null) {
+            return nextFromBuffer();
+        }
 
         /* LENGTH */
-        if (input.read(bInt.clear()) != 4) {
+        final int available = fill(8, 0);
+        if (available < 4) {
             throw new IOException("missing chunk length");
         }
-        int len = bInt.flip().getInt();
+        final int len = readBuffer.getInt();
         if (len < 0) {
             throw new IOException("invalid chunk length");
         }
 
         /* TYPE */
-        if (input.read(bInt.clear()) != 4) {
+        if (available < 8) {
             throw new IOException("missing chunk type");
         }
-        int type = bInt.flip().getInt();
+        final int type = readBuffer.getInt();
         if (!isTypeValid(type)) {
             throw new ImageDataException("chunk type is invalid {" + Chunk.typeToString(type) + "}");
         }
-        crc32.update(bInt.flip());
 
         /* DATA */
-        byte[] data = new byte[len];
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        if (input.read(buffer) != len) {
+        isSkipped = skipFilter != null && skipFilter.test(type) && input instanceof SeekableByteChannel;
+        final boolean isVerified = !isSkipped && crcPolicy.isVerified(type);
+        if (isSkipped) {
+            // move past the data without reading it
+            if (len <= readBuffer.remaining()) {
+                readBuffer.position(readBuffer.position() + len);
+            }
+            else {
+                final SeekableByteChannel channel = (SeekableByteChannel) input;
+                channel.position(channel.position() + len - readBuffer.remaining());
+                readBuffer.position(readBuffer.limit());
+            }
+            view.clear().limit(0);
+        }
+        else {
+            if (isVerified) {
+                // CRC is computed over both type and data bytes
+                crc32.reset();
+                crc32.update(readBuffer.array(), readBuffer.position() - 4, 4);
+            }
+            if (len > dataArray.length) {
+                dataArray  = new byte[Math.max(len, DEFAULT_CAPACITY)];
+                dataBuffer = ByteBuffer.wrap(dataArray);
+                view       = dataBuffer.asReadOnlyBuffer();
+            }
+            // the CRC value is read together with the data
+            if (!readFully(dataBuffer.clear().limit(len), 4)) {
+                throw new IOException("missing chunk data");
+            }
+            if (isVerified) {
+                crc32.update(dataArray, 0, len);
+            }
+            view.clear().limit(len);
+        }
+
+        /* CRC */
+        if (fill(4, 0) < 4) {
+            throw new IOException("missing chunk CRC");
+        }
+        final int crc = readBuffer.getInt();
+        if (isVerified && crc != (int) crc32.getValue()) {
+            throw new IOException("invalid CRC value for chunk {" + Chunk.typeToString(type) + "}, data is corrupt");
+        }
+
+        // bytes read past the last chunk are returned to seekable channels
+        if (type == IEND && readBuffer.hasRemaining() && input instanceof SeekableByteChannel channel) {
+            channel.position(channel.position() - readBuffer.remaining());
+            readBuffer.position(readBuffer.limit());
+        }
+
+        this.type   = type;
+        this.length = len;
+        this.crc    = crc;
+        return type;
+    }
+
+    /**
+     * Returns {@code true} if the data of the current chunk was skipped,
+     * otherwise {@code false}.
+     *
+     * @see #setSkipFilter(IntPredicate)
+     */
+    public boolean isSkipped() {
+        return isSkipped;
+    }
+
+    /**
+     * Sets the policy for verifying the CRC values of chunks. The default
+     * policy is {@link CrcPolicy#ALL}. The CRC values of chunks that are not
+     * verified are not computed.
+     *
+     * @param policy the CRC policy
+     */
+    public void setCrcPolicy(CrcPolicy policy) {
+        crcPolicy = Objects.requireNonNull(policy, "policy is null");
+    }
+
+    /**
+     * Sets the filter of chunk types whose data is skipped, or {@code null}
+     * if the data of all chunks is read. Skipped chunks have no data, and
+     * their CRC value is not verified, but {@link #length()} still returns
+     * the number of data bytes of the chunk. The data is skipped by moving
+     * the position of the input, which requires the input to be a buffer or
+     * a {@link SeekableByteChannel}; chunks are read normally from other
+     * channels.
+     *
+     * @param filter the filter of chunk types to skip, or {@code null}
+     */
+    public void setSkipFilter(IntPredicate filter) {
+        skipFilter = filter;
+    }
+
+    /**
+     * Returns the type of the current chunk.
+     */
+    public int type() {
+        return type;
+    }
+
+    /**
+     * Reads bytes from {@link #input} into the remaining space of
+     * {@code dest}. Channels such as sockets and pipes can return fewer bytes
+     * than requested, so reads are repeated until {@code dest} is full or the
+     * end of the stream is reached.
+     *
+     * @param dest the buffer to read bytes into
+     * @return {@code true} if {@code dest} was filled, otherwise
+     * {@code false} if the end of the stream was reached first
+     */
+    protected boolean readFully(ByteBuffer dest) throws IOException {
+        return readFully(dest, 0);
+    }
+
+    /**
+     * Fills {@link #readBuffer} from {@link #input} until at least
+     * {@code required} bytes are remaining, or the end of the stream is
+     * reached, and returns the number of remaining bytes. Seekable channels
+     * are read as far ahead as the buffer allows. Other channels are read at
+     * most {@code lookahead} bytes past the required bytes, which must be
+     * bytes of the current chunk, such that no bytes are read past the chunk.
+     *
+     * @param required  the number of bytes required, at most the capacity
+     *                  of the buffer
+     * @param lookahead the number of bytes that can be read ahead
+     * @return the number of remaining bytes in the buffer
+     */
+    private int fill(int required, int lookahead) throws IOException {
+        if (readBuffer.remaining() < required) {
+            readBuffer.compact();
+            if (!(input instanceof SeekableByteChannel)) {
+                readBuffer.limit(Math.min(readBuffer.capacity(), required + lookahead));
+            }
+            while (readBuffer.position() < required) {
+                if (input.read(readBuffer) == -1) {
+                    break;
+                }
+            }
+            readBuffer.flip();
+        }
+        return readBuffer.remaining();
+    }
+
+    /**
+     * Reads bytes into the remaining space of {@code dest}, first from
+     * {@link #readBuffer} and then from {@link #input}. Large reads bypass
+     * the buffer.
+     *
+     * @param dest      the buffer to read bytes into
+     * @param lookahead the number of bytes after {@code dest} that can be
+     *                  read ahead
+     * @return {@code true} if {@code dest} was filled, otherwise
+     * {@code false} if the end of the stream was reached first
+     * @see #fill(int, int)
+     */
+    private boolean readFully(ByteBuffer dest, int lookahead) throws IOException {
+        transfer(dest);
+        if (dest.remaining() > readBuffer.capacity() / 2) {
+            while (dest.hasRemaining()) {
+                if (input.read(dest) == -1) {
+                    return false;
+                }
+            }
+        }
+        else if (dest.hasRemaining()) {
+            fill(dest.remaining(), lookahead);
+            transfer(dest);
+        }
+        return !dest.hasRemaining();
+    }
+
+    /**
+     * Copies as many bytes as possible from {@link #readBuffer} into
+     * {@code dest}.
+     */
+    private void transfer(ByteBuffer dest) {
+        final int n = Math.min(dest.remaining(), readBuffer.remaining());
+        dest.put(dest.position(), readBuffer, readBuffer.position(), n);
+        dest.position(dest.position() + n);
+        readBuffer.position(readBuffer.position() + n);
+    }
+
+    private int nextFromBuffer() throws IOException, ImageDataException {
+        /* LENGTH */
+        if (buffer.remaining() < 4) {
+            throw new IOException("missing chunk length");
+        }
+        final int len = buffer.getInt();
+        if (len < 0) {
+            throw new IOException("invalid chunk length");
+        }
+
+        /* TYPE */
+        if (buffer.remaining() < 4) {
+            throw new IOException("missing chunk type");
+        }
+        final int type = buffer.getInt();
+        if (!isTypeValid(type)) {
+            throw new ImageDataException("chunk type is invalid {" + Chunk.typeToString(type) + "}");
+        }
+
+        /* DATA */
+        if (buffer.remaining() < len) {
             throw new IOException("missing chunk data");
         }
-        crc32.update(buffer.flip());
+        final int offset = buffer.position();
+        isSkipped = skipFilter != null && skipFilter.test(type);
+        if (isSkipped) {
+            view.limit(offset).position(offset);
+        }
+        else if (crcPolicy.isVerified(type)) {
+            // CRC is computed over both type and data bytes
+            crc32.reset();
+            crc32.update(view.limit(offset + len).position(offset - 4));
+            view.position(offset);
+        }
+        else {
+            view.limit(offset + len).position(offset);
+        }
+        buffer.position(offset + len);
 
         /* CRC */
-        if (input.read(bInt.clear()) != 4) {
+        if (buffer.remaining() < 4) {
             throw new IOException("missing chunk CRC");
         }
-        int crc = bInt.flip().getInt();
-        if (crc != (int) crc32.getValue()) {
+        final int crc = buffer.getInt();
+        if (!isSkipped && crcPolicy.isVerified(type) && crc != (int) crc32.getValue()) {
             throw new IOException("invalid CRC value for chunk {" + Chunk.typeToString(type) + "}, data is corrupt");
         }
 
-        return new Chunk(type, data, crc);
+        this.type   = type;
+        this.length = len;
+        this.crc    = crc;
+        return type;
     }
 }
@@ -0,0 +1,40 @@
+package dk.martinu.opti.img.spi;
+
+/**
+ * Policy for verifying the CRC values of chunks read by a
+ * {@link ChunkReader}. Skipping verification is only safe for trusted input
+ * that has already been validated, e.g. images that were checked when they
+ * were stored.
+ */
+public enum CrcPolicy {
+
+    /**
+     * The CRC values of all chunks are verified, except chunks whose data is
+     * skipped by the reader.
+     *
+     * @see ChunkReader#setSkipFilter(java.util.function.IntPredicate)
+     */
+    ALL,
+    /**
+     * Only the CRC values of critical chunks are verified.
+     */
+    CRITICAL,
+    /**
+     * No CRC values are verified.
+     */
+    NONE;
+
+    /**
+     * Returns {@code true} if the CRC value of a chunk of the specified type
+     * is verified by this policy, otherwise {@code false}.
+     *
+     * @param type the chunk type
+     */
+    public boolean isVerified(int type) {
+        return switch (this) {
+            case ALL -> true;
+            case CRITICAL -> Chunk.isCritical(type);
+            case NONE -> false;
+        };
+    }
+}
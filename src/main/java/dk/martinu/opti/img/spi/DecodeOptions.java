@@ -0,0 +1,234 @@
+package dk.martinu.opti.img.spi;
+
+import java.util.Objects;
+
+/**
+ * Immutable options for decoding an image with an {@link ImageDecoder}.
+ * Options are created from {@link #DEFAULT} with the {@code with} methods,
+ * each of which returns a new instance, e.g.
+ * <pre>
+ *     DecodeOptions options = DecodeOptions.DEFAULT.withMaxSize(256, 256);
+ * </pre>
+ */
+public final class DecodeOptions {
+
+    /**
+     * Default options, which decode images in full resolution with 8-bit
+     * samples, verify all checksums and composite alpha against the
+     * background color.
+     */
+    public static final DecodeOptions DEFAULT = new DecodeOptions(0, 0, false, CrcPolicy.ALL, true, false, false);
+
+    /**
+     * Maximum width and height of decoded images, or {@code 0} if images are
+     * decoded in full resolution.
+     */
+    private final int maxWidth, maxHeight;
+    private final boolean areaAveraging;
+    private final CrcPolicy crcPolicy;
+    private final boolean adler32Check;
+    private final boolean alphaPreserved;
+    private final boolean fullDepth;
+
+    private DecodeOptions(int maxWidth, int maxHeight, boolean areaAveraging, CrcPolicy crcPolicy,
+            boolean adler32Check, boolean alphaPreserved, boolean fullDepth) {
+        this.maxWidth       = maxWidth;
+        this.maxHeight      = maxHeight;
+        this.areaAveraging  = areaAveraging;
+        this.crcPolicy      = crcPolicy;
+        this.adler32Check   = adler32Check;
+        this.alphaPreserved = alphaPreserved;
+        this.fullDepth      = fullDepth;
+    }
+
+    /**
+     * Returns the policy for verifying the CRC values of chunks.
+     */
+    public CrcPolicy getCrcPolicy() {
+        return crcPolicy;
+    }
+
+    /**
+     * Returns the maximum height of decoded images, or {@code 0} if images
+     * are decoded in full resolution.
+     */
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Returns the maximum width of decoded images, or {@code 0} if images are
+     * decoded in full resolution.
+     */
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * Returns the smallest integer factor that an image of the specified size
+     * must be reduced by to fit within the maximum size of these options, or
+     * {@code 1} if the image is not reduced. An image reduced by a factor
+     * {@code n} has a size of {@code ceil(width / n) x ceil(height / n)}.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the reduction factor
+     */
+    public int getScaleFactor(int width, int height) {
+        if (maxWidth == 0) {
+            return 1;
+        }
+        final int factorX = (width + maxWidth - 1) / maxWidth;
+        final int factorY = (height + maxHeight - 1) / maxHeight;
+        return Math.max(1, Math.max(factorX, factorY));
+    }
+
+    /**
+     * Returns {@code true} if the Adler-32 checksum of zlib compressed image
+     * data is verified, otherwise {@code false}.
+     */
+    public boolean isAdler32Check() {
+        return adler32Check;
+    }
+
+    /**
+     * Returns {@code true} if decoded images store the alpha samples of
+     * images, otherwise {@code false} if alpha is composited against the
+     * background color.
+     */
+    public boolean isAlphaPreserved() {
+        return alphaPreserved;
+    }
+
+    /**
+     * Returns {@code true} if images with 16-bit samples are decoded with
+     * the full precision of their samples, otherwise {@code false} if samples
+     * are truncated to 8 bits.
+     */
+    public boolean isFullDepth() {
+        return fullDepth;
+    }
+
+    /**
+     * Returns {@code true} if reduced images are computed by averaging the
+     * pixels of the area that each pixel is reduced from, otherwise
+     * {@code false} if the top-left pixel of each area is used.
+     */
+    public boolean isAreaAveraging() {
+        return areaAveraging;
+    }
+
+    /**
+     * Returns new options that use area averaging when reducing images. Area
+     * averaging produces smoother images, but requires all pixels of an image
+     * to be decoded. Decoders can ignore this option if their format stores
+     * reduced images directly, e.g. interlaced PNG images.
+     *
+     * @param areaAveraging {@code true} if area averaging is used
+     * @return new options
+     * @see #isAreaAveraging()
+     */
+    public DecodeOptions withAreaAveraging(boolean areaAveraging) {
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options that verify the Adler-32 checksum of zlib
+     * compressed image data if {@code adler32Check} is {@code true}, which is
+     * the default. Like the CRC values of chunks, the checksum only needs to
+     * be verified once for trusted input.
+     *
+     * @param adler32Check {@code true} if the checksum is verified
+     * @return new options
+     * @see #withCrcPolicy(CrcPolicy)
+     */
+    public DecodeOptions withAdler32Check(boolean adler32Check) {
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options with the specified policy for verifying the CRC
+     * values of chunks. The default policy is {@link CrcPolicy#ALL}.
+     *
+     * @param crcPolicy the CRC policy
+     * @return new options
+     */
+    public DecodeOptions withCrcPolicy(CrcPolicy crcPolicy) {
+        Objects.requireNonNull(crcPolicy, "crcPolicy is null");
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options that decode images with 16-bit samples to a
+     * {@link dk.martinu.opti.img.ShortImage} with the full precision of their
+     * samples if {@code fullDepth} is {@code true}. Otherwise, which is the
+     * default, only the 8 most significant bits of each sample are decoded.
+     * Images with a smaller bit depth, and images that are reduced to fit
+     * within a maximum size, are always decoded with 8-bit samples.
+     *
+     * @param fullDepth {@code true} if 16-bit samples are decoded with full
+     *                  precision
+     * @return new options
+     * @see #isFullDepth()
+     */
+    public DecodeOptions withFullDepth(boolean fullDepth) {
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options that decode images at a reduced resolution, such
+     * that they are no larger than the specified size. Images are reduced by
+     * an integer factor, which preserves their aspect ratio, so a decoded
+     * image can be smaller than the maximum size. Images that already fit are
+     * decoded in full resolution.
+     *
+     * @param maxWidth  the maximum width of decoded images
+     * @param maxHeight the maximum height of decoded images
+     * @return new options
+     * @throws IllegalArgumentException if {@code maxWidth} or
+     *                                  {@code maxHeight} is less than 1
+     * @see #getScaleFactor(int, int)
+     */
+    public DecodeOptions withMaxSize(int maxWidth, int maxHeight) {
+        if (maxWidth < 1) {
+            throw new IllegalArgumentException("maxWidth is less than 1");
+        }
+        if (maxHeight < 1) {
+            throw new IllegalArgumentException("maxHeight is less than 1");
+        }
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options that store alpha samples in decoded images if
+     * {@code alphaPreserved} is {@code true}, including alpha that is given
+     * by transparency information of the image format, e.g. a tRNS chunk of
+     * a PNG image. Color images are then decoded with 4 channels (RGBA) and
+     * grayscale images with 2 channels (gray and alpha); images without
+     * alpha are opaque. Otherwise, which is the default, alpha is composited
+     * against the background color of the image and is not stored.
+     * Preserving alpha is faster, as no compositing is done.
+     *
+     * @param alphaPreserved {@code true} if alpha samples are stored
+     * @return new options
+     * @see #isAlphaPreserved()
+     */
+    public DecodeOptions withPreservedAlpha(boolean alphaPreserved) {
+        return new DecodeOptions(maxWidth, maxHeight, areaAveraging, crcPolicy, adler32Check, alphaPreserved,
+                fullDepth);
+    }
+
+    /**
+     * Returns new options that decode images in full resolution.
+     *
+     * @return new options
+     */
+    public DecodeOptions withoutMaxSize() {
+        return new DecodeOptions(0, 0, areaAveraging, crcPolicy, adler32Check, alphaPreserved, fullDepth);
+    }
+}
@@ -0,0 +1,199 @@
+package dk.martinu.opti.img.spi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread-safe registry of image decoders, which selects a decoder for an
+ * encoded image by the signature at the beginning of the image, i.e. with
+ * {@link ImageDecoder#canDecode(ByteBuffer)}. Decoders of image files that
+ * do not recognize the signature are selected with
+ * {@link ImageDecoder#canDecode(Path)} instead.
+ * <p>
+ * The default registry contains the decoders that are provided as services
+ * when it is first used, and each provider is only instantiated once.
+ * Decoders are shared between threads, and must be thread-safe. Decoders can
+ * be registered and unregistered at any time, which does not block threads
+ * that select decoders.
+ */
+public final class DecoderRegistry {
+
+    /**
+     * Number of bytes read from the beginning of an encoded image to select
+     * a decoder, which is at least the length of the signatures of all
+     * supported image formats.
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    /**
+     * Returns the default registry, which initially contains the decoders
+     * that are provided as services.
+     */
+    public static DecoderRegistry getDefault() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Reads the header of the specified file, starting at position
+     * {@code 0}, and returns it in a buffer that is ready for reading. The
+     * header is shorter than {@link #HEADER_LENGTH} if the file is shorter.
+     * The position of {@code file} is not changed.
+     *
+     * @param file the file to read from
+     * @return a buffer containing the header
+     * @throws IOException if an I/O error occurs
+     */
+    public static ByteBuffer readHeader(FileChannel file) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining()) {
+            if (file.read(header, header.position()) == -1) {
+                break;
+            }
+        }
+        return header.flip();
+    }
+
+    /**
+     * Reads the header of the specified file asynchronously, starting at
+     * position {@code 0}, and returns a future that completes with a buffer
+     * containing the header, ready for reading. The header is shorter than
+     * {@link #HEADER_LENGTH} if the file is shorter. The calling thread is
+     * not blocked, and the file is not closed.
+     *
+     * @param file the file to read from
+     * @return a future that completes with the header, or exceptionally with
+     * an {@link IOException} if an I/O error occurs
+     */
+    public static CompletableFuture<ByteBuffer> readHeader(AsynchronousFileChannel file) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        file.read(header, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n != -1 && header.hasRemaining()) {
+                    // short read, read the rest of the header
+                    file.read(header, header.position(), null, this);
+                }
+                else {
+                    future.complete(header.flip());
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * The registered decoders, in the order that they are selected.
+     */
+    private final CopyOnWriteArrayList<ImageDecoder> decoders = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs a new, empty registry.
+     */
+    public DecoderRegistry() { }
+
+    /**
+     * Returns the first registered decoder that can decode an image whose
+     * encoded bytes begin with the remaining bytes of {@code header}, or
+     * {@code null} if no decoder can decode the image. The position of
+     * {@code header} is not changed.
+     *
+     * @param header the first bytes of an encoded image
+     * @return a decoder, or {@code null}
+     */
+    public ImageDecoder find(ByteBuffer header) {
+        Objects.requireNonNull(header, "header is null");
+        for (ImageDecoder decoder : decoders) {
+            if (decoder.canDecode(header)) {
+                return decoder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first registered decoder that can decode the specified
+     * image file, whose encoded bytes begin with the remaining bytes of
+     * {@code header}, or {@code null} if no decoder can decode the image.
+     * Decoders are first selected by {@code header}, and if no decoder
+     * recognizes it, by {@link ImageDecoder#canDecode(Path)}, such that
+     * decoders that do not implement {@link ImageDecoder#canDecode(ByteBuffer)}
+     * can still decode files. The position of {@code header} is not changed.
+     *
+     * @param path   the path of the image file
+     * @param header the first bytes of the image file
+     * @return a decoder, or {@code null}
+     * @see #readHeader(FileChannel)
+     */
+    public ImageDecoder find(Path path, ByteBuffer header) {
+        Objects.requireNonNull(path, "path is null");
+        final ImageDecoder decoder = find(header);
+        if (decoder != null) {
+            return decoder;
+        }
+        for (ImageDecoder d : decoders) {
+            if (d.canDecode(path)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the registered decoders.
+     */
+    public List<ImageDecoder> getDecoders() {
+        return List.copyOf(decoders);
+    }
+
+    /**
+     * Registers the specified decoder, which is selected after all decoders
+     * that are already registered. Nothing happens if the decoder is already
+     * registered.
+     *
+     * @param decoder the decoder to register
+     */
+    public void register(ImageDecoder decoder) {
+        Objects.requireNonNull(decoder, "decoder is null");
+        decoders.addIfAbsent(decoder);
+    }
+
+    /**
+     * Unregisters the specified decoder.
+     *
+     * @param decoder the decoder to unregister
+     * @return {@code true} if the decoder was registered, otherwise
+     * {@code false}
+     */
+    public boolean unregister(ImageDecoder decoder) {
+        return decoders.remove(decoder);
+    }
+
+    /**
+     * Holder of the default registry, which is initialized when it is first
+     * used. Class initialization is thread-safe, so providers are only
+     * loaded once.
+     */
+    private static class Holder {
+
+        static final DecoderRegistry INSTANCE = new DecoderRegistry();
+
+        static {
+            ServiceLoader.load(ImageDecoder.class).forEach(INSTANCE::register);
+        }
+    }
+}
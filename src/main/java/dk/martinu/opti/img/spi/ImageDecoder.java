@@ -3,11 +3,365 @@ package dk.martinu.opti.img.spi;
 import dk.martinu.opti.img.OptiImage;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
+/**
+ * Decoder of an image format. Decoders are provided as services, and are
+ * selected by a {@link DecoderRegistry} that is shared between threads;
+ * implementations must therefore be thread-safe.
+ * <p>
+ * Only {@link #canDecode(Path)} and {@link #decode(Path)} must be
+ * implemented. The default implementations of the other methods delegate to
+ * one another, and eventually to {@code decode(Path)} through a temporary
+ * file; decoders override them to decode from memory and channels directly.
+ * Decoders must override {@link #canDecode(ByteBuffer)} to be selected for
+ * images that are not read from files.
+ */
 public interface ImageDecoder {
 
     boolean canDecode(Path path);
 
+    /**
+     * Returns {@code true} if this decoder can decode an image whose encoded
+     * bytes begin with the remaining bytes of {@code header}, otherwise
+     * {@code false}. The header can be shorter than the signature of the
+     * image format, in which case {@code false} is returned. The position of
+     * {@code header} is not changed.
+     *
+     * The default implementation returns {@code false}, such that decoders
+     * that do not override it are only selected by a registry for image
+     * files, with {@link #canDecode(Path)}, and not for buffers, channels or
+     * streams.
+     *
+     * @param header the first bytes of an encoded image
+     */
+    default boolean canDecode(ByteBuffer header) {
+        return false;
+    }
+
     OptiImage decode(Path path) throws IOException;
+
+    /**
+     * Decodes the specified image file and stores its samples in
+     * {@code dest} instead of allocating a new image. The image must have the
+     * same width, height, number of channels and depth as the decoded image,
+     * and its metadata is not changed. This allows the samples arrays of
+     * images to be reused when decoding many images of the same size. The
+     * default implementation decodes the file with {@link #decode(Path)} and
+     * copies the samples of the decoded image to {@code dest}.
+     *
+     * @param path the path of the image file
+     * @param dest the image to store samples in
+     * @return {@code dest}
+     * @throws IOException if the image could not be decoded, or if it does
+     *                     not match {@code dest}
+     */
+    default OptiImage decode(Path path, OptiImage dest) throws IOException {
+        return copySamples(decode(path), dest);
+    }
+
+    /**
+     * Decodes the specified image file with the specified options, e.g. to
+     * decode a thumbnail of the image at a reduced resolution. Decoders can
+     * skip decoding data that is not needed for the reduced image. The
+     * default implementation ignores {@code options} and decodes the file in
+     * full resolution with {@link #decode(Path)}.
+     *
+     * @param path    the path of the image file
+     * @param options the decode options
+     * @return the decoded image
+     * @throws IOException if the image could not be decoded
+     * @see DecodeOptions#withMaxSize(int, int)
+     */
+    default OptiImage decode(Path path, DecodeOptions options) throws IOException {
+        return decode(path);
+    }
+
+    /**
+     * Decodes the specified image file asynchronously and returns a future
+     * that completes with the decoded image. The calling thread is not
+     * blocked. The default implementation decodes the file with
+     * {@link #decode(Path)} in a task submitted to {@code executor};
+     * implementations can read the file with asynchronous I/O instead.
+     *
+     * @param path     the path of the image file
+     * @param executor the executor that decodes the image
+     * @return a future that completes with the decoded image, or
+     * exceptionally with an {@link IOException} if the image could not be
+     * decoded
+     */
+    default CompletableFuture<OptiImage> decodeAsync(Path path, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return decode(path);
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Decodes an image from the remaining bytes of the specified buffer, e.g.
+     * an in-memory copy of an image file. The position of {@code buffer} is
+     * not changed. The default implementation decodes the buffer with the
+     * {@linkplain DecodeOptions#DEFAULT default options}.
+     *
+     * @param buffer the buffer containing the encoded image
+     * @return the decoded image
+     * @throws IOException if the image could not be decoded
+     */
+    default OptiImage decode(ByteBuffer buffer) throws IOException {
+        return decode(buffer, DecodeOptions.DEFAULT);
+    }
+
+    /**
+     * Decodes an image from the remaining bytes of the specified buffer and
+     * stores its samples in {@code dest}. The default implementation decodes
+     * the buffer with {@link #decode(ByteBuffer)} and copies the samples of
+     * the decoded image to {@code dest}.
+     *
+     * @see #decode(ByteBuffer)
+     * @see #decode(Path, OptiImage)
+     */
+    default OptiImage decode(ByteBuffer buffer, OptiImage dest) throws IOException {
+        return copySamples(decode(buffer), dest);
+    }
+
+    /**
+     * Decodes an image from the remaining bytes of the specified buffer with
+     * the specified options. The default implementation writes the bytes to a
+     * temporary file and decodes it with {@link #decode(Path, DecodeOptions)}.
+     *
+     * @see #decode(ByteBuffer)
+     * @see #decode(Path, DecodeOptions)
+     */
+    default OptiImage decode(ByteBuffer buffer, DecodeOptions options) throws IOException {
+        Path path = createTempFile(buffer);
+        try {
+            return decode(path, options);
+        }
+        finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Decodes an image from the specified channel, starting at its current
+     * position. The channel must be in blocking mode. Bytes are only read as
+     * far as the end of the image, and the channel is not closed. If the
+     * channel is a {@link java.nio.channels.FileChannel}, implementations can
+     * access the file without reading from the channel, e.g. by mapping it
+     * into memory, in which case the position of the channel is not changed.
+     * The default implementation decodes the channel with the
+     * {@linkplain DecodeOptions#DEFAULT default options}.
+     *
+     * @param input the channel to read the encoded image from
+     * @return the decoded image
+     * @throws IOException if an I/O error occurs or the image could not be
+     *                     decoded
+     */
+    default OptiImage decode(ReadableByteChannel input) throws IOException {
+        return decode(input, DecodeOptions.DEFAULT);
+    }
+
+    /**
+     * Decodes an image from the specified channel and stores its samples in
+     * {@code dest}. The default implementation decodes the channel with
+     * {@link #decode(ReadableByteChannel)} and copies the samples of the
+     * decoded image to {@code dest}.
+     *
+     * @see #decode(ReadableByteChannel)
+     * @see #decode(Path, OptiImage)
+     */
+    default OptiImage decode(ReadableByteChannel input, OptiImage dest) throws IOException {
+        return copySamples(decode(input), dest);
+    }
+
+    /**
+     * Decodes an image from the specified channel with the specified options.
+     * The default implementation reads the channel to the end of stream, and
+     * decodes the bytes with {@link #decode(ByteBuffer, DecodeOptions)}.
+     *
+     * @see #decode(ReadableByteChannel)
+     * @see #decode(Path, DecodeOptions)
+     */
+    default OptiImage decode(ReadableByteChannel input, DecodeOptions options) throws IOException {
+        return decode(readAll(input), options);
+    }
+
+    /**
+     * Decodes an image from the specified stream. The stream is not closed.
+     * The default implementation decodes from a channel that reads from
+     * {@code input}.
+     *
+     * @param input the stream to read the encoded image from
+     * @return the decoded image
+     * @throws IOException if an I/O error occurs or the image could not be
+     *                     decoded
+     * @see #decode(ReadableByteChannel)
+     */
+    default OptiImage decode(InputStream input) throws IOException {
+        return decode(Channels.newChannel(input));
+    }
+
+    /**
+     * Decodes an image from the specified stream and stores its samples in
+     * {@code dest}. The default implementation decodes from a channel that
+     * reads from {@code input}.
+     *
+     * @see #decode(InputStream)
+     * @see #decode(Path, OptiImage)
+     */
+    default OptiImage decode(InputStream input, OptiImage dest) throws IOException {
+        return decode(Channels.newChannel(input), dest);
+    }
+
+    /**
+     * Reads the header of the specified image file and returns it, without
+     * decoding the image. Only the bytes of the header are read from the
+     * file, which makes this much faster than decoding the image when only
+     * the dimensions of the image are needed. The default implementation
+     * decodes the file with {@link #decode(Path)} and returns a header that
+     * describes the decoded image; decoders override it to read only the
+     * header.
+     *
+     * @param path the path of the image file
+     * @return the image header
+     * @throws IOException if the file could not be read, or if the header is
+     *                     invalid
+     */
+    default ImageHeader probe(Path path) throws IOException {
+        OptiImage img = decode(path);
+        return new ImageHeader() {
+            @Override
+            public int channels() {
+                return img.channels;
+            }
+
+            @Override
+            public int depth() {
+                return img.depth;
+            }
+
+            @Override
+            public int height() {
+                return img.height;
+            }
+
+            @Override
+            public int width() {
+                return img.width;
+            }
+        };
+    }
+
+    /**
+     * Reads the header of the specified image file and returns it, without
+     * decoding the image. The number of channels, depth and decoded size of
+     * the header describe the image that is decoded with {@code options}. The
+     * default implementation ignores {@code options}, like
+     * {@link #decode(Path, DecodeOptions)}, and reads the header with
+     * {@link #probe(Path)}.
+     *
+     * @param path    the path of the image file
+     * @param options the decode options
+     * @return the image header
+     * @throws IOException if the file could not be read, or if the header is
+     *                     invalid
+     */
+    default ImageHeader probe(Path path, DecodeOptions options) throws IOException {
+        return probe(path);
+    }
+
+    /**
+     * Reads the header of an image from the remaining bytes of the specified
+     * buffer. The position of {@code buffer} is not changed. The default
+     * implementation writes the bytes to a temporary file and reads the header
+     * with {@link #probe(Path)}.
+     *
+     * @see #probe(Path)
+     */
+    default ImageHeader probe(ByteBuffer buffer) throws IOException {
+        Path path = createTempFile(buffer);
+        try {
+            return probe(path);
+        }
+        finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Reads the header of an image from the specified channel. Only the bytes
+     * of the header are read, and the channel is not closed. The default
+     * implementation reads the channel to the end of stream, and reads the
+     * header from the bytes with {@link #probe(ByteBuffer)}.
+     *
+     * @see #probe(Path)
+     */
+    default ImageHeader probe(ReadableByteChannel input) throws IOException {
+        return probe(readAll(input));
+    }
+
+    /**
+     * Copies the samples of {@code img} to {@code dest}, which must have the
+     * same width, height, number of channels and depth.
+     *
+     * @return {@code dest}
+     * @throws IOException if {@code dest} does not match {@code img}
+     */
+    private static OptiImage copySamples(OptiImage img, OptiImage dest) throws IOException {
+        if (dest.width != img.width || dest.height != img.height || dest.channels != img.channels
+                || dest.depth != img.depth || dest.data.length != img.data.length) {
+            throw new IOException(String.format("destination image does not match image {%d x %d x %d}",
+                    img.width, img.height, img.channels));
+        }
+        System.arraycopy(img.data, 0, dest.data, 0, img.data.length);
+        return dest;
+    }
+
+    /**
+     * Writes the remaining bytes of the specified buffer to a new temporary
+     * file and returns its path. The position of {@code buffer} is not
+     * changed.
+     */
+    private static Path createTempFile(ByteBuffer buffer) throws IOException {
+        Path path = Files.createTempFile("opti", null);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer src = buffer.duplicate();
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return path;
+    }
+
+    /**
+     * Reads the specified channel to the end of stream and returns a buffer
+     * containing the bytes that were read.
+     */
+    private static ByteBuffer readAll(ReadableByteChannel input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (input.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+        return buffer.flip();
+    }
 }
@@ -0,0 +1,40 @@
+package dk.martinu.opti.img.spi;
+
+/**
+ * Information about an encoded image that is available from its header,
+ * without decoding the image data. An image header is returned by
+ * {@link ImageDecoder#probe(java.nio.file.Path)}.
+ * <p>
+ * The number of channels and the depth describe the image that is returned
+ * when the image is decoded, which is not necessarily how it is encoded.
+ */
+public interface ImageHeader {
+
+    /**
+     * Returns the number of channels of the decoded image.
+     */
+    int channels();
+
+    /**
+     * Returns the sample depth in bits of the decoded image.
+     */
+    int depth();
+
+    /**
+     * Returns the number of bytes required to store the samples of the
+     * decoded image.
+     */
+    default long getDecodedSize() {
+        return ((long) width() * height() * channels() * depth() + 7) / 8;
+    }
+
+    /**
+     * Returns the height of the image in pixels.
+     */
+    int height();
+
+    /**
+     * Returns the width of the image in pixels.
+     */
+    int width();
+}
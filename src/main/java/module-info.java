@@ -3,6 +3,9 @@ import dk.martinu.opti.img.png.PngImageDecoder;
 
 module dk.martinu.opti {
 
+    // optional; filter method 0 uses the Vector API if it is available
+    requires static jdk.incubator.vector;
+
     exports dk.martinu.opti;
     exports dk.martinu.opti.img;
     exports dk.martinu.opti.img.spi;
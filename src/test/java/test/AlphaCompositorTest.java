@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class for compositing pixels with alpha against a background color.
+ * The integer arithmetic of the compositor is compared to rounded division
+ * for all inputs, and runs of pixels composited with the Vector API
+ * implementation are compared to the scalar implementation.
+ * <p>
+ * The compositors are not public, and are accessed reflectively. The
+ * {@code dk.martinu.opti.img.png} package must be open to this module.
+ */
+@DisplayName("Alpha Compositor")
+public class AlphaCompositorTest {
+
+    static final String PACKAGE = "dk.martinu.opti.img.png.";
+
+    /**
+     * Returns a method handle that composites a run of 8-bit pixels with a
+     * new instance of the specified compositor class, or {@code null} if the
+     * class cannot be instantiated.
+     *
+     * @param className the simple name of the compositor class
+     * @return the {@code composite8} method bound to an instance
+     */
+    private static MethodHandle getComposite8(String className) {
+        try {
+            Class<?> cls = Class.forName(PACKAGE + className);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            Object instance = lookup.findConstructor(cls, MethodType.methodType(void.class)).invoke();
+            return lookup.findVirtual(cls, "composite8", MethodType.methodType(void.class,
+                    byte[].class, int.class, int.class, int.class, int[].class, byte[].class, int.class, int.class))
+                    .bindTo(instance);
+        }
+        // jdk.incubator.vector is not available
+        catch (LinkageError e) {
+            return null;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException("could not access " + className, e);
+        }
+    }
+
+    /**
+     * Tests that the composite of every foreground sample, background sample
+     * and alpha sample is {@code round((fg * alpha + bg * (255 - alpha)) / 255)}.
+     */
+    @DisplayName("Composite")
+    @Test
+    void composite() throws Throwable {
+        Class<?> cls = Class.forName(PACKAGE + "AlphaCompositor");
+        MethodHandle composite = MethodHandles.privateLookupIn(cls, MethodHandles.lookup())
+                .findStatic(cls, "composite", MethodType.methodType(int.class, int.class, int.class, int.class));
+        for (int fg = 0; fg < 256; fg++) {
+            for (int bg = 0; bg < 256; bg++) {
+                for (int alpha = 0; alpha < 256; alpha++) {
+                    int expected = (int) Math.round((fg * alpha + bg * (255 - alpha)) / 255.0);
+                    int actual = (int) composite.invokeExact(fg, bg, alpha);
+                    if (expected != actual) {
+                        fail(String.format("wrong composite of fg %d, bg %d and alpha %d, expected %d but was %d",
+                                fg, bg, alpha, expected, actual));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test factory that creates a stream of tests for compositing runs of
+     * grayscale and truecolor pixels with the vector and scalar compositors.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Vector")
+    @TestFactory
+    Stream<DynamicTest> vectorComposite8() {
+        return IntStream.of(1, 3).mapToObj(channels -> DynamicTest.dynamicTest(
+                channels + " channels", () -> compositeAndCompare(channels)));
+    }
+
+    /**
+     * Composites runs of random pixels with the vector and scalar
+     * compositors, and asserts that the destination arrays are equal. Each
+     * run mixes stretches of opaque, transparent and partially transparent
+     * pixels, such that vectors of each kind and mixed vectors occur, and
+     * runs are of random lengths, such that the vector loops have tails. The
+     * destination arrays are filled with random bytes, and some end right
+     * after the last composited sample, such that bytes written past the last
+     * sample by the masked store of the last vector are detected.
+     *
+     * @param channels the number of color samples of each pixel
+     */
+    private void compositeAndCompare(int channels) throws Throwable {
+        MethodHandle vector = getComposite8("VectorAlphaCompositor");
+        MethodHandle scalar = getComposite8("AlphaCompositor");
+        assumeTrue(vector != null);
+
+        Random random = new Random(channels);
+        int bytesPerPixel = channels + 1;
+        for (int trial = 0; trial < 2000; trial++) {
+            int count = random.nextInt(200);
+            // the first pixel and sample are not at index 0
+            int k = random.nextInt(8);
+            int index = random.nextInt(8);
+            byte[] samples = new byte[k + count * bytesPerPixel];
+            random.nextBytes(samples);
+            // stretches of opaque, transparent or partially transparent pixels
+            for (int p = 0; p < count; ) {
+                int kind = random.nextInt(4);
+                for (int max = Math.min(count, p + 1 + random.nextInt(40)); p < max; p++) {
+                    int i = k + p * bytesPerPixel + channels;
+                    samples[i] = switch (kind) {
+                        case 0 -> (byte) 0xFF;
+                        case 1 -> 0;
+                        case 2 -> (byte) (1 + random.nextInt(254));
+                        default -> samples[i];
+                    };
+                }
+            }
+            int[] bg = new int[channels];
+            for (int c = 0; c < channels; c++) {
+                bg[c] = random.nextInt(256);
+            }
+            // composited samples are either packed or spaced apart
+            int step = random.nextBoolean() ? channels : bytesPerPixel;
+            int slack = random.nextBoolean() ? 0 : random.nextInt(64);
+            byte[] expected = new byte[index + count * step + slack];
+            random.nextBytes(expected);
+            byte[] actual = expected.clone();
+
+            scalar.invoke(samples, k, count, channels, bg, expected, index, step);
+            vector.invoke(samples, k, count, channels, bg, actual, index, step);
+            final int trialCount = count, trialStep = step;
+            assertArrayEquals(expected, actual,
+                    () -> String.format("%d pixels with step %d", trialCount, trialStep));
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import dk.martinu.opti.img.BatchDecoder;
+import dk.martinu.opti.img.OptiImage;
+import dk.martinu.opti.img.png.PngHeader;
+import dk.martinu.opti.img.png.PngImageDecoder;
+import dk.martinu.opti.img.spi.DecoderRegistry;
+import dk.martinu.opti.img.spi.ImageDecoder;
+import dk.martinu.opti.img.spi.ImageHeader;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for decoding many image files concurrently with a
+ * {@link BatchDecoder}. The decoders of the default registry are replaced by
+ * a PNG decoder that records how images are probed and decoded, which allows
+ * the bounds on images in flight to be checked.
+ */
+@DisplayName("Batch Decoder")
+public class BatchDecoderTest {
+
+    /**
+     * Directory of the PNG image files used for testing.
+     */
+    static final Path DIR = Paths.get(PngImageDecoderTest.ROOT + "/basic");
+
+    /**
+     * Returns the paths of the PNG image files used for testing, sorted by
+     * name.
+     */
+    private static List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(DIR)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".png")).sorted().toList();
+        }
+    }
+
+    /**
+     * Replaces the decoders of the default registry with {@code decoder}
+     * while {@code action} runs.
+     */
+    private static void withDecoder(ImageDecoder decoder, Action action) throws Exception {
+        DecoderRegistry registry = DecoderRegistry.getDefault();
+        List<ImageDecoder> decoders = registry.getDecoders();
+        decoders.forEach(registry::unregister);
+        registry.register(decoder);
+        try {
+            action.run();
+        }
+        finally {
+            registry.unregister(decoder);
+            decoders.forEach(registry::register);
+        }
+    }
+
+    /**
+     * Tests that no more images are decoded concurrently than there are
+     * bytes to reserve for, and that an image that is larger than the
+     * maximum number of bytes is decoded alone.
+     */
+    @DisplayName("Byte Limit")
+    @Test
+    void byteLimit() throws Exception {
+        List<Path> files = listFiles();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // each image is estimated to be 100 bytes
+            for (long maxBytes : new long[] {50, 250, 1000}) {
+                SpyDecoder spy = new SpyDecoder();
+                BatchDecoder batch = new BatchDecoder(executor, 8, maxBytes) {
+                    @Override
+                    protected long getDecodedSize(ImageHeader header) {
+                        return 100L;
+                    }
+                };
+                withDecoder(spy, () -> assertEquals(files.size(), batch.decodeAll(files).size()));
+                assertTrue(spy.maxDecoding.get() <= Math.max(1, maxBytes / 100),
+                        "max bytes " + maxBytes + ", decoded " + spy.maxDecoding.get() + " concurrently");
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that the results of files that cannot be decoded contain the
+     * exception that was thrown, that files that no decoder can decode have
+     * no image, and that the first exception is thrown by
+     * {@link BatchDecoder#decodeAll(java.util.Collection)} with the others
+     * suppressed.
+     */
+    @DisplayName("Errors")
+    @Test
+    void errors() throws Exception {
+        Path image = listFiles().get(0);
+        Path missing = Files.createTempFile("opti", ".png");
+        Files.delete(missing);
+        // the header is valid, the image data is truncated
+        byte[] pixels = new byte[32 * 32 * 3];
+        new Random(0).nextBytes(pixels);
+        byte[] bytes = new PngWriter(32, 32, 8, 2).write(pixels);
+        Path truncated = Files.createTempFile("opti", ".png");
+        truncated.toFile().deleteOnExit();
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length / 2));
+        Path text = Files.createTempFile("opti", ".txt");
+        text.toFile().deleteOnExit();
+        Files.writeString(text, "not an image", StandardCharsets.US_ASCII);
+
+        List<Path> files = List.of(image, missing, truncated, text, image);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BatchDecoder batch = new BatchDecoder(executor, 2, BatchDecoder.DEFAULT_MAX_BYTES);
+            List<BatchDecoder.Result> results = new ArrayList<>();
+            batch.decodeOrdered(files, results::add);
+            assertEquals(files.size(), results.size());
+            for (int i = 0; i < files.size(); i++) {
+                assertEquals(i, results.get(i).index());
+                assertSame(files.get(i), results.get(i).path());
+            }
+            assertNotNull(results.get(0).get());
+            assertInstanceOf(NoSuchFileException.class, results.get(1).exception());
+            assertNotNull(results.get(2).exception());
+            assertNull(results.get(2).image());
+            assertNull(results.get(3).get());
+            assertNotNull(results.get(4).get());
+
+            IOException e = assertThrows(IOException.class, () -> batch.decodeAll(files));
+            assertInstanceOf(NoSuchFileException.class, e);
+            assertEquals(1, e.getSuppressed().length);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that the number of images in flight never exceeds the maximum
+     * number of images, also when decoded images wait for preceding images
+     * to be passed to the caller.
+     */
+    @DisplayName("Image Limit")
+    @Test
+    void imageLimit() throws Exception {
+        List<Path> files = listFiles();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (boolean ordered : new boolean[] {true, false}) {
+                SpyDecoder spy = new SpyDecoder();
+                spy.slowFirst.set(true);
+                AtomicInteger delivered = new AtomicInteger();
+                AtomicInteger maxInFlight = new AtomicInteger();
+                BatchDecoder batch = new BatchDecoder(executor, 3, BatchDecoder.DEFAULT_MAX_BYTES) {
+                    @Override
+                    protected long getDecodedSize(ImageHeader header) {
+                        // the file of the image is open
+                        maxInFlight.accumulateAndGet(spy.probes.get() - delivered.get(), Math::max);
+                        return super.getDecodedSize(header);
+                    }
+                };
+                withDecoder(spy, () -> {
+                    if (ordered) {
+                        batch.decodeOrdered(files, result -> delivered.incrementAndGet());
+                    }
+                    else {
+                        batch.decodeAsCompleted(files, result -> delivered.incrementAndGet());
+                    }
+                });
+                assertEquals(files.size(), delivered.get());
+                assertTrue(maxInFlight.get() <= 3, maxInFlight.get() + " images in flight");
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that each file is opened once, i.e. that it is probed and
+     * decoded from the same channel, and that the images are equal to images
+     * decoded one at a time.
+     */
+    @DisplayName("One Open Per File")
+    @Test
+    void oneOpenPerFile() throws Exception {
+        List<Path> files = listFiles();
+        PngImageDecoder png = PngImageDecoder.provider();
+        SpyDecoder spy = new SpyDecoder();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BatchDecoder batch = new BatchDecoder(executor);
+            withDecoder(spy, () -> {
+                List<OptiImage> images = batch.decodeAll(files);
+                for (int i = 0; i < files.size(); i++) {
+                    assertArrayEquals(png.decode(files.get(i)).data, images.get(i).data);
+                }
+            });
+            assertEquals(files.size(), spy.probes.get());
+            assertEquals(files.size(), spy.decodes.get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that results are passed to the caller in the order of the files
+     * when ordered, and as they complete otherwise. The first image that is
+     * decoded is decoded slowly, such that the images after it complete
+     * first.
+     */
+    @DisplayName("Order")
+    @Test
+    void order() throws Exception {
+        List<Path> files = listFiles();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BatchDecoder batch = new BatchDecoder(executor, 4, BatchDecoder.DEFAULT_MAX_BYTES);
+            List<Integer> ordered = new ArrayList<>();
+            List<Integer> asCompleted = new ArrayList<>();
+            SpyDecoder spy = new SpyDecoder();
+            spy.slowFirst.set(true);
+            withDecoder(spy, () -> batch.decodeOrdered(files, result -> ordered.add(result.index())));
+            spy.slowFirst.set(true);
+            withDecoder(spy, () -> batch.decodeAsCompleted(files, result -> asCompleted.add(result.index())));
+
+            List<Integer> indices = Stream.iterate(0, i -> i + 1).limit(files.size()).toList();
+            assertEquals(indices, ordered);
+            assertEquals(indices, asCompleted.stream().sorted().toList());
+            assertFalse(indices.equals(asCompleted));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Action that can throw exceptions.
+     */
+    @FunctionalInterface
+    interface Action {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * PNG decoder that records the number of images that are probed and
+     * decoded, and the maximum number of images that are decoded
+     * concurrently. Images must be decoded from the file channel that they
+     * were probed from.
+     */
+    static class SpyDecoder extends PngImageDecoder {
+
+        final AtomicInteger probes = new AtomicInteger();
+        final AtomicInteger decodes = new AtomicInteger();
+        final AtomicInteger decoding = new AtomicInteger();
+        final AtomicInteger maxDecoding = new AtomicInteger();
+        /**
+         * If {@code true}, the next image that is decoded is decoded slowly.
+         */
+        final AtomicBoolean slowFirst = new AtomicBoolean();
+
+        @Override
+        public PngHeader probe(ReadableByteChannel input) throws IOException {
+            probes.incrementAndGet();
+            return super.probe(input);
+        }
+
+        @Override
+        public OptiImage decode(Path path) {
+            throw new AssertionError("file is opened again");
+        }
+
+        @Override
+        public OptiImage decode(ReadableByteChannel input) throws IOException {
+            assertInstanceOf(FileChannel.class, input);
+            assertEquals(0L, ((FileChannel) input).position());
+            decodes.incrementAndGet();
+            maxDecoding.accumulateAndGet(decoding.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(slowFirst.getAndSet(false) ? 500 : 5);
+                return super.decode(input);
+            }
+            catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            finally {
+                decoding.decrementAndGet();
+            }
+        }
+    }
+}
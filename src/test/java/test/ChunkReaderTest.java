@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import dk.martinu.opti.img.spi.Chunk;
+import dk.martinu.opti.img.spi.ChunkReader;
+import dk.martinu.opti.img.spi.ImageException;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for reading the chunks of a generated PNG image with the
+ * allocation-free cursor methods of {@link ChunkReader}, in buffer mode and
+ * in channel mode.
+ */
+@DisplayName("Chunk Reader")
+public class ChunkReaderTest {
+
+    /**
+     * Type of the tEXt chunk.
+     */
+    static final int tEXt = 0x74455874;
+    /**
+     * Type of the IEND chunk.
+     */
+    static final int IEND = 0x49454E44;
+
+    /**
+     * Returns the bytes of a generated PNG image with ancillary chunks,
+     * including the file header.
+     */
+    private static byte[] createImage() {
+        Random random = new Random(0);
+        byte[] pixels = new byte[64 * 64 * 3];
+        random.nextBytes(pixels);
+        byte[] text = new byte[100], profile = new byte[20_000];
+        random.nextBytes(text);
+        random.nextBytes(profile);
+        return new PngWriter(64, 64, 8, 2)
+                .addChunk("tEXt", text)
+                .addChunk("iCCP", profile)
+                .setIdatLength(1000)
+                .write(pixels);
+    }
+
+    /**
+     * Reads all chunks from the specified reader with {@link Chunk} objects.
+     */
+    private static List<Chunk> getChunks(ChunkReader reader) throws IOException, ImageException {
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk chunk;
+        do {
+            chunk = reader.getChunk();
+            chunks.add(chunk);
+        }
+        while (chunk.type() != IEND);
+        return chunks;
+    }
+
+    /**
+     * Test factory that creates a stream of tests for reading chunks with
+     * the cursor methods in buffer mode and channel mode.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Cursor")
+    @TestFactory
+    Stream<DynamicTest> cursor() {
+        byte[] bytes = createImage();
+        // chunks begin after the file header
+        Function<byte[], ChunkReader> bufferMode = b -> new ChunkReader(ByteBuffer.wrap(b, 8, b.length - 8));
+        Function<byte[], ChunkReader> channelMode = b -> new ChunkReader(
+                new PngImageDecoderTest.ShortReadChannel(Arrays.copyOfRange(b, 8, b.length), 500));
+        return Stream.of(
+                DynamicTest.dynamicTest("buffer", () -> readAndCompare(bytes, bufferMode, true)),
+                DynamicTest.dynamicTest("channel", () -> readAndCompare(bytes, channelMode, false)));
+    }
+
+    /**
+     * Tests that the data of skipped chunks is empty in buffer mode, and that
+     * the data of chunks is read from channels that are not seekable.
+     */
+    @DisplayName("Skip Filter")
+    @Test
+    void skipFilter() throws IOException, ImageException {
+        byte[] bytes = createImage();
+        ChunkReader buffer = new ChunkReader(ByteBuffer.wrap(bytes, 8, bytes.length - 8));
+        ChunkReader channel = new ChunkReader(
+                new PngImageDecoderTest.ShortReadChannel(Arrays.copyOfRange(bytes, 8, bytes.length), 500));
+        buffer.setSkipFilter(type -> type == tEXt);
+        channel.setSkipFilter(type -> type == tEXt);
+
+        int type;
+        while ((type = buffer.next()) != tEXt) {
+            assertFalse(buffer.isSkipped());
+        }
+        assertTrue(buffer.isSkipped());
+        assertEquals(100, buffer.length());
+        assertEquals(0, buffer.data().remaining());
+
+        while ((type = channel.next()) != tEXt) {
+            assertFalse(channel.isSkipped());
+        }
+        assertEquals(tEXt, type);
+        assertFalse(channel.isSkipped());
+        assertEquals(100, channel.data().remaining());
+    }
+
+    /**
+     * Reads the chunks of the specified image with the cursor methods and with
+     * {@link ChunkReader#getChunk()}, and asserts that the type, length, data
+     * and CRC value of each chunk are equal.
+     *
+     * @param bytes      the bytes of the image
+     * @param factory    function that creates a reader for the chunks
+     * @param bufferMode {@code true} if the reader is in buffer mode
+     */
+    private void readAndCompare(byte[] bytes, Function<byte[], ChunkReader> factory, boolean bufferMode)
+            throws IOException, ImageException {
+        List<Chunk> chunks = getChunks(factory.apply(bytes));
+
+        ChunkReader reader = factory.apply(bytes);
+        ByteBuffer view = null;
+        for (Chunk chunk : chunks) {
+            assertEquals(chunk.type(), reader.next());
+            assertEquals(chunk.type(), reader.type());
+            assertEquals(chunk.data().remaining(), reader.length());
+            assertEquals(chunk.crc(), reader.crc());
+
+            ByteBuffer data = reader.data();
+            assertTrue(data.isReadOnly());
+            assertEquals(reader.length(), data.remaining());
+            if (bufferMode) {
+                // the view spans the buffer, and is positioned at the data
+                assertTrue(data.position() > 0);
+                if (view != null) {
+                    assertSame(view, data);
+                }
+                view = data;
+            }
+            else {
+                assertEquals(0, data.position());
+            }
+            byte[] dataBytes = new byte[data.remaining()];
+            data.get(data.position(), dataBytes);
+            assertArrayEquals(chunk.getBytes(), dataBytes);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import dk.martinu.opti.img.OptiImage;
+import dk.martinu.opti.img.png.PngImageDecoder;
+import dk.martinu.opti.img.spi.DecoderRegistry;
+import dk.martinu.opti.img.spi.ImageDecoder;
+import dk.martinu.opti.img.spi.ImageHeader;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for selecting decoders by the signature of encoded images with
+ * a {@link DecoderRegistry}, and for decoding images with the decoders of the
+ * default registry through {@link OptiImage}.
+ */
+@DisplayName("Decoder Registry")
+public class DecoderRegistryTest {
+
+    /**
+     * Path of the PNG image file used for testing.
+     */
+    static final Path FILE_PATH = Paths.get(PngImageDecoderTest.ROOT + "/basic/basn2c08.png");
+
+    /**
+     * Returns a decoder that only implements the abstract methods of
+     * {@link ImageDecoder}, and decodes PNG images.
+     */
+    private static ImageDecoder createPathDecoder() {
+        ImageDecoder png = PngImageDecoder.provider();
+        return new ImageDecoder() {
+            @Override
+            public boolean canDecode(Path path) {
+                return png.canDecode(path);
+            }
+
+            @Override
+            public OptiImage decode(Path path) throws IOException {
+                return png.decode(path);
+            }
+        };
+    }
+
+    /**
+     * Tests that the default methods of a decoder that only implements the
+     * abstract methods delegate to {@link ImageDecoder#decode(Path)}.
+     */
+    @DisplayName("Default Methods")
+    @Test
+    void defaultMethods() throws IOException {
+        ImageDecoder decoder = createPathDecoder();
+        byte[] bytes = Files.readAllBytes(FILE_PATH);
+        OptiImage img = PngImageDecoder.provider().decode(FILE_PATH);
+        assertFalse(decoder.canDecode(ByteBuffer.wrap(bytes)));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertArrayEquals(img.data, decoder.decode(buffer).data);
+        assertEquals(0, buffer.position());
+        assertArrayEquals(img.data, decoder.decode(new PngImageDecoderTest.ShortReadChannel(bytes, 100)).data);
+        assertArrayEquals(img.data, decoder.decode(new ByteArrayInputStream(bytes)).data);
+
+        OptiImage dest = img.allocate();
+        assertSame(dest, decoder.decode(buffer, dest));
+        assertArrayEquals(img.data, dest.data);
+        assertThrows(IOException.class, () -> decoder.decode(FILE_PATH, img.allocate(1, 1)));
+
+        ImageHeader header = decoder.probe(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertEquals(img.width, header.width());
+        assertEquals(img.height, header.height());
+        assertEquals(img.channels, header.channels());
+        assertEquals(img.depth, header.depth());
+    }
+
+    /**
+     * Tests that {@link OptiImage#fromAsync(Path, java.util.concurrent.Executor)}
+     * decodes with the asynchronous path of the selected decoder, and not
+     * with a blocking decode on the executor.
+     */
+    @DisplayName("Async Decoder")
+    @Test
+    void asyncDecoder() throws IOException {
+        AtomicInteger asyncCalls = new AtomicInteger();
+        ImageDecoder spy = new PngImageDecoder() {
+            @Override
+            public CompletableFuture<OptiImage> decodeAsync(Path path, Executor executor) {
+                asyncCalls.incrementAndGet();
+                return super.decodeAsync(path, executor);
+            }
+
+            @Override
+            public OptiImage decode(Path path) {
+                throw new AssertionError("blocking decode");
+            }
+
+            @Override
+            public OptiImage decode(ReadableByteChannel input) {
+                throw new AssertionError("blocking decode");
+            }
+        };
+        OptiImage img = PngImageDecoder.provider().decode(FILE_PATH);
+        DecoderRegistry registry = DecoderRegistry.getDefault();
+        List<ImageDecoder> decoders = registry.getDecoders();
+        decoders.forEach(registry::unregister);
+        registry.register(spy);
+        try {
+            OptiImage imgAsync = assertDoesNotThrow(() ->
+                    OptiImage.fromAsync(FILE_PATH, ForkJoinPool.commonPool()).get(30, TimeUnit.SECONDS));
+            assertEquals(1, asyncCalls.get());
+            assertArrayEquals(img.data, imgAsync.data);
+        }
+        finally {
+            registry.unregister(spy);
+            decoders.forEach(registry::register);
+        }
+    }
+
+    /**
+     * Tests that the PNG decoder can decode files by their signature, and not
+     * by their name.
+     */
+    @DisplayName("PNG Path")
+    @Test
+    void pngPath() throws IOException {
+        ImageDecoder png = PngImageDecoder.provider();
+        assertTrue(png.canDecode(FILE_PATH));
+        Path image = Files.createTempFile("opti", ".img");
+        image.toFile().deleteOnExit();
+        Files.copy(FILE_PATH, image, StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(png.canDecode(image));
+        Path text = Files.createTempFile("opti", ".png");
+        text.toFile().deleteOnExit();
+        Files.writeString(text, "not an image", StandardCharsets.US_ASCII);
+        assertFalse(png.canDecode(text));
+        assertFalse(png.canDecode(Paths.get(PngImageDecoderTest.ROOT)));
+    }
+
+    /**
+     * Tests that decoders that do not recognize the signature of images are
+     * selected for image files by their path.
+     */
+    @DisplayName("Path Fallback")
+    @Test
+    void pathFallback() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(FILE_PATH), 0, DecoderRegistry.HEADER_LENGTH);
+        ImageDecoder decoder = createPathDecoder();
+        DecoderRegistry registry = new DecoderRegistry();
+        registry.register(decoder);
+        assertNull(registry.find(header));
+        assertSame(decoder, registry.find(FILE_PATH, header));
+        assertNull(registry.find(Paths.get(PngImageDecoderTest.ROOT), header));
+
+        // decoders selected by signature are preferred
+        ImageDecoder png = PngImageDecoder.provider();
+        registry.register(png);
+        assertSame(png, registry.find(FILE_PATH, header));
+
+        OptiImage img = png.decode(FILE_PATH);
+        DecoderRegistry defaultRegistry = DecoderRegistry.getDefault();
+        List<ImageDecoder> decoders = defaultRegistry.getDecoders();
+        decoders.forEach(defaultRegistry::unregister);
+        defaultRegistry.register(decoder);
+        try {
+            assertArrayEquals(img.data, OptiImage.from(FILE_PATH).data);
+            assertEquals(img.width, OptiImage.probe(FILE_PATH).width());
+            assertNull(OptiImage.from(ByteBuffer.wrap(Files.readAllBytes(FILE_PATH))));
+        }
+        finally {
+            defaultRegistry.unregister(decoder);
+            decoders.forEach(defaultRegistry::register);
+        }
+    }
+
+    /**
+     * Tests that decoders are selected in the order they are registered, and
+     * that registering a decoder twice has no effect.
+     */
+    @DisplayName("Registration Order")
+    @Test
+    void registrationOrder() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(FILE_PATH), 0, DecoderRegistry.HEADER_LENGTH);
+        DecoderRegistry registry = new DecoderRegistry();
+        ImageDecoder first = new PngImageDecoder();
+        ImageDecoder second = new PngImageDecoder();
+        assertNull(registry.find(header));
+
+        registry.register(first);
+        registry.register(second);
+        registry.register(first);
+        assertEquals(List.of(first, second), registry.getDecoders());
+        assertSame(first, registry.find(header));
+        assertEquals(0, header.position());
+
+        assertTrue(registry.unregister(first));
+        assertFalse(registry.unregister(first));
+        assertSame(second, registry.find(header));
+
+        // re-registered decoders are selected last
+        registry.register(first);
+        assertSame(second, registry.find(header));
+        assertThrows(UnsupportedOperationException.class, () -> registry.getDecoders().clear());
+    }
+
+    /**
+     * Tests that no decoder is selected for images with an unknown
+     * signature, or with fewer bytes than a signature.
+     */
+    @DisplayName("Unknown Signature")
+    @Test
+    void unknownSignature() throws IOException {
+        DecoderRegistry registry = DecoderRegistry.getDefault();
+        byte[] gif = "GIF89a\u0001\u0000\u0001\u0000\u0000\u0000\u0000;".getBytes(StandardCharsets.ISO_8859_1);
+        assertNull(registry.find(ByteBuffer.wrap(gif)));
+        assertNull(registry.find(ByteBuffer.wrap(Files.readAllBytes(FILE_PATH), 0, 4)));
+        assertNull(registry.find(ByteBuffer.allocate(0)));
+
+        assertNull(OptiImage.from(ByteBuffer.wrap(gif)));
+        assertNull(OptiImage.from(new ByteArrayInputStream(gif)));
+    }
+
+    /**
+     * Tests decoding an image from channels that cannot be repositioned, such
+     * that the header that is read to select the decoder must be replayed to
+     * the decoder, and asynchronously.
+     */
+    @DisplayName("Sources")
+    @Test
+    void sources() throws IOException {
+        byte[] bytes = Files.readAllBytes(FILE_PATH);
+        OptiImage img = PngImageDecoder.provider().decode(FILE_PATH);
+
+        // the channel of a stream is not seekable
+        OptiImage imgStream = OptiImage.from(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertArrayEquals(img.data, imgStream.data);
+
+        // the header is read in several short reads
+        for (int maxRead : new int[] {1, 5, DecoderRegistry.HEADER_LENGTH + 1}) {
+            OptiImage imgChannel = OptiImage.from(new PngImageDecoderTest.ShortReadChannel(bytes, maxRead));
+            assertArrayEquals(img.data, imgChannel.data);
+        }
+
+        // the position of a file channel is not changed by reading the header
+        try (FileChannel channel = FileChannel.open(FILE_PATH, StandardOpenOption.READ)) {
+            assertArrayEquals(img.data, OptiImage.from(channel).data);
+        }
+
+        OptiImage imgAsync = assertDoesNotThrow(() ->
+                OptiImage.fromAsync(FILE_PATH, ForkJoinPool.commonPool()).get(30, TimeUnit.SECONDS));
+        assertArrayEquals(img.data, imgAsync.data);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Test class for the kernels of filter method 0. Scanlines of random bytes
+ * are reconstructed with the Vector API implementation and the scalar
+ * implementation, which must produce equal bytes.
+ * <p>
+ * The implementations are not public, and are accessed reflectively. The
+ * {@code dk.martinu.opti.img.png} package must be open to this module.
+ */
+@DisplayName("Filter Method 0")
+public class FilterMethodTest {
+
+    /**
+     * Returns a method handle that reconstructs a scanline with a new
+     * instance of the specified filter method class, or {@code null} if the
+     * class cannot be instantiated.
+     *
+     * @param className the simple name of the filter method class
+     * @return the {@code reconstructLine} method bound to an instance
+     */
+    private static MethodHandle getReconstructLine(String className) {
+        try {
+            Class<?> cls = Class.forName("dk.martinu.opti.img.png." + className);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            Object instance = lookup.findConstructor(cls, MethodType.methodType(void.class)).invoke();
+            return lookup.findVirtual(cls, "reconstructLine", MethodType.methodType(void.class,
+                    int.class, byte[].class, int.class, byte[].class, int.class, int.class, int.class)).bindTo(instance);
+        }
+        // jdk.incubator.vector is not available
+        catch (LinkageError e) {
+            return null;
+        }
+        catch (Throwable e) {
+            throw new RuntimeException("could not access " + className, e);
+        }
+    }
+
+    /**
+     * Test factory that creates a stream of tests, one for each filter offset
+     * (bytes per pixel) of filter method 0.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Vector")
+    @TestFactory
+    Stream<DynamicTest> vectorKernels() {
+        return IntStream.of(1, 2, 3, 4, 6, 8).mapToObj(filterOffset -> DynamicTest.dynamicTest(
+                "filter offset " + filterOffset, () -> reconstructAndCompare(filterOffset)));
+    }
+
+    /**
+     * Reconstructs scanlines of random bytes with every filter type, both as
+     * the first scanline and with a previous scanline, with the vector and
+     * scalar implementations, and asserts that the bytes are equal. Scanlines
+     * are of various lengths, such that the vector loops have tails.
+     *
+     * @param filterOffset the filter offset of the scanlines
+     */
+    private void reconstructAndCompare(int filterOffset) throws Throwable {
+        MethodHandle vector = getReconstructLine("VectorFilterMethod_0");
+        MethodHandle scalar = getReconstructLine("FilterMethod_0");
+        assumeTrue(vector != null);
+
+        Random random = new Random(filterOffset);
+        for (int pixels : new int[] {1, 2, 5, 16, 33, 100, 1000}) {
+            int nBytes = pixels * filterOffset;
+            // scanlines do not start at index 0
+            byte[] line = new byte[3 + nBytes];
+            byte[] prev = new byte[5 + nBytes];
+            for (int filterType = 0; filterType <= 4; filterType++) {
+                for (boolean first : new boolean[] {true, false}) {
+                    random.nextBytes(line);
+                    random.nextBytes(prev);
+                    byte[] expected = line.clone();
+                    byte[] actual = line.clone();
+                    scalar.invoke(filterType, expected, 3, first ? null : prev, 5, nBytes, filterOffset);
+                    vector.invoke(filterType, actual, 3, first ? null : prev, 5, nBytes, filterOffset);
+                    final String message = String.format("filter type %d, %d pixels, %s scanline",
+                            filterType, pixels, first ? "first" : "second");
+                    assertArrayEquals(expected, actual, message);
+                }
+            }
+        }
+    }
+}
@@ -18,18 +18,41 @@ package test;
 
 import dk.martinu.opti.ByteView;
 import dk.martinu.opti.img.OptiImage;
+import dk.martinu.opti.img.ShortImage;
+import dk.martinu.opti.img.png.PngHeader;
 import dk.martinu.opti.img.png.PngImageDecoder;
 import dk.martinu.opti.img.png.PngInfo;
+import dk.martinu.opti.img.png.PngRowReader;
+import dk.martinu.opti.img.spi.CrcPolicy;
+import dk.martinu.opti.img.spi.DecodeOptions;
 import org.junit.jupiter.api.*;
 
 import javax.imageio.ImageIO;
 import java.awt.Transparency;
 import java.awt.image.*;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -192,6 +215,22 @@ public class PngImageDecoderTest {
         }
     }
 
+    /**
+     * Test factory that creates a stream of tests that decode all PNG files in
+     * the {@code /basic}, {@code /background-colors} and
+     * {@code /transparency} subdirectories with alpha preserved.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Alpha")
+    @TestFactory
+    Stream<DynamicTest> pngAlpha() {
+        Stream<Path> files = Stream.of("/basic", "/background-colors", "/transparency")
+                .flatMap(dir -> listFiles(Paths.get(ROOT + dir)));
+        return files.map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeAlphaAndCompare(filePath)));
+    }
+
     /**
      * Test factory that creates a stream of tests for all PNG files in the
      * {@code /background-colors} subdirectory.
@@ -218,6 +257,127 @@ public class PngImageDecoderTest {
         return createTestsFromDir(dir);
     }
 
+    /**
+     * Test factory that decodes all PNG files in the {@code /basic}
+     * subdirectory concurrently, and creates a stream of tests that compare
+     * each image to the image decoded on its own.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Batch")
+    @TestFactory
+    Stream<DynamicTest> pngBatch() throws IOException {
+        Path dir = Paths.get(ROOT + "/basic");
+        List<Path> files = listFiles(dir).toList();
+        List<OptiImage> images = OptiImage.fromAll(files);
+        assertEquals(files.size(), images.size());
+        return IntStream.range(0, files.size()).mapToObj(i -> DynamicTest.dynamicTest(
+                files.get(i).getFileName().toString(),
+                () -> assertArrayEquals(decodeWithOpti(files.get(i)).data, images.get(i).data)));
+    }
+
+    /**
+     * Tests that corrupted CRC values of ancillary chunks are only rejected
+     * by {@link CrcPolicy#ALL}, that corrupted CRC values of critical chunks
+     * are rejected by {@link CrcPolicy#ALL} and {@link CrcPolicy#CRITICAL},
+     * and that a corrupted Adler-32 checksum of the image data is only
+     * accepted if it is not checked. Images are decoded from a buffer and
+     * from a channel. The ancillary bKGD chunk is read by the decoder, and
+     * the ancillary tEXt chunk is ignored, and skipped when decoded from a
+     * buffer.
+     */
+    @DisplayName("Checksums")
+    @Test
+    void pngChecksums() throws IOException {
+        byte[] pixels = new byte[64 * 64 * 3];
+        new Random(0).nextBytes(pixels);
+        byte[] bytes = new PngWriter(64, 64, 8, 2)
+                .addChunk("bKGD", new byte[] {0, 0x40, 0, (byte) 0x80, 0, (byte) 0xC0})
+                .addChunk("tEXt", "Comment\0checksums".getBytes(StandardCharsets.ISO_8859_1))
+                .write(pixels);
+        assertArrayEquals(pixels, PngImageDecoder.provider().decode(ByteBuffer.wrap(bytes)).data);
+
+        DecodeOptions all = DecodeOptions.DEFAULT;
+        DecodeOptions critical = DecodeOptions.DEFAULT.withCrcPolicy(CrcPolicy.CRITICAL);
+        DecodeOptions none = DecodeOptions.DEFAULT.withCrcPolicy(CrcPolicy.NONE);
+        DecodeOptions noAdler32 = DecodeOptions.DEFAULT.withAdler32Check(false);
+
+        // corrupt the CRC value of the ancillary bKGD chunk
+        byte[] ancillary = bytes.clone();
+        int bkgd = PngWriter.findChunk(ancillary, "bKGD");
+        ancillary[bkgd + 8 + ByteBuffer.wrap(ancillary).getInt(bkgd)] ^= 1;
+        decodeChecksums(ancillary, pixels, all, false);
+        decodeChecksums(ancillary, pixels, critical, true);
+        decodeChecksums(ancillary, pixels, none, true);
+
+        // corrupt the CRC value of the ignored ancillary tEXt chunk
+        byte[] ignored = bytes.clone();
+        int text = PngWriter.findChunk(ignored, "tEXt");
+        ignored[text + 8 + ByteBuffer.wrap(ignored).getInt(text)] ^= 1;
+        decodeChecksums(ignored, pixels, critical, true);
+        decodeChecksums(ignored, pixels, none, true);
+        assertThrows(IOException.class, () -> PngImageDecoder.provider().decode(new ShortReadChannel(ignored, 1000)));
+
+        // corrupt the CRC value of the critical IDAT chunk
+        byte[] idatCrc = bytes.clone();
+        int idat = PngWriter.findChunk(idatCrc, "IDAT");
+        int idatLength = ByteBuffer.wrap(idatCrc).getInt(idat);
+        idatCrc[idat + 8 + idatLength] ^= 1;
+        decodeChecksums(idatCrc, pixels, all, false);
+        decodeChecksums(idatCrc, pixels, critical, false);
+        decodeChecksums(idatCrc, pixels, none, true);
+
+        // corrupt the Adler-32 checksum at the end of the image data, with a
+        // valid CRC value
+        byte[] adler32 = bytes.clone();
+        adler32[idat + 8 + idatLength - 1] ^= 1;
+        PngWriter.updateCrc(adler32, idat);
+        decodeChecksums(adler32, pixels, all, false);
+        decodeChecksums(adler32, pixels, none, false);
+        decodeChecksums(adler32, pixels, noAdler32, true);
+    }
+
+    /**
+     * Tests decoding a generated image file that is large enough to be mapped
+     * into memory, from its path, a file channel and row by row.
+     */
+    @DisplayName("Large File")
+    @Test
+    void pngLargeFile() throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        int width = 700, height = 700;
+        byte[] pixels = new byte[width * height * 3];
+        new Random(0).nextBytes(pixels);
+        Path filePath = writeTempFile(new PngWriter(width, height, 8, 2).write(pixels));
+        // files of at least 1 MiB are mapped
+        assertTrue(Files.size(filePath) > 1 << 20);
+        assertArrayEquals(pixels, decoder.decode(filePath).data);
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            assertArrayEquals(pixels, decoder.decode(channel).data);
+        }
+        try (PngRowReader reader = decoder.openRows(filePath)) {
+            byte[] rows = new byte[pixels.length];
+            for (int y = 0; y < height; y++) {
+                reader.readRow(rows, y * reader.getRowLength());
+            }
+            assertArrayEquals(pixels, rows);
+        }
+    }
+
+    /**
+     * Test factory that creates a stream of tests for decoding all PNG files
+     * in the {@code /basic} subdirectory into existing images and buffers.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Destinations")
+    @TestFactory
+    Stream<DynamicTest> pngDestinations() {
+        Path dir = Paths.get(ROOT + "/basic");
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeDestinationsAndCompare(filePath)));
+    }
+
     /**
      * Test factory that creates a stream of tests for all PNG files in the
      * {@code /image-filtering} subdirectory.
@@ -231,6 +391,23 @@ public class PngImageDecoderTest {
         return createTestsFromDir(dir);
     }
 
+    /**
+     * Test factory that creates a stream of tests for all PNG files with
+     * 16-bit samples in the {@code /basic} and {@code /interlacing}
+     * subdirectories, which are decoded with full depth.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Full Depth")
+    @TestFactory
+    Stream<DynamicTest> pngFullDepth() {
+        Stream<Path> files = Stream.concat(listFiles(Paths.get(ROOT + "/basic")),
+                listFiles(Paths.get(ROOT + "/interlacing")));
+        return files.filter(filePath -> filePath.getFileName().toString().endsWith("16.png"))
+                .map(filePath -> DynamicTest.dynamicTest(
+                        filePath.getFileName().toString(), () -> decodeFullDepthAndCompare(filePath)));
+    }
+
     /**
      * Test factory that creates a stream of tests for all PNG files in the
      * {@code /interlacing} subdirectory.
@@ -244,6 +421,33 @@ public class PngImageDecoderTest {
         return createTestsFromDir(dir);
     }
 
+    /**
+     * Test factory that creates a stream of tests for decoding generated
+     * images that are large enough to be reconstructed and expanded
+     * concurrently, each of which is decoded both with and without
+     * interlacing. Images include packed, palette and alpha color types.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Large Images")
+    @TestFactory
+    Stream<DynamicTest> pngLargeImages() {
+        // width, height, bit depth and color type of each image
+        int[][] images = {
+                {2400, 1000, 1, 0},
+                {1024, 512, 2, 0},
+                {600, 600, 8, 0},
+                {400, 400, 8, 2},
+                {600, 600, 4, 3},
+                {600, 600, 8, 3},
+                {600, 600, 8, 4},
+                {400, 400, 8, 6},
+                {220, 220, 16, 6}};
+        return Stream.of(images).map(image -> DynamicTest.dynamicTest(
+                String.format("%dx%d depth %d color type %d", image[0], image[1], image[2], image[3]),
+                () -> decodeLargeAndCompare(image[0], image[1], image[2], image[3])));
+    }
+
     /**
      * Test factory that creates a stream of tests for all PNG files in the
      * {@code /odd-sizes} subdirectory.
@@ -257,6 +461,215 @@ public class PngImageDecoderTest {
         return createTestsFromDir(dir);
     }
 
+    /**
+     * Test factory that creates a stream of tests for probing the headers of
+     * all PNG files in the {@code /interlacing} subdirectory.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Probe")
+    @TestFactory
+    Stream<DynamicTest> pngProbe() {
+        Path dir = Paths.get(ROOT + "/interlacing");
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> probeAndCompare(filePath)));
+    }
+
+    /**
+     * Test factory that creates a stream of tests for decoding regions of all
+     * PNG files in the {@code /odd-sizes} subdirectory.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Regions")
+    @TestFactory
+    Stream<DynamicTest> pngRegions() {
+        Path dir = Paths.get(ROOT + "/odd-sizes");
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeRegionsAndCompare(filePath)));
+    }
+
+    /**
+     * Test factory that creates a stream of tests for reading all PNG files
+     * in the {@code /basic} subdirectory one row at a time, and for
+     * publishing their rows.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Rows")
+    @TestFactory
+    Stream<DynamicTest> pngRows() {
+        Path dir = Paths.get(ROOT + "/basic");
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeRowsAndCompare(filePath)));
+    }
+
+    /**
+     * Tests that interlaced images cannot be read one row at a time.
+     */
+    @DisplayName("Rows Interlaced")
+    @Test
+    void pngRowsInterlaced() {
+        Path filePath = Paths.get(ROOT + "/interlacing/basi0g08.png");
+        assertThrows(IOException.class, () -> PngImageDecoder.provider().openRows(filePath));
+    }
+
+    /**
+     * Tests that image data after the last row is rejected when the last row
+     * is read.
+     */
+    @DisplayName("Rows Trailing Data")
+    @Test
+    void pngRowsTrailingData() throws IOException {
+        PngWriter writer = new PngWriter(16, 4, 8, 0).setTrailingData(new byte[] {0, 1, 2, 3});
+        Path filePath = writeTempFile(writer.write(new byte[writer.getRowLength() * 4]));
+        try (PngRowReader reader = PngImageDecoder.provider().openRows(filePath)) {
+            byte[] row = new byte[reader.getRowLength()];
+            for (int y = 0; y < 3; y++) {
+                reader.readRow(row, 0);
+            }
+            assertThrows(IOException.class, () -> reader.readRow(row, 0));
+        }
+    }
+
+    /**
+     * Tests that rows are only published when requested, and that no rows
+     * are published after the subscription is cancelled or the subscriber
+     * throws an exception.
+     */
+    @DisplayName("Row Publisher Demand")
+    @Test
+    void pngRowPublisherDemand() {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        Path filePath = Paths.get(ROOT + "/basic/basn0g08.png");
+        OptiImage img = decodeWithOpti(filePath);
+        // rows are published on the requesting thread
+        Executor executor = Runnable::run;
+
+        RowSubscriber subscriber = new RowSubscriber(false);
+        decoder.publishRows(filePath, executor).subscribe(subscriber);
+        assertEquals(0, subscriber.rows.size());
+        subscriber.subscription.request(2);
+        assertEquals(2, subscriber.rows.size());
+        subscriber.subscription.request(3);
+        assertEquals(5, subscriber.rows.size());
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+        assertEquals(5, subscriber.rows.size());
+        assertFalse(subscriber.completion.isDone());
+
+        RowSubscriber unbounded = new RowSubscriber(false);
+        decoder.publishRows(filePath, executor).subscribe(unbounded);
+        unbounded.subscription.request(Long.MAX_VALUE);
+        assertEquals(img.height, assertDoesNotThrow(() -> unbounded.completion.get()).size());
+
+        RowSubscriber illegal = new RowSubscriber(false);
+        decoder.publishRows(filePath, executor).subscribe(illegal);
+        illegal.subscription.request(0);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> illegal.completion.get());
+        assertInstanceOf(IllegalArgumentException.class, e.getCause());
+
+        RowSubscriber throwing = new RowSubscriber(false) {
+            @Override
+            public void onNext(byte[] row) {
+                super.onNext(row);
+                throw new IllegalStateException();
+            }
+        };
+        decoder.publishRows(filePath, executor).subscribe(throwing);
+        assertDoesNotThrow(() -> throwing.subscription.request(3));
+        assertEquals(1, throwing.rows.size());
+        assertDoesNotThrow(() -> throwing.subscription.request(1));
+        assertEquals(1, throwing.rows.size());
+        assertFalse(throwing.completion.isDone());
+    }
+
+    /**
+     * Tests decoding a generated image with large ancillary chunks that are
+     * ignored by the decoder, from a seekable channel, where their data is
+     * skipped, and from a non-seekable channel and a buffer, where it is
+     * read.
+     */
+    @DisplayName("Skipped Chunks")
+    @Test
+    void pngSkippedChunks() throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        Random random = new Random(0);
+        int width = 100, height = 100;
+        byte[] pixels = new byte[width * height * 3];
+        random.nextBytes(pixels);
+        // chunks that are smaller and larger than the read buffer
+        byte[] text = new byte[100], profile = new byte[20_000], compressedText = new byte[200_000];
+        random.nextBytes(text);
+        random.nextBytes(profile);
+        random.nextBytes(compressedText);
+        byte[] bytes = new PngWriter(width, height, 8, 2)
+                .addChunk("tEXt", text)
+                .addChunk("iCCP", profile)
+                .addChunk("zTXt", compressedText)
+                .write(pixels);
+        Path filePath = writeTempFile(bytes);
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            assertArrayEquals(pixels, decoder.decode(channel).data);
+            // bytes read ahead of the IEND chunk are returned to the channel
+            assertEquals(bytes.length, channel.position());
+        }
+        assertArrayEquals(pixels, decoder.decode(new ShortReadChannel(bytes, 1000)).data);
+        assertArrayEquals(pixels, decoder.decode(ByteBuffer.wrap(bytes)).data);
+    }
+
+    /**
+     * Test factory that creates a stream of tests for decoding all PNG files
+     * in the {@code /basic} subdirectory from a buffer and a stream.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Sources")
+    @TestFactory
+    Stream<DynamicTest> pngSources() {
+        Path dir = Paths.get(ROOT + "/basic");
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeSourcesAndCompare(filePath)));
+    }
+
+    /**
+     * Tests decoding generated images from a non-seekable channel that
+     * returns short reads of random length, with IDAT chunks that are both
+     * smaller and larger than the read buffer of the decoder.
+     */
+    @DisplayName("Short Reads")
+    @Test
+    void pngShortReads() throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        int width = 300, height = 300;
+        byte[] pixels = new byte[width * height * 3];
+        new Random(0).nextBytes(pixels);
+        for (int idatLength : new int[] {1000, 1 << 18}) {
+            byte[] bytes = new PngWriter(width, height, 8, 2).setIdatLength(idatLength).write(pixels);
+            for (int maxRead : new int[] {1, 1000, Integer.MAX_VALUE}) {
+                OptiImage img = decoder.decode(new ShortReadChannel(bytes, maxRead));
+                assertArrayEquals(pixels, img.data);
+            }
+        }
+    }
+
+    /**
+     * Test factory that creates a stream of tests for decoding thumbnails of
+     * all PNG files in the {@code /basic} and {@code /interlacing}
+     * subdirectories.
+     *
+     * @return a stream of dynamic tests
+     */
+    @DisplayName("Thumbnails")
+    @TestFactory
+    Stream<DynamicTest> pngThumbnails() {
+        Stream<Path> files = Stream.concat(listFiles(Paths.get(ROOT + "/basic")),
+                listFiles(Paths.get(ROOT + "/interlacing")));
+        return files.map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeThumbnailsAndCompare(filePath)));
+    }
+
     /**
      * Test factory that creates a stream of tests for all PNG files in the
      * {@code /transparency} subdirectory.
@@ -279,6 +692,18 @@ public class PngImageDecoderTest {
      * @return a stream of dynamic tests
      */
     private Stream<DynamicTest> createTestsFromDir(Path dir) {
+        return listFiles(dir).map(filePath -> DynamicTest.dynamicTest(
+                filePath.getFileName().toString(), () -> decodeAndCompare(filePath)));
+    }
+
+    /**
+     * Utility method for test factories. Returns a stream of all PNG files in
+     * the specified directory.
+     *
+     * @param dir the directory containing the PNG test files
+     * @return a stream of file paths
+     */
+    private Stream<Path> listFiles(Path dir) {
         if (!Files.isDirectory(dir)) {
             throw new RuntimeException("directory {" + dir + "} does not exist");
         }
@@ -293,14 +718,48 @@ public class PngImageDecoderTest {
             throw new RuntimeException("could not open directory {" + dir + "}", e);
         }
         if (files.length != 0) {
-            return Stream.of(files).map(filePath -> DynamicTest.dynamicTest(
-                    filePath.getFileName().toString(), () -> decodeAndCompare(filePath)));
+            return Stream.of(files);
         }
         else {
             throw new RuntimeException("directory {" + dir + "} does not contain any PNG files");
         }
     }
 
+    /**
+     * Utility method for tests of generated images. Writes the specified
+     * bytes to a new temporary file and returns its path. The file is deleted
+     * when the virtual machine exits, as files that are mapped into memory
+     * cannot be deleted on all platforms until they are unmapped.
+     *
+     * @param bytes the bytes of the file
+     * @return the path of the file
+     */
+    private Path writeTempFile(byte[] bytes) throws IOException {
+        Path filePath = Files.createTempFile("opti", ".png");
+        filePath.toFile().deleteOnExit();
+        return Files.write(filePath, bytes);
+    }
+
+    /**
+     * Decodes the specified image bytes with the specified options from a
+     * buffer and from a channel, and asserts that the image is decoded with
+     * the specified pixels if {@code valid} is {@code true}, otherwise that
+     * an {@link IOException} is thrown.
+     */
+    private void decodeChecksums(byte[] bytes, byte[] pixels, DecodeOptions options, boolean valid)
+            throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        if (valid) {
+            assertArrayEquals(pixels, decoder.decode(ByteBuffer.wrap(bytes), options).data);
+            assertArrayEquals(pixels, decoder.decode(new ShortReadChannel(bytes, 1000), options).data);
+        }
+        else {
+            assertThrows(IOException.class, () -> decoder.decode(ByteBuffer.wrap(bytes), options), "buffer");
+            assertThrows(IOException.class, () -> decoder.decode(new ShortReadChannel(bytes, 1000), options),
+                    "channel");
+        }
+    }
+
     /**
      * Given the file path to a PNG image, decodes the image file with Opti and
      * IIO, and compares the binary representation of the image data from both
@@ -345,4 +804,477 @@ public class PngImageDecoderTest {
             }
         }
     }
+
+    /**
+     * Generates an image of random pixels with the specified size, bit depth
+     * and color type, and writes it with and without interlacing. Both image
+     * files are decoded with Opti and IIO and compared, and the image data of
+     * both files decoded with Opti must be equal. Images with 8-bit alpha
+     * samples are also decoded with alpha preserved, which must be equal to
+     * the pixels of the image.
+     *
+     * @param width     the width of the image
+     * @param height    the height of the image
+     * @param bitDepth  the bit depth of the image
+     * @param colorType the color type of the image
+     */
+    private void decodeLargeAndCompare(int width, int height, int bitDepth, int colorType) throws IOException {
+        Random random = new Random(0);
+        PngWriter writer = new PngWriter(width, height, bitDepth, colorType);
+        if (colorType == 3) {
+            byte[] palette = new byte[3 << bitDepth];
+            random.nextBytes(palette);
+            writer.setPalette(palette);
+        }
+        byte[] pixels = new byte[writer.getRowLength() * height];
+        random.nextBytes(pixels);
+        Path filePath = writeTempFile(writer.write(pixels));
+        Path interlacedPath = writeTempFile(writer.setInterlaced(true).write(pixels));
+
+        decodeAndCompare(filePath);
+        decodeAndCompare(interlacedPath);
+        assertArrayEquals(decodeWithOpti(filePath).data, decodeWithOpti(interlacedPath).data);
+
+        if (bitDepth == 8 && (colorType == 4 || colorType == 6)) {
+            DecodeOptions options = DecodeOptions.DEFAULT.withPreservedAlpha(true);
+            PngImageDecoder decoder = PngImageDecoder.provider();
+            assertArrayEquals(pixels, decoder.decode(filePath, options).data);
+            assertArrayEquals(pixels, decoder.decode(interlacedPath, options).data);
+        }
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file and regions
+     * of it with Opti, and asserts that the samples of each region are equal
+     * to the samples of the image.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeRegionsAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+
+        // regions: top-left pixel, last row, last column, center and entire image
+        int w = img.width, h = img.height;
+        int[][] regions = {
+                {0, 0, 1, 1},
+                {0, h - 1, w, 1},
+                {w - 1, 0, 1, h},
+                {w / 3, h / 3, Math.max(1, w / 3), Math.max(1, h / 3)},
+                {0, 0, w, h}};
+        for (int[] r : regions) {
+            OptiImage region = decoder.decodeRegion(filePath, r[0], r[1], r[2], r[3]);
+            assertEquals(r[2], region.width);
+            assertEquals(r[3], region.height);
+            for (int y = 0; y < region.height; y++) {
+                for (int x = 0; x < region.width; x++) {
+                    for (int c = 0; c < img.channels; c++) {
+                        assertEquals(img.getSample(r[0] + x, r[1] + y, c), region.getSample(x, y, c));
+                    }
+                }
+            }
+        }
+        assertThrows(IOException.class, () -> decoder.decodeRegion(filePath, 0, 0, w + 1, h));
+    }
+
+    /**
+     * Given the file path to a PNG image, probes and decodes the image file
+     * with Opti, and asserts that the header matches the decoded image.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void probeAndCompare(Path filePath) throws IOException {
+        OptiImage img = decodeWithOpti(filePath);
+        PngHeader header = PngImageDecoder.provider().probe(filePath);
+
+        assertEquals(img.width, header.width());
+        assertEquals(img.height, header.height());
+        assertEquals(img.channels, header.channels());
+        assertEquals(img.metadata.get(OptiImage.BIT_DEPTH), header.bitDepth());
+        assertEquals(img.data.length, header.getDecodedSize());
+        assertTrue(header.isInterlaced());
+
+        // only the file header and IHDR chunk are read
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            assertEquals(header, PngImageDecoder.provider().probe(channel));
+            assertEquals(8 + 12 + 13, channel.position());
+        }
+        ShortReadChannel channel = new ShortReadChannel(Files.readAllBytes(filePath), Integer.MAX_VALUE);
+        assertEquals(header, PngImageDecoder.provider().probe(channel));
+        assertEquals(8 + 12 + 13, channel.position());
+
+        // the header describes the image decoded with the options it was probed with
+        for (DecodeOptions options : new DecodeOptions[] {
+                DecodeOptions.DEFAULT.withPreservedAlpha(true),
+                DecodeOptions.DEFAULT.withFullDepth(true),
+                DecodeOptions.DEFAULT.withFullDepth(true).withPreservedAlpha(true),
+                DecodeOptions.DEFAULT.withFullDepth(true).withMaxSize(8, 8)}) {
+            OptiImage imgOptions = PngImageDecoder.provider().decode(filePath, options);
+            PngHeader headerOptions = PngImageDecoder.provider().probe(filePath, options);
+            assertEquals(imgOptions.channels, headerOptions.channels());
+            assertEquals(imgOptions.depth, headerOptions.depth());
+            if (options.getMaxWidth() == 0) {
+                assertEquals(imgOptions.data.length, headerOptions.getDecodedSize());
+            }
+            else {
+                assertTrue(imgOptions.data.length <= headerOptions.getDecodedSize());
+            }
+        }
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file with Opti
+     * into a new image, an existing image and a buffer, and asserts that the
+     * image data is equal.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeDestinationsAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+
+        OptiImage dest = img.allocate();
+        assertSame(dest, decoder.decode(filePath, dest));
+        assertArrayEquals(img.data, dest.data);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(img.data.length);
+        decoder.decodeSamples(filePath, buffer);
+        assertEquals(img.data.length, buffer.position());
+        byte[] samples = new byte[img.data.length];
+        buffer.flip().get(samples);
+        assertArrayEquals(img.data, samples);
+
+        // destination image of the wrong size
+        assertThrows(IOException.class, () -> decoder.decode(filePath, img.allocate(img.width + 1, img.height)));
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file with Opti
+     * from a path, a buffer and a stream, asynchronously from a path, and
+     * without verifying checksums, and asserts that the image data is equal.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeSourcesAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+        byte[] bytes = Files.readAllBytes(filePath);
+
+        OptiImage imgBuffer = decoder.decode(ByteBuffer.wrap(bytes));
+        assertArrayEquals(img.data, imgBuffer.data);
+
+        OptiImage imgStream = decoder.decode(new ByteArrayInputStream(bytes));
+        assertArrayEquals(img.data, imgStream.data);
+
+        OptiImage imgAsync = assertDoesNotThrow(() -> decoder.decodeAsync(filePath, ForkJoinPool.commonPool()).get());
+        assertArrayEquals(img.data, imgAsync.data);
+
+        DecodeOptions trusted = DecodeOptions.DEFAULT.withCrcPolicy(CrcPolicy.NONE).withAdler32Check(false);
+        OptiImage imgTrusted = decoder.decode(ByteBuffer.wrap(bytes), trusted);
+        assertArrayEquals(img.data, imgTrusted.data);
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file with Opti,
+     * reads its rows one at a time, and publishes its rows, and asserts that
+     * the rows are equal to the rows of the image.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeRowsAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+        int rowLength = img.width * img.channels;
+
+        // read all rows
+        try (PngRowReader reader = decoder.openRows(filePath)) {
+            assertEquals(img.width, reader.getWidth());
+            assertEquals(img.height, reader.getHeight());
+            assertEquals(rowLength, reader.getRowLength());
+            byte[] rows = new byte[rowLength * img.height];
+            for (int y = 0; reader.hasNextRow(); y++) {
+                assertEquals(y, reader.getRow());
+                assertSame(rows, reader.readRow(rows, y * rowLength));
+            }
+            assertArrayEquals(img.data, rows);
+            assertThrows(NoSuchElementException.class, () -> reader.readRow(new byte[rowLength], 0));
+            assertThrows(NoSuchElementException.class, reader::skipRow);
+        }
+
+        // skip every other row, and read columns of the remaining rows
+        try (PngRowReader reader = decoder.openRows(filePath)) {
+            for (int y = 0; y < img.height; y++) {
+                if (y % 2 == 0) {
+                    reader.skipRow();
+                }
+                else {
+                    int x = y % img.width;
+                    int width = (img.width - x + 1) / 2;
+                    byte[] row = reader.readRow(new byte[1 + width * img.channels], 1, x, width);
+                    int index = (x + y * img.width) * img.channels;
+                    assertArrayEquals(Arrays.copyOfRange(img.data, index, index + width * img.channels),
+                            Arrays.copyOfRange(row, 1, row.length));
+                }
+            }
+            assertFalse(reader.hasNextRow());
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.readRow(new byte[rowLength], 0, 1, img.width));
+        }
+
+        // read every other column of the first row
+        try (PngRowReader reader = decoder.openRows(filePath)) {
+            int count = (img.width + 1) / 2;
+            byte[] row = reader.readSampledRow(new byte[count * img.channels], 0, 0, count, 2);
+            for (int x = 0; x < count; x++) {
+                for (int c = 0; c < img.channels; c++) {
+                    assertEquals(img.getSample(x * 2, 0, c), row[x * img.channels + c]);
+                }
+            }
+            assertThrows(IllegalArgumentException.class, () -> reader.readSampledRow(row, 0, 0, 1, 0));
+        }
+
+        // publish all rows, requesting one row at a time
+        RowSubscriber subscriber = new RowSubscriber(true);
+        decoder.publishRows(filePath, ForkJoinPool.commonPool()).subscribe(subscriber);
+        List<byte[]> rows = assertDoesNotThrow(() -> subscriber.completion.get(30, TimeUnit.SECONDS));
+        assertEquals(img.height, rows.size());
+        for (int y = 0; y < img.height; y++) {
+            assertArrayEquals(Arrays.copyOfRange(img.data, y * rowLength, (y + 1) * rowLength), rows.get(y));
+        }
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file and
+     * thumbnails of it with Opti, and asserts that the samples of each
+     * thumbnail are equal to the samples of the image at the reduced pixel
+     * positions, or to the average of the reduced areas if area averaging is
+     * used for non-interlaced images.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeThumbnailsAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+        boolean interlaced = decoder.probe(filePath).isInterlaced();
+
+        // factors that are equal to Adam7 pass scales
+        for (int factor : new int[] {2, 4, 8}) {
+            DecodeOptions options = DecodeOptions.DEFAULT.withMaxSize(img.width / factor, img.height / factor);
+            for (boolean areaAveraging : new boolean[] {false, true}) {
+                OptiImage thumb = decoder.decode(filePath, options.withAreaAveraging(areaAveraging));
+                assertEquals(img.width / factor, thumb.width);
+                assertEquals(img.height / factor, thumb.height);
+                for (int y = 0; y < thumb.height; y++) {
+                    for (int x = 0; x < thumb.width; x++) {
+                        for (int c = 0; c < img.channels; c++) {
+                            int expected;
+                            if (areaAveraging && !interlaced) {
+                                int sum = 0;
+                                for (int i = 0; i < factor * factor; i++) {
+                                    sum += img.getSample(x * factor + i % factor, y * factor + i / factor, c) & 0xFF;
+                                }
+                                expected = (sum + factor * factor / 2) / (factor * factor);
+                            }
+                            else {
+                                expected = img.getSample(x * factor, y * factor, c) & 0xFF;
+                            }
+                            assertEquals(expected, thumb.getSample(x, y, c) & 0xFF);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Given the file path to a PNG image, decodes the image file with Opti
+     * with alpha preserved, and asserts that compositing the preserved alpha
+     * against the background color gives the samples of the image decoded
+     * with alpha composited. Also asserts that a thumbnail decoded with alpha
+     * preserved has the samples of the image at the reduced pixel positions.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeAlphaAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        OptiImage img = decodeWithOpti(filePath);
+        OptiImage imgAlpha = decoder.decode(filePath, DecodeOptions.DEFAULT.withPreservedAlpha(true));
+        assertEquals(img.width, imgAlpha.width);
+        assertEquals(img.height, imgAlpha.height);
+        assertEquals(img.channels + 1, imgAlpha.channels);
+
+        // background compositing sample of each channel
+        PngHeader header = decoder.probe(filePath);
+        ByteView bv = (ByteView) img.metadata.get(OptiImage.COMPOSITING_BACKGROUND);
+        int[] bkgd = new int[img.channels];
+        for (int c = 0; c < img.channels; c++) {
+            if (bv == null) {
+                bkgd[c] = 0xFF;
+            }
+            else if (header.colorType().usesPalette()) {
+                bkgd[c] = bv.get(c) & 0xFF;
+            }
+            else {
+                bkgd[c] = bv.get(header.bitDepth() > PngInfo.BIT_DEPTH_8 ? c * 2 : c * 2 + 1) & 0xFF;
+            }
+        }
+
+        // maximum allowed difference between sample values
+        final int MAX_DIFF = 1;
+
+        for (int y = 0; y < img.height; y++) {
+            for (int x = 0; x < img.width; x++) {
+                int alpha = imgAlpha.getSample(x, y, img.channels) & 0xFF;
+                for (int c = 0; c < img.channels; c++) {
+                    int fg = imgAlpha.getSample(x, y, c) & 0xFF;
+                    int expected = Math.round((fg * alpha + bkgd[c] * (255 - alpha)) / 255.0F);
+                    int actual = img.getSample(x, y, c) & 0xFF;
+                    assertTrue(Math.abs(expected - actual) <= MAX_DIFF,
+                            String.format("wrong sample value in channel %d for pixel (%d, %d), expected %d but was %d",
+                                    c, x, y, expected, actual));
+                }
+            }
+        }
+
+        DecodeOptions options = DecodeOptions.DEFAULT.withPreservedAlpha(true)
+                .withMaxSize(img.width / 2, img.height / 2);
+        OptiImage thumb = decoder.decode(filePath, options);
+        assertEquals(imgAlpha.channels, thumb.channels);
+        for (int y = 0; y < thumb.height; y++) {
+            for (int x = 0; x < thumb.width; x++) {
+                for (int c = 0; c < thumb.channels; c++) {
+                    assertEquals(imgAlpha.getSample(x * 2, y * 2, c), thumb.getSample(x, y, c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Given the file path to a PNG image with 16-bit samples, decodes the
+     * image file with Opti with full depth and IIO, and asserts that the
+     * 16-bit samples from both decoders are equal. Alpha is preserved if the
+     * image has alpha, such that the channels of both images are equal. Also
+     * asserts that the 8-bit samples are equal to the samples of the image
+     * decoded with 8-bit samples.
+     *
+     * @param filePath file path to a PNG image file
+     */
+    private void decodeFullDepthAndCompare(Path filePath) throws IOException {
+        PngImageDecoder decoder = PngImageDecoder.provider();
+        BufferedImage bImg = decodeWithIIO(filePath.toFile());
+        boolean alpha = bImg.getColorModel().hasAlpha();
+        DecodeOptions options = DecodeOptions.DEFAULT.withFullDepth(true).withPreservedAlpha(alpha);
+        OptiImage img = decoder.decode(filePath, options);
+        OptiImage img8 = decoder.decode(filePath, DecodeOptions.DEFAULT.withPreservedAlpha(alpha));
+
+        ShortImage shortImg = assertInstanceOf(ShortImage.class, img);
+        assertEquals(16, shortImg.depth);
+        assertEquals(bImg.getRaster().getNumBands(), shortImg.channels);
+        // samples are stored as big-endian bytes
+        assertEquals(shortImg.width * shortImg.height * shortImg.channels * 2, shortImg.data.length);
+        assertThrows(IllegalArgumentException.class, () -> new ShortImage(shortImg.width, shortImg.height,
+                shortImg.channels, new byte[shortImg.data.length - 2], null));
+        Raster raster = bImg.getRaster();
+        for (int y = 0; y < shortImg.height; y++) {
+            for (int x = 0; x < shortImg.width; x++) {
+                for (int c = 0; c < shortImg.channels; c++) {
+                    assertEquals(raster.getSample(x, y, c), shortImg.getShortSample(x, y, c));
+                    int i = ((x + y * shortImg.width) * shortImg.channels + c) * 2;
+                    assertEquals(raster.getSample(x, y, c) >>> 8, shortImg.data[i] & 0xFF);
+                    assertEquals(img8.getSample(x, y, c), shortImg.getSample(x, y, c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Non-seekable channel that reads the bytes of an array in short reads of
+     * random length, up to a maximum length, to test decoding from channels
+     * that are not files.
+     */
+    static class ShortReadChannel implements ReadableByteChannel {
+
+        private final byte[] bytes;
+        private final int maxRead;
+        private final Random random = new Random(0);
+        private int position = 0;
+        private boolean open = true;
+
+        ShortReadChannel(byte[] bytes, int maxRead) {
+            this.bytes = bytes;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Returns the number of bytes read from this channel.
+         */
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position == bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(dst.remaining(), bytes.length - position), 1 + random.nextInt(maxRead));
+            dst.put(bytes, position, n);
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Subscriber that stores the rows it is published. Rows are requested by
+     * the test, or one at a time by the subscriber if it is eager.
+     */
+    static class RowSubscriber implements Flow.Subscriber<byte[]> {
+
+        final List<byte[]> rows = new ArrayList<>();
+        final CompletableFuture<List<byte[]>> completion = new CompletableFuture<>();
+        final boolean eager;
+        Flow.Subscription subscription;
+
+        RowSubscriber(boolean eager) {
+            this.eager = eager;
+        }
+
+        @Override
+        public void onComplete() {
+            completion.complete(rows);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completion.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onNext(byte[] row) {
+            rows.add(row);
+            if (eager) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (eager) {
+                subscription.request(1);
+            }
+        }
+    }
 }
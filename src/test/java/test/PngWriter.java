@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2024, Adam Martinu. All rights reserved. Altering or
+ * removing copyright notices or this file header is not allowed.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");  you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal PNG encoder for generating test images that are too large to be
+ * kept as files, or that must contain specific chunks. Scanlines are filtered
+ * with a random filter type each, such that all filter types are used, and
+ * images can optionally be interlaced with the Adam7 method.
+ */
+class PngWriter {
+
+    private static final byte[] FILE_HEADER = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // Adam7 pass offsets and steps
+    private static final int[] PASS_X = {0, 4, 0, 2, 0, 1, 0};
+    private static final int[] PASS_Y = {0, 0, 4, 0, 2, 0, 1};
+    private static final int[] PASS_DX = {8, 8, 4, 4, 2, 2, 1};
+    private static final int[] PASS_DY = {8, 8, 8, 4, 4, 2, 2};
+
+    /**
+     * Returns the index of the first chunk of the specified type in the
+     * bytes of a PNG file, i.e. the index of its length field, or {@code -1}
+     * if there is no such chunk.
+     */
+    static int findChunk(byte[] bytes, String type) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int typeValue = ByteBuffer.wrap(type.getBytes(StandardCharsets.US_ASCII)).getInt();
+        for (int index = FILE_HEADER.length; index + 8 <= bytes.length; index += 12 + buffer.getInt(index)) {
+            if (buffer.getInt(index + 4) == typeValue) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes in an unfiltered scanline of
+     * {@code width} pixels of {@code bitsPerPixel} bits each.
+     */
+    static int getRowLength(int width, int bitsPerPixel) {
+        return (width * bitsPerPixel + 7) / 8;
+    }
+
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int colorType;
+    private final int bitsPerPixel;
+    private final List<String> chunkTypes = new ArrayList<>();
+    private final List<byte[]> chunkData = new ArrayList<>();
+    private final Random random = new Random(0);
+    private boolean interlaced = false;
+    private byte[] palette = null;
+    private byte[] trailingData = new byte[0];
+    private int idatLength = 1 << 16;
+
+    /**
+     * Creates a new writer of images with the specified size, bit depth and
+     * color type.
+     */
+    PngWriter(int width, int height, int bitDepth, int colorType) {
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.colorType = colorType;
+        int channels = switch (colorType) {
+            case 0, 3 -> 1;
+            case 2 -> 3;
+            case 4 -> 2;
+            case 6 -> 4;
+            default -> throw new IllegalArgumentException("invalid color type {" + colorType + "}");
+        };
+        bitsPerPixel = channels * bitDepth;
+    }
+
+    /**
+     * Adds an ancillary chunk, which is written after the PLTE chunk and
+     * before the IDAT chunks.
+     */
+    PngWriter addChunk(String type, byte[] data) {
+        chunkTypes.add(type);
+        chunkData.add(data);
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes in an unfiltered scanline of the image.
+     */
+    int getRowLength() {
+        return getRowLength(width, bitsPerPixel);
+    }
+
+    /**
+     * Sets the maximum number of bytes in each IDAT chunk.
+     */
+    PngWriter setIdatLength(int idatLength) {
+        this.idatLength = idatLength;
+        return this;
+    }
+
+    /**
+     * Sets whether the image is interlaced with the Adam7 method.
+     */
+    PngWriter setInterlaced(boolean interlaced) {
+        this.interlaced = interlaced;
+        return this;
+    }
+
+    /**
+     * Sets the palette of the image, as RGB triplets.
+     */
+    PngWriter setPalette(byte[] palette) {
+        this.palette = palette;
+        return this;
+    }
+
+    /**
+     * Sets bytes that are compressed after the filtered scanlines, i.e. image
+     * data that is not part of the image.
+     */
+    PngWriter setTrailingData(byte[] trailingData) {
+        this.trailingData = trailingData;
+        return this;
+    }
+
+    /**
+     * Encodes the specified unfiltered scanlines, of
+     * {@link #getRowLength()} bytes each, and returns the bytes of the PNG
+     * file.
+     */
+    byte[] write(byte[] pixels) {
+        ByteArrayOutputStream filtered = new ByteArrayOutputStream();
+        if (interlaced) {
+            for (int pass = 0; pass < 7; pass++) {
+                int passWidth = (width - PASS_X[pass] + PASS_DX[pass] - 1) / PASS_DX[pass];
+                int passHeight = (height - PASS_Y[pass] + PASS_DY[pass] - 1) / PASS_DY[pass];
+                if (passWidth == 0 || passHeight == 0) {
+                    continue;
+                }
+                int passRowLength = getRowLength(passWidth, bitsPerPixel);
+                byte[] passPixels = new byte[passRowLength * passHeight];
+                for (int y = 0; y < passHeight; y++) {
+                    int row = (PASS_Y[pass] + y * PASS_DY[pass]) * getRowLength();
+                    for (int x = 0; x < passWidth; x++) {
+                        copyPixel(pixels, row, PASS_X[pass] + x * PASS_DX[pass], passPixels, y * passRowLength, x);
+                    }
+                }
+                filter(passPixels, passRowLength, passHeight, filtered);
+            }
+        }
+        else {
+            filter(pixels, getRowLength(), height, filtered);
+        }
+        filtered.writeBytes(trailingData);
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(filtered.toByteArray());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        byte[] data = compressed.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(FILE_HEADER);
+        writeChunk(out, "IHDR", ByteBuffer.allocate(13)
+                .putInt(width)
+                .putInt(height)
+                .put((byte) bitDepth)
+                .put((byte) colorType)
+                .put((byte) 0)
+                .put((byte) 0)
+                .put((byte) (interlaced ? 1 : 0))
+                .array());
+        if (palette != null) {
+            writeChunk(out, "PLTE", palette);
+        }
+        for (int i = 0; i < chunkTypes.size(); i++) {
+            writeChunk(out, chunkTypes.get(i), chunkData.get(i));
+        }
+        for (int offset = 0; offset < data.length; offset += idatLength) {
+            byte[] idat = new byte[Math.min(idatLength, data.length - offset)];
+            System.arraycopy(data, offset, idat, 0, idat.length);
+            writeChunk(out, "IDAT", idat);
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    /**
+     * Copies the pixel at column {@code x} of the scanline at {@code srcRow}
+     * to column {@code destX} of the scanline at {@code destRow}.
+     */
+    private void copyPixel(byte[] src, int srcRow, int x, byte[] dest, int destRow, int destX) {
+        if (bitsPerPixel >= 8) {
+            int n = bitsPerPixel / 8;
+            System.arraycopy(src, srcRow + x * n, dest, destRow + destX * n, n);
+        }
+        else {
+            int mask = (1 << bitsPerPixel) - 1;
+            int srcBit = x * bitsPerPixel;
+            int value = src[srcRow + srcBit / 8] >> 8 - bitsPerPixel - srcBit % 8 & mask;
+            int destBit = destX * bitsPerPixel;
+            dest[destRow + destBit / 8] |= (byte) (value << 8 - bitsPerPixel - destBit % 8);
+        }
+    }
+
+    /**
+     * Filters the specified scanlines with a random filter type each, and
+     * writes the filter type and filtered bytes of each scanline to
+     * {@code out}.
+     */
+    private void filter(byte[] pixels, int rowLength, int rows, ByteArrayOutputStream out) {
+        int bpp = Math.max(1, bitsPerPixel / 8);
+        byte[] line = new byte[rowLength];
+        for (int y = 0; y < rows; y++) {
+            int type = random.nextInt(5);
+            int row = y * rowLength;
+            for (int i = 0; i < rowLength; i++) {
+                int raw = pixels[row + i] & 0xFF;
+                int a = i >= bpp ? pixels[row + i - bpp] & 0xFF : 0;
+                int b = y > 0 ? pixels[row - rowLength + i] & 0xFF : 0;
+                int c = i >= bpp && y > 0 ? pixels[row - rowLength + i - bpp] & 0xFF : 0;
+                int predictor = switch (type) {
+                    case 1 -> a;
+                    case 2 -> b;
+                    case 3 -> (a + b) / 2;
+                    case 4 -> paethPredictor(a, b, c);
+                    default -> 0;
+                };
+                line[i] = (byte) (raw - predictor);
+            }
+            out.write(type);
+            out.writeBytes(line);
+        }
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        else if (pb <= pc) {
+            return b;
+        }
+        else {
+            return c;
+        }
+    }
+
+    /**
+     * Computes the CRC value of the chunk at the specified index in the bytes
+     * of a PNG file, and stores it after the chunk data.
+     */
+    static void updateCrc(byte[] bytes, int index) {
+        int length = ByteBuffer.wrap(bytes).getInt(index);
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, index + 4, 4 + length);
+        ByteBuffer.wrap(bytes).putInt(index + 8 + length, (int) crc32.getValue());
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc32 = new CRC32();
+        crc32.update(typeBytes);
+        crc32.update(data);
+        out.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.writeBytes(typeBytes);
+        out.writeBytes(data);
+        out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc32.getValue()).array());
+    }
+}